@@ -0,0 +1,124 @@
+package com.launchdarkly.client;
+
+import com.google.gson.JsonElement;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Which of the attributes referred to by flag rules a user has, as a bitmask, so that a rule with a
+ * clause on an attribute the user does not have can be skipped without evaluating any of its clauses.
+ * Such a clause is always false, whether or not it is negated, so skipping the rule does not change the
+ * result.
+ * <p>
+ * Each built-in attribute has a fixed bit. Custom attributes are given bits by a {@link Registry} as flags
+ * referring to them are compiled, up to 64 attributes in all; a clause on an attribute without a bit is
+ * never used to skip a rule. Each {@link InMemoryFeatureStore} has its own registry, which it replaces
+ * when it is initialized, so attributes that the current flags no longer refer to do not use up bits.
+ * Since a registry only ever adds bits, a user's mask records the registry and how many bits it had when
+ * the mask was computed, and is computed again if a rule needs a newer one (see
+ * {@link LDUser#hasAttributes(Registry, long)}).
+ */
+final class AttributePresence {
+  static final int MAX_ATTRIBUTES = 64;
+  static final long BUILT_IN_BITS = (1L << UserAttribute.values().length) - 1;
+
+  final Registry registry;
+  final long present;
+  final long known;
+
+  private AttributePresence(Registry registry, long present, long known) {
+    this.registry = registry;
+    this.present = present;
+    this.known = known;
+  }
+
+  /**
+   * Returns true if this mask can answer a question about the given bits from the given registry.
+   */
+  boolean covers(Registry registry, long mask) {
+    if ((mask & ~known) != 0) {
+      return false;
+    }
+    // The built-in bits are the same in every registry
+    return registry == this.registry || (mask & ~BUILT_IN_BITS) == 0;
+  }
+
+  /**
+   * Gives bits to custom attributes. Bits are never taken back, so a registry should be replaced rather
+   * than kept forever by anything that compiles flags from changing data.
+   */
+  static final class Registry {
+    /**
+     * A registry that never gives out bits for custom attributes, for flags that are compiled outside of
+     * an {@link InMemoryFeatureStore}.
+     */
+    static final Registry BUILT_IN_ONLY = new Registry(UserAttribute.values().length);
+
+    private final int maxAttributes;
+    private final ConcurrentMap<String, Long> customBits = new ConcurrentHashMap<>();
+    private volatile int numBits = UserAttribute.values().length;
+
+    Registry() {
+      this(MAX_ATTRIBUTES);
+    }
+
+    private Registry(int maxAttributes) {
+      this.maxAttributes = maxAttributes;
+    }
+
+    /**
+     * Returns the bit for an attribute, giving it one if it is a custom attribute that does not have one
+     * yet, or 0 if there are no bits left.
+     */
+    long bitFor(String attribute) {
+      UserAttribute builtIn = UserAttribute.forName(attribute);
+      if (builtIn != null) {
+        return 1L << builtIn.ordinal();
+      }
+      if (attribute == null) {
+        return 0;
+      }
+      Long bit = customBits.get(attribute);
+      return bit != null ? bit : newBit(attribute);
+    }
+
+    private synchronized long newBit(String attribute) {
+      Long bit = customBits.get(attribute);
+      if (bit == null) {
+        if (numBits == maxAttributes) {
+          return 0;
+        }
+        bit = 1L << numBits;
+        customBits.put(attribute, bit); // before numBits, so a user mask that covers the bit will see it
+        numBits++;
+      }
+      return bit;
+    }
+
+    /**
+     * Computes the mask for a user from the bits that exist now.
+     */
+    AttributePresence of(LDUser user) {
+      int n = numBits;
+      long known = n == MAX_ATTRIBUTES ? -1L : (1L << n) - 1;
+      long present = 0;
+      for (UserAttribute a: UserAttribute.values()) {
+        if (a.get(user) != null) {
+          present |= 1L << a.ordinal();
+        }
+      }
+      Map<String, JsonElement> custom = user.getCustomAttributes();
+      if (custom != null && !customBits.isEmpty()) {
+        for (Map.Entry<String, JsonElement> e: custom.entrySet()) {
+          Long bit = customBits.get(e.getKey());
+          if (bit != null && e.getValue() != null) {
+            present |= bit;
+          }
+        }
+      }
+      return new AttributePresence(this, present & known, known);
+    }
+  }
+}
@@ -0,0 +1,274 @@
+package com.launchdarkly.client;
+
+import com.google.gson.JsonElement;
+import com.google.gson.JsonPrimitive;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static com.launchdarkly.client.VersionedDataKind.FEATURES;
+import static com.launchdarkly.client.VersionedDataKind.SEGMENTS;
+
+/**
+ * Evaluates one flag for every user in a {@link UserBatch}, for
+ * {@link LDClient#evaluateBatch(String, UserBatch, ForkJoinPool, boolean)}.
+ * <p>
+ * If a {@link ForkJoinPool} is given, the batch is split into ranges of users that are evaluated in
+ * parallel, and each task only writes the results for its own range. Each user is built just before it
+ * is evaluated, with only the attributes that the flag, its prerequisites and the segments they refer to
+ * can use, and is then dropped. No events are created for individual users; instead, the results can
+ * be turned into one summary-only event per variation (see {@link #summaryEvents(int[])}), together with
+ * the counts of prerequisite evaluations, which each task collects for its own range.
+ */
+final class BatchEvaluator {
+  private static final Logger logger = LoggerFactory.getLogger(BatchEvaluator.class);
+
+  /**
+   * The result for a user who did not get any variation, and so gets the default value.
+   */
+  static final int NO_VARIATION = -1;
+
+  // Ranges of users smaller than this are evaluated by one task, since for fewer users than this the
+  // cost of forking outweighs the benefit.
+  static final int MIN_USERS_PER_TASK = 4096;
+
+  private final FeatureFlag flag;
+  private final FeatureStore featureStore;
+  private final UserBatch users;
+  private final List<UserBatch.Column> columns;
+  private final boolean countPrerequisites;
+  private final Map<EventSummarizer.CounterKey, Count> prerequisiteCounts = new HashMap<>(); // guarded by itself
+  private final AtomicInteger errors = new AtomicInteger();
+
+  BatchEvaluator(FeatureFlag flag, FeatureStore featureStore, UserBatch users, boolean countPrerequisites) {
+    this.flag = flag;
+    this.featureStore = featureStore;
+    this.users = users;
+    this.columns = users.columnsFor(referencedAttributes(flag, featureStore));
+    this.countPrerequisites = countPrerequisites;
+  }
+
+  /**
+   * Evaluates the flag for all of the users, using the pool if it is not null.
+   * @return the variation index for each user, or {@link #NO_VARIATION}
+   */
+  int[] evaluateAll(ForkJoinPool pool) {
+    int[] results = new int[users.size()];
+    if (pool == null || users.size() <= MIN_USERS_PER_TASK) {
+      evaluateRange(results, 0, users.size());
+    } else {
+      pool.invoke(new EvaluateRangeTask(results, 0, users.size()));
+    }
+    int n = errors.get();
+    if (n > 0) {
+      logger.error("Encountered exceptions while evaluating feature flag \"{}\" for {} users in a batch",
+          flag.getKey(), n);
+    }
+    return results;
+  }
+
+  private void evaluateRange(int[] results, int start, int end) {
+    CompiledFlag compiled = flag.getCompiled();
+    EvaluationDetail<JsonElement> constant = compiled.getConstantResult();
+    Map<EventSummarizer.CounterKey, Count> counts = countPrerequisites && compiled.hasPrerequisites() ?
+        new HashMap<EventSummarizer.CounterKey, Count>() : null;
+    for (int i = start; i < end; i++) {
+      LDUser user = users.user(i, columns);
+      if (user.getKey() == null) {
+        results[i] = NO_VARIATION;
+        continue;
+      }
+      try {
+        EvaluationDetail<JsonElement> details;
+        if (constant != null) {
+          details = constant;
+        } else if (!compiled.hasPrerequisites()) {
+          details = compiled.evaluate(user, featureStore, Collections.<Event.FeatureRequest>emptyList(),
+              EventFactory.DEFAULT);
+        } else {
+          FeatureFlag.EvalResult result = flag.evaluate(user, featureStore, EventFactory.DEFAULT);
+          details = result.getDetails();
+          if (counts != null) {
+            for (Event.FeatureRequest e: result.getPrerequisiteEvents()) {
+              count(counts, e, 1);
+            }
+          }
+        }
+        results[i] = details.getVariationIndex() == null ? NO_VARIATION : details.getVariationIndex();
+      } catch (Exception e) {
+        errors.incrementAndGet();
+        logger.debug(e.toString(), e);
+        results[i] = NO_VARIATION;
+      }
+    }
+    if (counts != null) {
+      synchronized (prerequisiteCounts) {
+        for (Count c: counts.values()) {
+          count(prerequisiteCounts, c.first, c.count);
+        }
+      }
+    }
+  }
+
+  private static void count(Map<EventSummarizer.CounterKey, Count> counts, Event.FeatureRequest e, int n) {
+    EventSummarizer.CounterKey key = new EventSummarizer.CounterKey(e.key, e.variation, e.version);
+    Count c = counts.get(key);
+    if (c == null) {
+      counts.put(key, new Count(e, n));
+    } else {
+      c.count += n;
+    }
+  }
+
+  /**
+   * Returns events that add the evaluations of the flag and its prerequisites to the analytics summary:
+   * one for each distinct result, with the number of users who got it. None of them are full events,
+   * even if the flag is tracked, and they have no user, so the event processor does not send an index
+   * event for any of the users in the batch.
+   */
+  List<Event.FeatureRequest> summaryEvents(int[] results) {
+    int numVariations = flag.getVariations() == null ? 0 : flag.getVariations().size();
+    int[] counts = new int[numVariations + 1]; // the last one is for NO_VARIATION
+    for (int i = 0; i < results.length; i++) {
+      counts[results[i] == NO_VARIATION ? numVariations : results[i]]++;
+    }
+    List<Event.FeatureRequest> events = new ArrayList<>();
+    long now = System.currentTimeMillis();
+    for (int v = 0; v <= numVariations; v++) {
+      if (counts[v] > 0) {
+        Integer variation = v == numVariations ? null : v;
+        JsonElement value = variation == null ? null : flag.getVariations().get(v);
+        Event.FeatureRequest e = new Event.FeatureRequest(now, flag.getKey(), null, flag.getVersion(),
+            variation, value, null, null, false, null, null, false);
+        events.add(new Event.FeatureRequest(e, counts[v]));
+      }
+    }
+    synchronized (prerequisiteCounts) {
+      for (Count c: prerequisiteCounts.values()) {
+        Event.FeatureRequest p = c.first;
+        Event.FeatureRequest e = new Event.FeatureRequest(p.creationDate, p.key, null, p.version, p.variation,
+            p.value, p.defaultVal, p.prereqOf, false, null, null, false);
+        events.add(new Event.FeatureRequest(e, c.count));
+      }
+    }
+    return events;
+  }
+
+  /**
+   * Returns the names of all the user attributes that evaluating the flag can use.
+   */
+  static Set<String> referencedAttributes(FeatureFlag flag, FeatureStore store) {
+    Set<String> attributes = new HashSet<>();
+    attributes.add(UserAttribute.secondary.name()); // part of the bucketing hash
+    addAttributes(flag, store, attributes, new HashSet<String>(), new HashSet<String>());
+    return attributes;
+  }
+
+  private static void addAttributes(FeatureFlag flag, FeatureStore store, Set<String> attributes,
+      Set<String> flagsSeen, Set<String> segmentsSeen) {
+    if (!flagsSeen.add(flag.getKey())) {
+      return;
+    }
+    if (flag.getPrerequisites() != null) {
+      for (Prerequisite p: flag.getPrerequisites()) {
+        FeatureFlag prereq = store.get(FEATURES, p.getKey());
+        if (prereq != null) {
+          addAttributes(prereq, store, attributes, flagsSeen, segmentsSeen);
+        }
+      }
+    }
+    if (flag.getRules() != null) {
+      for (Rule rule: flag.getRules()) {
+        addClauseAttributes(rule.getClauses(), store, attributes, segmentsSeen);
+        addBucketBy(rule.getRollout() == null ? null : rule.getRollout().getBucketBy(), rule.getRollout() != null,
+            attributes);
+      }
+    }
+    VariationOrRollout fallthrough = flag.getFallthrough();
+    if (fallthrough != null && fallthrough.getRollout() != null) {
+      addBucketBy(fallthrough.getRollout().getBucketBy(), true, attributes);
+    }
+  }
+
+  private static void addClauseAttributes(List<Clause> clauses, FeatureStore store, Set<String> attributes,
+      Set<String> segmentsSeen) {
+    if (clauses == null) {
+      return;
+    }
+    for (Clause clause: clauses) {
+      if (clause.getOp() != Operator.segmentMatch) {
+        if (clause.getAttribute() != null) {
+          attributes.add(clause.getAttribute());
+        }
+        continue;
+      }
+      if (clause.getValues() == null) {
+        continue;
+      }
+      for (JsonPrimitive value: clause.getValues()) {
+        if (value == null || !value.isString() || !segmentsSeen.add(value.getAsString())) {
+          continue;
+        }
+        Segment segment = store.get(SEGMENTS, value.getAsString());
+        if (segment != null && segment.getRules() != null) {
+          for (SegmentRule rule: segment.getRules()) {
+            addClauseAttributes(rule.getClauses(), store, attributes, segmentsSeen);
+            addBucketBy(rule.getBucketBy(), true, attributes);
+          }
+        }
+      }
+    }
+  }
+
+  private static void addBucketBy(String bucketBy, boolean bucketed, Set<String> attributes) {
+    if (bucketed) {
+      attributes.add(bucketBy == null ? UserAttribute.key.name() : bucketBy);
+    }
+  }
+
+  // The number of evaluations with the same counter key, and the event for the first of them
+  private static final class Count {
+    final Event.FeatureRequest first;
+    int count;
+
+    Count(Event.FeatureRequest first, int count) {
+      this.first = first;
+      this.count = count;
+    }
+  }
+
+  @SuppressWarnings("serial")
+  private final class EvaluateRangeTask extends RecursiveAction {
+    private final int[] results;
+    private final int start;
+    private final int end;
+
+    EvaluateRangeTask(int[] results, int start, int end) {
+      this.results = results;
+      this.start = start;
+      this.end = end;
+    }
+
+    @Override
+    protected void compute() {
+      if (end - start <= MIN_USERS_PER_TASK) {
+        evaluateRange(results, start, end);
+      } else {
+        int middle = (start + end) >>> 1;
+        invokeAll(new EvaluateRangeTask(results, start, middle),
+            new EvaluateRangeTask(results, middle, end));
+      }
+    }
+  }
+}
@@ -18,6 +18,11 @@ class Clause {
   private List<JsonPrimitive> values; //interpreted as an OR of values
   private boolean negate;
 
+  // Everything about the clause that can be worked out in advance; see getPrepared().
+  private transient volatile Prepared prepared;
+  // Set once we have warned that matching this clause took too long, so that we do not warn for every user.
+  private transient volatile boolean warnedBudgetExceeded;
+
   public Clause() {
   }
   
@@ -28,8 +33,40 @@ class Clause {
     this.negate = negate;
   }
 
+  Operator getOp() {
+    return op;
+  }
+
+  List<JsonPrimitive> getValues() {
+    return values;
+  }
+
+  String getAttribute() {
+    return attribute;
+  }
+
+  boolean isNegate() {
+    return negate;
+  }
+
   boolean matchesUserNoSegments(LDUser user) {
-    JsonElement userValue = user.getValueForEvaluation(attribute);
+    try {
+      return matchesUserValue(user);
+    } catch (RegexMatcher.StepBudgetExceededException e) {
+      if (!warnedBudgetExceeded) {
+        warnedBudgetExceeded = true;
+        logger.warn("Matching patterns against attribute \"{}\" took too long; clause will not match for such users",
+            attribute);
+      } else {
+        logger.debug("Matching patterns against attribute \"{}\" for user key \"{}\" took too long", attribute,
+            user.getKey());
+      }
+      return false;
+    }
+  }
+
+  private boolean matchesUserValue(LDUser user) {
+    JsonElement userValue = user.getValueForEvaluation(getPrepared().builtInAttribute, attribute);
     if (userValue == null) {
       return false;
     }
@@ -41,13 +78,13 @@ class Clause {
           logger.error("Invalid custom attribute value in user object for user key \"{}\": {}", user.getKey(), jsonElement);
           return false;
         }
-        if (matchAny(jsonElement.getAsJsonPrimitive())) {
+        if (matchAny(user, jsonElement.getAsJsonPrimitive())) {
           return maybeNegate(true);
         }
       }
       return maybeNegate(false);
     } else if (userValue.isJsonPrimitive()) {
-      return maybeNegate(matchAny(userValue.getAsJsonPrimitive()));
+      return maybeNegate(matchAny(user, userValue.getAsJsonPrimitive()));
     }
     logger.warn("Got unexpected user attribute type \"{}\" for user key \"{}\" and attribute \"{}\"",
         userValue.getClass().getName(), user.getKey(), attribute);
@@ -55,9 +92,28 @@ class Clause {
   }
 
   boolean matchesUser(FeatureStore store, LDUser user) {
+    return matchesUser(store, user, null, null);
+  }
+
+  // If segmentSlots is not null, it holds the store's slots for the segments named by this clause, and
+  // they are used instead of looking the segments up in the store. If segmentMatches is not null, it is
+  // the user's membership of that store's segments, so that their included and excluded lists do not
+  // have to be checked.
+  boolean matchesUser(FeatureStore store, LDUser user, ItemSlot[] segmentSlots,
+      UserKeyIndex.Matches<Segment> segmentMatches) {
     // In the case of a segment match operator, we check if the user is in any of the segments,
     // and possibly negate
     if (op == Operator.segmentMatch) {
+      if (segmentSlots != null) {
+        for (ItemSlot slot: segmentSlots) {
+          Segment segment = slot.get(SEGMENTS);
+          if (segment != null && (segmentMatches == null ? segment.matchesUser(user) :
+              segment.matchesUser(user, segmentMatches.get(segment)))) {
+            return maybeNegate(true);
+          }
+        }
+        return maybeNegate(false);
+      }
       for (JsonPrimitive j: values) {
         if (j.isString()) {
           Segment segment = store.get(SEGMENTS, j.getAsString());
@@ -74,10 +130,24 @@ class Clause {
     return matchesUserNoSegments(user);
   }
   
-  private boolean matchAny(JsonPrimitive userValue) {
+  private boolean matchAny(LDUser user, JsonPrimitive userValue) {
+    Prepared p = getPrepared();
+    if (p.matcher != null) {
+      return p.matcher.matchAny(userValue);
+    }
+    if (op != null && op.getOperandType() != null) {
+      // A comparison operator; the user keeps the converted value, so that other clauses can use it
+      Object converted = user.getValueAsType(userValue, op.getOperandType());
+      for (Object v : p.values) {
+        if (op.applyConverted(converted, v)) {
+          return true;
+        }
+      }
+      return false;
+    }
     if (op != null) {
-      for (JsonPrimitive v : values) {
-        if (op.apply(userValue, v)) {
+      for (Object v : p.values) {
+        if (op.applyPreparsed(userValue, v)) {
           return true;
         }
       }
@@ -85,6 +155,45 @@ class Clause {
     return false;
   }
 
+  /**
+   * Resolves the clause attribute to a built-in user attribute if it is one, and parses the clause values
+   * into the form used by the operator (numbers, dates, semantic versions, regular expressions, a hash set
+   * for {@code in}, a trie for string matching, or a combined automaton for {@code matches}), so that this
+   * is not repeated for every evaluation. This is done when the flag or segment is stored, or else the
+   * first time the clause is evaluated.
+   */
+  void compile() {
+    getPrepared();
+  }
+
+  private Prepared getPrepared() {
+    Prepared ret = prepared;
+    if (ret == null) {
+      // If two threads get here at once they will compute equivalent objects, so no locking is needed.
+      Operator.ValueMatcher matcher = op == null || values == null ? null : op.prepareValues(values);
+      int n = values == null || matcher != null ? 0 : values.size();
+      Object[] preparsedValues = new Object[n];
+      for (int i = 0; i < n; i++) {
+        preparsedValues[i] = op == null ? null : op.preparse(values.get(i));
+      }
+      ret = new Prepared(UserAttribute.forName(attribute), matcher, preparsedValues);
+      prepared = ret;
+    }
+    return ret;
+  }
+
+  private static final class Prepared {
+    final UserAttribute builtInAttribute; // null if the attribute is a custom one
+    final Operator.ValueMatcher matcher; // as returned by Operator.prepareValues(), if not null
+    final Object[] values; // as returned by Operator.preparse(); empty if there is a matcher
+
+    Prepared(UserAttribute builtInAttribute, Operator.ValueMatcher matcher, Object[] values) {
+      this.builtInAttribute = builtInAttribute;
+      this.matcher = matcher;
+      this.values = values;
+    }
+  }
+
   private boolean maybeNegate(boolean b) {
     if (negate)
       return !b;
@@ -0,0 +1,28 @@
+package com.launchdarkly.client;
+
+import com.google.gson.JsonElement;
+import com.google.gson.JsonPrimitive;
+
+/**
+ * An {@link EvaluationDetail} for one of a flag's variations that also holds the variation's value
+ * already converted to each of the types returned by the typed variation methods, so that
+ * {@link LDClient#boolVariation(String, LDUser, boolean)} and the like do not have to convert or box it
+ * on every evaluation. {@link CompiledFlag} builds these when the flag is compiled.
+ * <p>
+ * Each typed value is null if the variation is not of that type.
+ */
+final class CoercedDetail extends EvaluationDetail<JsonElement> {
+  final Boolean boolValue;
+  final Integer intValue;
+  final Double doubleValue;
+  final String stringValue;
+
+  CoercedDetail(EvaluationReason reason, int variationIndex, JsonElement value) {
+    super(reason, variationIndex, value);
+    JsonPrimitive p = value != null && value.isJsonPrimitive() ? value.getAsJsonPrimitive() : null;
+    this.boolValue = p != null && p.isBoolean() ? p.getAsBoolean() : null;
+    this.intValue = p != null && p.isNumber() ? p.getAsInt() : null;
+    this.doubleValue = p != null && p.isNumber() ? p.getAsDouble() : null;
+    this.stringValue = p != null && p.isString() ? p.getAsString() : null;
+  }
+}
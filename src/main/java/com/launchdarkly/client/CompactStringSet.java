@@ -0,0 +1,147 @@
+package com.launchdarkly.client;
+
+import com.google.gson.TypeAdapter;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+import com.google.gson.stream.JsonWriter;
+
+import java.io.IOException;
+import java.util.AbstractCollection;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * An immutable set of strings, used for the lists of user keys in flag targets and segments, which
+ * can be very large.
+ * <p>
+ * The strings are kept in a single array grouped by hash bucket, with a second array giving the
+ * start of each bucket, so a lookup only looks at the few strings in one bucket. This takes about as
+ * much memory as an ArrayList of the same strings, and much less than a HashSet. Iteration order is
+ * not the original order.
+ * <p>
+ * In JSON it is a plain array of strings. Fields of this type must be annotated with
+ * {@code @JsonAdapter(CompactStringSet.Adapter.class)}, because Gson would otherwise treat it like any
+ * other Collection and fail to construct it.
+ */
+final class CompactStringSet extends AbstractCollection<String> {
+  // Aim for this many strings per bucket on average. Lookups compare String.hashCode(), which is
+  // cached in each String, before calling equals(), so a few strings per bucket cost very little.
+  private static final int TARGET_BUCKET_SIZE = 4;
+
+  static final CompactStringSet EMPTY = new CompactStringSet(new String[0], new int[] { 0, 0 });
+
+  private final String[] strings;
+  private final int[] bucketStarts; // bucket i is strings[bucketStarts[i]] to strings[bucketStarts[i + 1] - 1]
+  private final int mask;
+
+  private CompactStringSet(String[] strings, int[] bucketStarts) {
+    this.strings = strings;
+    this.bucketStarts = bucketStarts;
+    this.mask = bucketStarts.length - 2;
+  }
+
+  /**
+   * Builds a set from the given strings, ignoring duplicates and nulls.
+   * @param values the strings; may be null, in which case the set is empty
+   * @return a set
+   */
+  static CompactStringSet of(Collection<String> values) {
+    if (values == null || values.isEmpty()) {
+      return EMPTY;
+    }
+    if (values instanceof CompactStringSet) {
+      return (CompactStringSet)values;
+    }
+    Set<String> distinct = new HashSet<>(values);
+    distinct.remove(null);
+    int n = distinct.size();
+    int numBuckets = Integer.highestOneBit(Math.max(1, n / TARGET_BUCKET_SIZE));
+    int mask = numBuckets - 1;
+
+    // Counting sort by bucket: count the strings in each bucket, turn the counts into start positions,
+    // then drop each string into place.
+    int[] bucketStarts = new int[numBuckets + 1];
+    for (String s: distinct) {
+      bucketStarts[bucketOf(s.hashCode(), mask) + 1]++;
+    }
+    for (int i = 0; i < numBuckets; i++) {
+      bucketStarts[i + 1] += bucketStarts[i];
+    }
+    int[] next = Arrays.copyOf(bucketStarts, numBuckets);
+    String[] strings = new String[n];
+    for (String s: distinct) {
+      strings[next[bucketOf(s.hashCode(), mask)]++] = s;
+    }
+    return new CompactStringSet(strings, bucketStarts);
+  }
+
+  private static int bucketOf(int hash, int mask) {
+    return (hash ^ (hash >>> 16)) & mask;
+  }
+
+  @Override
+  public boolean contains(Object o) {
+    if (!(o instanceof String)) {
+      return false;
+    }
+    int hash = o.hashCode();
+    int bucket = bucketOf(hash, mask);
+    for (int i = bucketStarts[bucket], end = bucketStarts[bucket + 1]; i < end; i++) {
+      String s = strings[i];
+      if (s.hashCode() == hash && s.equals(o)) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  @Override
+  public Iterator<String> iterator() {
+    // The list returned by Arrays.asList does not support removal, so neither does this iterator.
+    return Arrays.asList(strings).iterator();
+  }
+
+  @Override
+  public int size() {
+    return strings.length;
+  }
+
+  static final class Adapter extends TypeAdapter<CompactStringSet> {
+    @Override
+    public void write(JsonWriter out, CompactStringSet value) throws IOException {
+      if (value == null) {
+        out.nullValue();
+        return;
+      }
+      out.beginArray();
+      for (String s: value.strings) {
+        out.value(s);
+      }
+      out.endArray();
+    }
+
+    @Override
+    public CompactStringSet read(JsonReader in) throws IOException {
+      if (in.peek() == JsonToken.NULL) {
+        in.nextNull();
+        return null;
+      }
+      List<String> values = new ArrayList<>();
+      in.beginArray();
+      while (in.hasNext()) {
+        if (in.peek() == JsonToken.NULL) {
+          in.nextNull();
+        } else {
+          values.add(in.nextString());
+        }
+      }
+      in.endArray();
+      return of(values);
+    }
+  }
+}
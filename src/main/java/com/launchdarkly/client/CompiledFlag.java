@@ -0,0 +1,470 @@
+package com.launchdarkly.client;
+
+import com.google.gson.JsonElement;
+import com.google.gson.JsonPrimitive;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import static com.launchdarkly.client.VersionedDataKind.FEATURES;
+import static com.launchdarkly.client.VersionedDataKind.SEGMENTS;
+
+/**
+ * An immutable, pre-validated form of a {@link FeatureFlag} that is built once, when the flag is put
+ * into a {@link FeatureStore} (or on first use if the store did not do so), and then used for every
+ * evaluation of that flag version.
+ * <p>
+ * Everything that depends only on the flag data is worked out here: variation indexes are checked,
+ * the {@link EvaluationDetail} for every possible fixed outcome is built in advance (as a
+ * {@link CoercedDetail}, so typed variation methods can use it without conversion), the clauses
+ * of all rules are laid out in one flat array, and long runs of rules that each match one attribute
+ * against a list of values get a {@link RuleValueIndex}. The evaluation path then only does work that
+ * depends on the user. If nothing about the result can depend on the user, because the flag is off or
+ * has no prerequisites, targets or rules and a fixed fallthrough variation, the result is worked out
+ * once and evaluation just returns it.
+ * <p>
+ * A flag compiled by an {@link InMemoryFeatureStore} is also linked to that store's {@link ItemSlot}s
+ * for its prerequisite flags and for the segments its clauses refer to. When it is evaluated with that
+ * store it reads them from the slots; with any other store it looks them up by key as usual. That
+ * store also keeps the flag's targets in its {@link TargetIndex}, which an evaluation with an
+ * {@link EvaluationScope} uses instead of checking the targets one by one, and the included and excluded
+ * users of its segments in its {@link SegmentIndex}, which is looked up once per evaluation if the
+ * flag's rules refer to any segments.
+ */
+final class CompiledFlag implements UserKeyIndex.Indexed {
+  private static final Logger logger = LoggerFactory.getLogger(CompiledFlag.class);
+
+  private final FeatureFlag flag;
+  private final InMemoryFeatureStore linkedStore;
+  private final AttributePresence.Registry attributeRegistry;
+  private final JsonElement[] variations;
+  private final EvaluationDetail<JsonElement> malformed;
+  private final EvaluationDetail<JsonElement> offResult;
+  private final CompiledPrerequisite[] prerequisites;
+  private final CompiledTarget[] targets;
+  private final Clause[] clauses;
+  private final ItemSlot[][] segmentSlots; // per clause; null for a non-segment clause or if not linked
+  private final CompiledRule[] rules;
+  private final RuleValueIndex[] ruleIndexes; // index for a run of rules at the run's first rule; may be null
+  private final Outcome fallthrough;
+  private final EvaluationDetail<JsonElement> constantResult; // null if the result can depend on the user
+  private final FeatureFlag.EvalResult constantEvalResult;
+  private final boolean hasSegmentClauses;
+  private final UserKeyIndex.Generations indexGenerations = new UserKeyIndex.Generations();
+
+  CompiledFlag(FeatureFlag flag, InMemoryFeatureStore linkedStore) {
+    this.flag = flag;
+    this.linkedStore = linkedStore;
+    this.attributeRegistry = linkedStore == null ? AttributePresence.Registry.BUILT_IN_ONLY :
+        linkedStore.attributeRegistry();
+    List<JsonElement> vars = flag.getVariations();
+    this.variations = vars == null ? new JsonElement[0] : vars.toArray(new JsonElement[vars.size()]);
+    this.malformed = EvaluationDetail.error(EvaluationReason.ErrorKind.MALFORMED_FLAG, null);
+    this.offResult = offValue(EvaluationReason.off());
+
+    List<Prerequisite> prereqs = flag.getPrerequisites();
+    int numPrereqs = prereqs == null ? 0 : prereqs.size();
+    this.prerequisites = new CompiledPrerequisite[numPrereqs];
+    for (int i = 0; i < numPrereqs; i++) {
+      Prerequisite p = prereqs.get(i);
+      prerequisites[i] = new CompiledPrerequisite(p.getKey(), p.getVariation(),
+          linkedStore == null ? null : linkedStore.slotFor(FEATURES, p.getKey()),
+          offValue(EvaluationReason.prerequisiteFailed(p.getKey())));
+    }
+
+    List<Target> flagTargets = flag.getTargets();
+    int numTargets = flagTargets == null ? 0 : flagTargets.size();
+    this.targets = new CompiledTarget[numTargets];
+    for (int i = 0; i < numTargets; i++) {
+      Target t = flagTargets.get(i);
+      CompactStringSet values = t.getValues();
+      targets[i] = new CompiledTarget(values == null ? CompactStringSet.EMPTY : values,
+          variation(t.getVariation(), EvaluationReason.targetMatch()));
+    }
+
+    List<Rule> flagRules = flag.getRules();
+    int numRules = flagRules == null ? 0 : flagRules.size();
+    List<Clause> allClauses = new ArrayList<>();
+    this.rules = new CompiledRule[numRules];
+    for (int i = 0; i < numRules; i++) {
+      Rule r = flagRules.get(i);
+      int start = allClauses.size();
+      if (r.getClauses() != null) {
+        allClauses.addAll(r.getClauses());
+      }
+      long required = 0;
+      for (int j = start; j < allClauses.size(); j++) {
+        if (allClauses.get(j).getOp() != Operator.segmentMatch) {
+          required |= attributeRegistry.bitFor(allClauses.get(j).getAttribute());
+        }
+      }
+      rules[i] = new CompiledRule(start, allClauses.size(), required,
+          outcome(r, EvaluationReason.ruleMatch(i, r.getId())));
+    }
+    this.ruleIndexes = flagRules == null ? null : RuleValueIndex.buildAll(flagRules);
+    this.clauses = allClauses.toArray(new Clause[allClauses.size()]);
+    this.segmentSlots = new ItemSlot[clauses.length][];
+    boolean anySegments = false;
+    for (int i = 0; i < clauses.length; i++) {
+      clauses[i].compile();
+      if (linkedStore != null && clauses[i].getOp() == Operator.segmentMatch && clauses[i].getValues() != null) {
+        List<ItemSlot> slots = new ArrayList<>();
+        for (JsonPrimitive value: clauses[i].getValues()) {
+          if (value != null && value.isString()) {
+            slots.add(linkedStore.slotFor(SEGMENTS, value.getAsString()));
+          }
+        }
+        segmentSlots[i] = slots.toArray(new ItemSlot[slots.size()]);
+        anySegments = true;
+      }
+    }
+    this.hasSegmentClauses = anySegments;
+
+    this.fallthrough = outcome(flag.getFallthrough(), EvaluationReason.fallthrough());
+
+    if (!flag.isOn()) {
+      this.constantResult = offResult;
+    } else if (numPrereqs == 0 && numTargets == 0 && numRules == 0) {
+      this.constantResult = fallthrough.fixedResult; // null for a rollout
+    } else {
+      this.constantResult = null;
+    }
+    this.constantEvalResult = constantResult == null ? null :
+        new FeatureFlag.EvalResult(constantResult, Collections.<Event.FeatureRequest>emptyList());
+  }
+
+  FeatureFlag getFlag() {
+    return flag;
+  }
+
+  FeatureStore getLinkedStore() {
+    return linkedStore;
+  }
+
+  AttributePresence.Registry getAttributeRegistry() {
+    return attributeRegistry;
+  }
+
+  boolean hasPrerequisites() {
+    return prerequisites.length != 0;
+  }
+
+  /**
+   * Returns the result of evaluating the flag for any user, or null if the result can depend on the user.
+   */
+  EvaluationDetail<JsonElement> getConstantResult() {
+    return constantResult;
+  }
+
+  /**
+   * Returns an {@link FeatureFlag.EvalResult} for {@link #getConstantResult()}, with no prerequisite
+   * events, or null if the result can depend on the user.
+   */
+  FeatureFlag.EvalResult getConstantEvalResult() {
+    return constantEvalResult;
+  }
+
+  @Override
+  public UserKeyIndex.Generations getIndexGenerations() {
+    return indexGenerations;
+  }
+
+  EvaluationDetail<JsonElement> evaluate(LDUser user, FeatureStore featureStore, List<Event.FeatureRequest> events,
+      EventFactory eventFactory) {
+    return evaluate(user, featureStore, events, eventFactory, null, null);
+  }
+
+  /**
+   * Evaluates the flag without creating prerequisite events, reusing any result for this flag or its
+   * prerequisites that is already in the scope, and adding the ones it computes.
+   */
+  EvaluationDetail<JsonElement> evaluate(LDUser user, FeatureStore featureStore, EvaluationScope scope) {
+    return evaluateInScope(user, featureStore, scope, null);
+  }
+
+  private EvaluationDetail<JsonElement> evaluateInScope(LDUser user, FeatureStore featureStore, EvaluationScope scope,
+      FlagChain dependents) {
+    if (constantResult != null) {
+      return constantResult;
+    }
+    EvaluationDetail<JsonElement> result = scope.get(flag);
+    if (result == null) {
+      FlagChain self = new FlagChain(flag.getKey(), dependents);
+      result = evaluate(user, featureStore, null, null, scope, self);
+      // If there was a prerequisite cycle, the result depends on which flag we started from
+      if (!self.cycle) {
+        scope.put(flag, result);
+      }
+    }
+    return result;
+  }
+
+  // events and eventFactory are null if scope is not null. self is the chain of flags being evaluated,
+  // starting with this one, or null if this is a top-level evaluation without a scope.
+  private EvaluationDetail<JsonElement> evaluate(LDUser user, FeatureStore featureStore, List<Event.FeatureRequest> events,
+      EventFactory eventFactory, EvaluationScope scope, FlagChain self) {
+    if (!flag.isOn()) {
+      return offResult;
+    }
+
+    boolean linked = linkedStore != null && featureStore == linkedStore;
+    EvaluationDetail<JsonElement> prereqFailure = checkPrerequisites(user, featureStore, linked, events, eventFactory,
+        scope, self);
+    if (prereqFailure != null) {
+      return prereqFailure;
+    }
+
+    // Check to see if targets match
+    EvaluationDetail<JsonElement> targetResult = matchTargets(user, linked && scope != null ?
+        scope.getTargetMatches() : null);
+    if (targetResult != null) {
+      return targetResult;
+    }
+    // Now walk through the rules and see if any match
+    UserKeyIndex.Matches<Segment> segmentMatches = null;
+    if (linked && hasSegmentClauses) {
+      segmentMatches = scope != null && scope.getSegmentMatches() != null ? scope.getSegmentMatches() :
+          linkedStore.segmentMatches(user.getKeyAsString());
+    }
+    for (int i = 0; i < rules.length; i++) {
+      RuleValueIndex index = ruleIndexes == null ? null : ruleIndexes[i];
+      if (index != null) {
+        int match = index.firstMatch(user);
+        if (match >= 0) {
+          return rules[match].outcome.resultForUser(user);
+        }
+        if (match == RuleValueIndex.NO_MATCH) {
+          i = index.getEnd() - 1;
+          continue;
+        }
+      }
+      CompiledRule rule = rules[i];
+      if (rule.matchesUser(clauses, linked ? segmentSlots : null, segmentMatches, attributeRegistry, featureStore,
+          user)) {
+        return rule.outcome.resultForUser(user);
+      }
+    }
+    // Walk through the fallthrough and see if it matches
+    return fallthrough.resultForUser(user);
+  }
+
+  // Returns the result for the first target that contains the user key, or null if there is none. The
+  // matches from the linked store's target index are used if they are given and cover this flag.
+  private EvaluationDetail<JsonElement> matchTargets(LDUser user, UserKeyIndex.Matches<CompiledFlag> matches) {
+    if (targets.length == 0) {
+      return null;
+    }
+    if (matches != null) {
+      int target = matches.get(this);
+      if (target != TargetIndex.UNKNOWN) {
+        return target == TargetIndex.NOT_TARGETED ? null : targets[target].result;
+      }
+    }
+    String userKey = user.getKeyAsString();
+    for (CompiledTarget target: targets) {
+      if (target.values.contains(userKey)) {
+        return target.result;
+      }
+    }
+    return null;
+  }
+
+  // Checks prerequisites if any; returns null if successful, or the off result with the appropriate
+  // reason if we have to short-circuit due to a prerequisite failure.
+  private EvaluationDetail<JsonElement> checkPrerequisites(LDUser user, FeatureStore featureStore, boolean linked,
+      List<Event.FeatureRequest> events, EventFactory eventFactory, EvaluationScope scope, FlagChain self) {
+    if (prerequisites.length == 0) {
+      return null;
+    }
+    FlagChain chain = self != null ? self : new FlagChain(flag.getKey(), null);
+    for (CompiledPrerequisite prereq: prerequisites) {
+      boolean prereqOk = true;
+      FeatureFlag prereqFeatureFlag = linked ? prereq.slot.get(FEATURES) : featureStore.get(FEATURES, prereq.key);
+      if (prereqFeatureFlag == null) {
+        logger.error("Could not retrieve prerequisite flag \"{}\" when evaluating \"{}\"", prereq.key, flag.getKey());
+        prereqOk = false;
+      } else if (chain.contains(prereq.key)) {
+        logger.error("Data inconsistency in feature flag \"{}\": prerequisite \"{}\" is part of a cycle",
+            flag.getKey(), prereq.key);
+        chain.markCycle();
+        return malformed;
+      } else {
+        CompiledFlag prereqCompiled = prereqFeatureFlag.getCompiled();
+        EvaluationDetail<JsonElement> prereqEvalResult = scope != null ?
+            prereqCompiled.evaluateInScope(user, featureStore, scope, chain) :
+            prereqCompiled.evaluate(user, featureStore, events, eventFactory, null, new FlagChain(prereq.key, chain));
+        // Note that if the prerequisite flag is off, we don't consider it a match no matter what its
+        // off variation was. But we still need to evaluate it in order to generate an event.
+        if (!prereqFeatureFlag.isOn() || prereqEvalResult == null || prereqEvalResult.getVariationIndex() == null ||
+            prereqEvalResult.getVariationIndex() != prereq.variation) {
+          prereqOk = false;
+        }
+        if (events != null) {
+          events.add(eventFactory.newPrerequisiteFeatureRequestEvent(prereqFeatureFlag, user, prereqEvalResult, flag));
+        }
+      }
+      if (!prereqOk) {
+        return prereq.failedResult;
+      }
+    }
+    return null;
+  }
+
+  private EvaluationDetail<JsonElement> variation(int index, EvaluationReason reason) {
+    if (index < 0 || index >= variations.length) {
+      logger.error("Data inconsistency in feature flag \"{}\": invalid variation index", flag.getKey());
+      return malformed;
+    }
+    return new CoercedDetail(reason, index, variations[index]);
+  }
+
+  private EvaluationDetail<JsonElement> offValue(EvaluationReason reason) {
+    Integer offVariation = flag.getOffVariation();
+    if (offVariation == null) { // off variation unspecified - return default value
+      return new EvaluationDetail<JsonElement>(reason, null, null);
+    }
+    return variation(offVariation, reason);
+  }
+
+  private Outcome outcome(VariationOrRollout vr, EvaluationReason reason) {
+    if (vr != null && vr.getVariation() != null) {
+      return new Outcome(variation(vr.getVariation(), reason), null, null);
+    }
+    if (vr == null || vr.getRollout() == null) {
+      logger.error("Data inconsistency in feature flag \"{}\": variation/rollout object with no variation or rollout",
+          flag.getKey());
+      return new Outcome(malformed, null, null);
+    }
+    @SuppressWarnings({ "unchecked", "rawtypes" })
+    EvaluationDetail<JsonElement>[] results = new EvaluationDetail[variations.length];
+    for (int i = 0; i < variations.length; i++) {
+      results[i] = new CoercedDetail(reason, i, variations[i]);
+    }
+    return new Outcome(null, vr, results);
+  }
+
+  private static final class CompiledPrerequisite {
+    final String key;
+    final int variation;
+    final ItemSlot slot; // null if not linked
+    final EvaluationDetail<JsonElement> failedResult;
+
+    CompiledPrerequisite(String key, int variation, ItemSlot slot, EvaluationDetail<JsonElement> failedResult) {
+      this.key = key;
+      this.variation = variation;
+      this.slot = slot;
+      this.failedResult = failedResult;
+    }
+  }
+
+  /**
+   * The keys of the flags whose prerequisites are being evaluated, innermost first, used to stop a
+   * prerequisite cycle from recursing forever. A chain belongs to one evaluation on one thread.
+   */
+  private static final class FlagChain {
+    final String key;
+    final FlagChain next;
+    boolean cycle; // true if a cycle was found while evaluating this flag
+
+    FlagChain(String key, FlagChain next) {
+      this.key = key;
+      this.next = next;
+    }
+
+    boolean contains(String key) {
+      for (FlagChain c = this; c != null; c = c.next) {
+        if (c.key.equals(key)) {
+          return true;
+        }
+      }
+      return false;
+    }
+
+    void markCycle() {
+      for (FlagChain c = this; c != null; c = c.next) {
+        c.cycle = true;
+      }
+    }
+  }
+
+  private static final class CompiledTarget {
+    final CompactStringSet values;
+    final EvaluationDetail<JsonElement> result;
+
+    CompiledTarget(CompactStringSet values, EvaluationDetail<JsonElement> result) {
+      this.values = values;
+      this.result = result;
+    }
+  }
+
+  /**
+   * A rule's clauses are the range {@code [clauseStart, clauseEnd)} of the flag's flat clause array.
+   * {@code requiredAttributes} has the {@link AttributePresence} bits, from the flag's registry, of the
+   * attributes its clauses refer to; a user without one of them cannot match, since a clause on a missing
+   * attribute is false even if it is negated.
+   */
+  private static final class CompiledRule {
+    final int clauseStart;
+    final int clauseEnd;
+    final long requiredAttributes;
+    final Outcome outcome;
+
+    CompiledRule(int clauseStart, int clauseEnd, long requiredAttributes, Outcome outcome) {
+      this.clauseStart = clauseStart;
+      this.clauseEnd = clauseEnd;
+      this.requiredAttributes = requiredAttributes;
+      this.outcome = outcome;
+    }
+
+    boolean matchesUser(Clause[] clauses, ItemSlot[][] segmentSlots, UserKeyIndex.Matches<Segment> segmentMatches,
+        AttributePresence.Registry attributeRegistry, FeatureStore store, LDUser user) {
+      if (requiredAttributes != 0 && !user.hasAttributes(attributeRegistry, requiredAttributes)) {
+        return false;
+      }
+      for (int i = clauseStart; i < clauseEnd; i++) {
+        if (!clauses[i].matchesUser(store, user, segmentSlots == null ? null : segmentSlots[i], segmentMatches)) {
+          return false;
+        }
+      }
+      return true;
+    }
+  }
+
+  /**
+   * The compiled form of a {@link VariationOrRollout}: either a single prebuilt result, or a rollout
+   * with a prebuilt result for each variation index it could select.
+   */
+  private final class Outcome {
+    private final EvaluationDetail<JsonElement> fixedResult;
+    private final VariationOrRollout rollout;
+    private final EvaluationDetail<JsonElement>[] rolloutResults;
+
+    Outcome(EvaluationDetail<JsonElement> fixedResult, VariationOrRollout rollout,
+        EvaluationDetail<JsonElement>[] rolloutResults) {
+      this.fixedResult = fixedResult;
+      this.rollout = rollout;
+      this.rolloutResults = rolloutResults;
+    }
+
+    EvaluationDetail<JsonElement> resultForUser(LDUser user) {
+      if (fixedResult != null) {
+        return fixedResult;
+      }
+      Integer index = rollout.variationIndexForUser(user, flag.getKey(), flag.getSalt());
+      if (index == null) {
+        logger.error("Data inconsistency in feature flag \"{}\": variation/rollout object with no variation or rollout",
+            flag.getKey());
+        return malformed;
+      }
+      if (index < 0 || index >= rolloutResults.length) {
+        logger.error("Data inconsistency in feature flag \"{}\": invalid variation index", flag.getKey());
+        return malformed;
+      }
+      return rolloutResults[index];
+    }
+  }
+}
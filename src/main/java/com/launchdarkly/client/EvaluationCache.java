@@ -0,0 +1,221 @@
+package com.launchdarkly.client;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonPrimitive;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+import static com.launchdarkly.client.VersionedDataKind.FEATURES;
+import static com.launchdarkly.client.VersionedDataKind.SEGMENTS;
+
+/**
+ * An optional cache of flag evaluation results used by {@link LDClient}; see
+ * {@link LDConfig.Builder#evaluationCacheSize(int)}.
+ * <p>
+ * Entries are keyed by user, flag key and flag version. Each entry also records the version of every
+ * prerequisite flag and segment that the flag depends on, directly or through its prerequisites, and is
+ * only used if those have the same versions in the store that the flag is being evaluated against, which
+ * may be a {@link FeatureStoreSnapshot} rather than the store the entry was created from. On a hit, the
+ * prerequisite events are generated again from the cached results, so analytics events are the same as
+ * they would be without the cache.
+ */
+final class EvaluationCache {
+  private final Cache<Key, Entry> cache;
+
+  EvaluationCache(int maxEntries, long ttlMillis) {
+    this.cache = CacheBuilder.newBuilder()
+        .maximumSize(maxEntries)
+        .expireAfterWrite(ttlMillis, TimeUnit.MILLISECONDS)
+        .build();
+  }
+
+  /**
+   * Returns the same result as {@code flag.evaluate(user, featureStore, eventFactory)}, using a cached
+   * result if there is a valid one.
+   */
+  FeatureFlag.EvalResult evaluate(FeatureFlag flag, LDUser user, FeatureStore featureStore, EventFactory eventFactory) {
+    if (flag.getCompiled().getConstantResult() != null) {
+      return flag.evaluate(user, featureStore, eventFactory); // nothing to gain from caching this
+    }
+    Key key = new Key(user, flag.getKey(), flag.getVersion());
+    Entry entry = cache.getIfPresent(key);
+    if (entry != null && entry.isCurrent(featureStore)) {
+      List<Event.FeatureRequest> prereqEvents = new ArrayList<>(entry.prerequisites.size());
+      for (PrerequisiteResult p: entry.prerequisites) {
+        prereqEvents.add(eventFactory.newPrerequisiteFeatureRequestEvent(p.flag, user, p.details, p.prereqOf));
+      }
+      return new FeatureFlag.EvalResult(entry.details, prereqEvents);
+    }
+
+    // Collect the dependencies before evaluating, so that if one of them changes in the meantime the
+    // entry will not be current.
+    List<Dependency> dependencies = new ArrayList<>();
+    addDependencies(flag, featureStore, dependencies, new HashSet<String>(), new HashSet<String>());
+    RecordingEventFactory recorder = new RecordingEventFactory(eventFactory);
+    FeatureFlag.EvalResult result = flag.evaluate(user, featureStore, recorder);
+    cache.put(key, new Entry(result.getDetails(), recorder.prerequisites,
+        dependencies.toArray(new Dependency[dependencies.size()])));
+    return result;
+  }
+
+  private static void addDependencies(FeatureFlag flag, FeatureStore store, List<Dependency> dependencies,
+      Set<String> flagsSeen, Set<String> segmentsSeen) {
+    if (flag.getPrerequisites() != null) {
+      for (Prerequisite p: flag.getPrerequisites()) {
+        if (flagsSeen.add(p.getKey())) {
+          Dependency d = new Dependency(store, FEATURES, p.getKey());
+          dependencies.add(d);
+          if (d.item != null) {
+            addDependencies((FeatureFlag)d.item, store, dependencies, flagsSeen, segmentsSeen);
+          }
+        }
+      }
+    }
+    if (flag.getRules() != null) {
+      for (Rule rule: flag.getRules()) {
+        if (rule.getClauses() == null) {
+          continue;
+        }
+        for (Clause clause: rule.getClauses()) {
+          if (clause.getOp() == Operator.segmentMatch && clause.getValues() != null) {
+            for (JsonPrimitive value: clause.getValues()) {
+              if (value != null && value.isString() && segmentsSeen.add(value.getAsString())) {
+                dependencies.add(new Dependency(store, SEGMENTS, value.getAsString()));
+              }
+            }
+          }
+        }
+      }
+    }
+  }
+
+  private static final class Key {
+    private final LDUser user;
+    private final String flagKey;
+    private final int flagVersion;
+
+    Key(LDUser user, String flagKey, int flagVersion) {
+      this.user = user;
+      this.flagKey = flagKey;
+      this.flagVersion = flagVersion;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+      if (o instanceof Key) {
+        Key other = (Key)o;
+        return flagVersion == other.flagVersion && flagKey.equals(other.flagKey) && user.equals(other.user);
+      }
+      return false;
+    }
+
+    @Override
+    public int hashCode() {
+      return Objects.hash(user, flagKey, flagVersion);
+    }
+  }
+
+  private static final class Entry {
+    final EvaluationDetail<JsonElement> details;
+    final List<PrerequisiteResult> prerequisites;
+    final Dependency[] dependencies;
+
+    Entry(EvaluationDetail<JsonElement> details, List<PrerequisiteResult> prerequisites, Dependency[] dependencies) {
+      this.details = details;
+      this.prerequisites = prerequisites;
+      this.dependencies = dependencies;
+    }
+
+    boolean isCurrent(FeatureStore store) {
+      for (Dependency d: dependencies) {
+        if (!d.isCurrent(store)) {
+          return false;
+        }
+      }
+      return true;
+    }
+  }
+
+  /**
+   * A flag or segment that an entry depends on, and the item that was in the store for it (or null) when
+   * the entry was created. When the entry is checked against the same {@link InMemoryFeatureStore}, the
+   * item is read from its slot rather than by calling {@link FeatureStore#get(VersionedDataKind, String)};
+   * any other store, such as a snapshot, is asked for the item by key.
+   */
+  private static final class Dependency {
+    final VersionedDataKind<?> kind;
+    final String key;
+    final InMemoryFeatureStore slotOwner; // null if the entry was not created from an InMemoryFeatureStore
+    final ItemSlot slot;
+    final VersionedData item;
+
+    Dependency(FeatureStore store, VersionedDataKind<?> kind, String key) {
+      this.kind = kind;
+      this.key = key;
+      this.slotOwner = store instanceof InMemoryFeatureStore ? (InMemoryFeatureStore)store : null;
+      this.slot = slotOwner == null ? null : slotOwner.slotFor(kind, key);
+      this.item = current(store);
+    }
+
+    private VersionedData current(FeatureStore store) {
+      return slot != null && store == slotOwner ? slot.get(kind) : store.get(kind, key);
+    }
+
+    boolean isCurrent(FeatureStore store) {
+      VersionedData now = current(store);
+      if (now == item) {
+        return true;
+      }
+      return now != null && item != null && now.getVersion() == item.getVersion();
+    }
+  }
+
+  static final class PrerequisiteResult {
+    final FeatureFlag flag;
+    final EvaluationDetail<JsonElement> details;
+    final FeatureFlag prereqOf;
+
+    PrerequisiteResult(FeatureFlag flag, EvaluationDetail<JsonElement> details, FeatureFlag prereqOf) {
+      this.flag = flag;
+      this.details = details;
+      this.prereqOf = prereqOf;
+    }
+  }
+
+  /**
+   * Creates events the same way as another factory, but also remembers the prerequisite results so
+   * that their events can be created again for a cache hit. Also used by {@link UserScope}.
+   */
+  static final class RecordingEventFactory extends EventFactory {
+    private final EventFactory factory;
+    final List<PrerequisiteResult> prerequisites = new ArrayList<>();
+
+    RecordingEventFactory(EventFactory factory) {
+      this.factory = factory;
+    }
+
+    @Override
+    protected long getTimestamp() {
+      return factory.getTimestamp();
+    }
+
+    @Override
+    protected boolean isIncludeReasons() {
+      return factory.isIncludeReasons();
+    }
+
+    @Override
+    public Event.FeatureRequest newPrerequisiteFeatureRequestEvent(FeatureFlag prereqFlag, LDUser user,
+        EvaluationDetail<JsonElement> result, FeatureFlag prereqOf) {
+      prerequisites.add(new PrerequisiteResult(prereqFlag, result, prereqOf));
+      return factory.newPrerequisiteFeatureRequestEvent(prereqFlag, user, result, prereqOf);
+    }
+  }
+}
@@ -0,0 +1,58 @@
+package com.launchdarkly.client;
+
+import com.google.gson.JsonElement;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * The results of evaluating flags for one user during a single pass over many flags, such as
+ * {@link LDClient#allFlagsState(LDUser, FlagsStateOption...)}, so that a flag that is a prerequisite of
+ * several others, or is also evaluated at the top level, is only evaluated once.
+ * <p>
+ * Results are keyed by flag object rather than by key, so if a flag is updated during the pass the new
+ * version is evaluated separately. A scope can be shared by threads evaluating the same pass in
+ * parallel; two threads may occasionally both evaluate the same flag, but they get the same result.
+ * <p>
+ * If the flags come from an {@link InMemoryFeatureStore}, the scope can also hold the user's matches
+ * from that store's {@link TargetIndex} and {@link SegmentIndex}, so that flags do not have to check
+ * their own targets and the index is not looked up again for every flag that refers to a segment.
+ */
+final class EvaluationScope {
+  private final ConcurrentMap<FeatureFlag, EvaluationDetail<JsonElement>> results;
+  private final UserKeyIndex.Matches<CompiledFlag> targetMatches;
+  private final UserKeyIndex.Matches<Segment> segmentMatches;
+
+  EvaluationScope(int expectedFlags) {
+    this(expectedFlags, null, null);
+  }
+
+  EvaluationScope(int expectedFlags, UserKeyIndex.Matches<CompiledFlag> targetMatches,
+      UserKeyIndex.Matches<Segment> segmentMatches) {
+    this.results = new ConcurrentHashMap<>(expectedFlags);
+    this.targetMatches = targetMatches;
+    this.segmentMatches = segmentMatches;
+  }
+
+  /**
+   * Returns the target index matches for the user, or null if there are none.
+   */
+  UserKeyIndex.Matches<CompiledFlag> getTargetMatches() {
+    return targetMatches;
+  }
+
+  /**
+   * Returns the segment index matches for the user, or null if there are none.
+   */
+  UserKeyIndex.Matches<Segment> getSegmentMatches() {
+    return segmentMatches;
+  }
+
+  EvaluationDetail<JsonElement> get(FeatureFlag flag) {
+    return results.get(flag);
+  }
+
+  void put(FeatureFlag flag, EvaluationDetail<JsonElement> result) {
+    results.put(flag, result);
+  }
+}
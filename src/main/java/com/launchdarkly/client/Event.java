@@ -48,6 +48,10 @@ public class Event {
     final Long debugEventsUntilDate;
     final EvaluationReason reason;
     final boolean debug;
+    // The number of evaluations that this event stands for in the summary counters. It is only greater
+    // than 1 for the summary-only events that UserScope sends for repeated evaluations of a flag, and
+    // that LDClient.evaluateBatch sends for a batch of users; the latter have no user.
+    final int count;
 
     @Deprecated
     public FeatureRequest(long timestamp, String key, LDUser user, Integer version, Integer variation, JsonElement value,
@@ -68,6 +72,22 @@ public class Event {
       this.debugEventsUntilDate = debugEventsUntilDate;
       this.reason = reason;
       this.debug = debug;
+      this.count = 1;
+    }
+
+    FeatureRequest(FeatureRequest from, int count) {
+      super(from.creationDate, from.user);
+      this.key = from.key;
+      this.version = from.version;
+      this.variation = from.variation;
+      this.value = from.value;
+      this.defaultVal = from.defaultVal;
+      this.prereqOf = from.prereqOf;
+      this.trackEvents = from.trackEvents;
+      this.debugEventsUntilDate = from.debugEventsUntilDate;
+      this.reason = from.reason;
+      this.debug = from.debug;
+      this.count = count;
     }
   }
 
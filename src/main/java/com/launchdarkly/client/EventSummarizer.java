@@ -25,7 +25,7 @@ final class EventSummarizer {
   void summarizeEvent(Event event) {
     if (event instanceof Event.FeatureRequest) {
       Event.FeatureRequest fe = (Event.FeatureRequest)event;
-      eventsState.incrementCounter(fe.key, fe.variation, fe.version, fe.value, fe.defaultVal);
+      eventsState.incrementCounter(fe.key, fe.variation, fe.version, fe.value, fe.defaultVal, fe.count);
       eventsState.noteTimestamp(fe.creationDate);
     }
   }
@@ -65,13 +65,18 @@ final class EventSummarizer {
     }
     
     void incrementCounter(String flagKey, Integer variation, Integer version, JsonElement flagValue, JsonElement defaultVal) {
+      incrementCounter(flagKey, variation, version, flagValue, defaultVal, 1);
+    }
+
+    void incrementCounter(String flagKey, Integer variation, Integer version, JsonElement flagValue, JsonElement defaultVal,
+        int count) {
       CounterKey key = new CounterKey(flagKey, variation, version);
 
       CounterValue value = counters.get(key);
       if (value != null) {
-        value.increment();
+        value.increment(count);
       } else {
-        counters.put(key, new CounterValue(1, flagValue, defaultVal));
+        counters.put(key, new CounterValue(count, flagValue, defaultVal));
       }
     }
     
@@ -143,7 +148,11 @@ final class EventSummarizer {
     }
     
     void increment() {
-      count = count + 1;
+      increment(1);
+    }
+
+    void increment(int n) {
+      count = count + n;
     }
     
     @Override
@@ -12,7 +12,6 @@ import java.util.List;
 import java.util.Map;
 
 import static com.google.common.base.Preconditions.checkNotNull;
-import static com.launchdarkly.client.VersionedDataKind.FEATURES;
 
 class FeatureFlag implements VersionedData {
   private final static Logger logger = LoggerFactory.getLogger(FeatureFlag.class);
@@ -34,6 +33,7 @@ class FeatureFlag implements VersionedData {
   private boolean trackEvents;
   private Long debugEventsUntilDate;
   private boolean deleted;
+  private transient volatile CompiledFlag compiled;
 
   static FeatureFlag fromJson(LDConfig config, String json) {
     return config.gson.fromJson(json, FeatureFlag.class);
@@ -66,104 +66,48 @@ class FeatureFlag implements VersionedData {
   }
 
   EvalResult evaluate(LDUser user, FeatureStore featureStore, EventFactory eventFactory) {
-    List<Event.FeatureRequest> prereqEvents = new ArrayList<>();
-
     if (user == null || user.getKey() == null) {
       // this should have been prevented by LDClient.evaluateInternal
       logger.warn("Null user or null user key when evaluating flag \"{}\"; returning null", key);
-      return new EvalResult(EvaluationDetail.<JsonElement>error(EvaluationReason.ErrorKind.USER_NOT_SPECIFIED, null), prereqEvents);
+      return new EvalResult(EvaluationDetail.<JsonElement>error(EvaluationReason.ErrorKind.USER_NOT_SPECIFIED, null),
+          new ArrayList<Event.FeatureRequest>());
     }
 
-    EvaluationDetail<JsonElement> details = evaluate(user, featureStore, prereqEvents, eventFactory);
-    return new EvalResult(details, prereqEvents);    
-  }
-
-  private EvaluationDetail<JsonElement> evaluate(LDUser user, FeatureStore featureStore, List<Event.FeatureRequest> events,
-      EventFactory eventFactory) {
-    if (!isOn()) {
-      return getOffValue(EvaluationReason.off());
+    CompiledFlag compiled = getCompiled();
+    if (compiled.getConstantEvalResult() != null) {
+      return compiled.getConstantEvalResult();
     }
-    
-    EvaluationReason prereqFailureReason = checkPrerequisites(user, featureStore, events, eventFactory);
-    if (prereqFailureReason != null) {
-      return getOffValue(prereqFailureReason);
-    }
-    
-    // Check to see if targets match
-    if (targets != null) {
-      for (Target target: targets) {
-        for (String v : target.getValues()) {
-          if (v.equals(user.getKey().getAsString())) {
-            return getVariation(target.getVariation(), EvaluationReason.targetMatch());
-          }
-        }
-      }
-    }
-    // Now walk through the rules and see if any match
-    if (rules != null) {
-      for (int i = 0; i < rules.size(); i++) {
-        Rule rule = rules.get(i);
-        if (rule.matchesUser(featureStore, user)) {
-          return getValueForVariationOrRollout(rule, user, EvaluationReason.ruleMatch(i, rule.getId()));
-        }
-      }
-    }
-    // Walk through the fallthrough and see if it matches
-    return getValueForVariationOrRollout(fallthrough, user, EvaluationReason.fallthrough());
-  }
-
-  // Checks prerequisites if any; returns null if successful, or an EvaluationReason if we have to
-  // short-circuit due to a prerequisite failure.
-  private EvaluationReason checkPrerequisites(LDUser user, FeatureStore featureStore, List<Event.FeatureRequest> events,
-      EventFactory eventFactory) {
-    if (prerequisites == null) {
-      return null;
-    }
-    for (int i = 0; i < prerequisites.size(); i++) {
-      boolean prereqOk = true;
-      Prerequisite prereq = prerequisites.get(i);
-      FeatureFlag prereqFeatureFlag = featureStore.get(FEATURES, prereq.getKey());
-      if (prereqFeatureFlag == null) {
-        logger.error("Could not retrieve prerequisite flag \"{}\" when evaluating \"{}\"", prereq.getKey(), key);
-        prereqOk = false;
-      } else {
-        EvaluationDetail<JsonElement> prereqEvalResult = prereqFeatureFlag.evaluate(user, featureStore, events, eventFactory);
-        // Note that if the prerequisite flag is off, we don't consider it a match no matter what its
-        // off variation was. But we still need to evaluate it in order to generate an event.
-        if (!prereqFeatureFlag.isOn() || prereqEvalResult == null || prereqEvalResult.getVariationIndex() != prereq.getVariation()) {
-          prereqOk = false;
-        }
-        events.add(eventFactory.newPrerequisiteFeatureRequestEvent(prereqFeatureFlag, user, prereqEvalResult, this));
-      }
-      if (!prereqOk) {
-        return EvaluationReason.prerequisiteFailed(prereq.getKey());
-      }
-    }
-    return null;
-  }
-
-  private EvaluationDetail<JsonElement> getVariation(int variation, EvaluationReason reason) {
-    if (variation < 0 || variation >= variations.size()) {
-      logger.error("Data inconsistency in feature flag \"{}\": invalid variation index", key);
-      return EvaluationDetail.<JsonElement>error(EvaluationReason.ErrorKind.MALFORMED_FLAG, null);
-    }
-    return new EvaluationDetail<JsonElement>(reason, variation, variations.get(variation));
+    List<Event.FeatureRequest> prereqEvents = new ArrayList<>();
+    EvaluationDetail<JsonElement> details = compiled.evaluate(user, featureStore, prereqEvents, eventFactory);
+    return new EvalResult(details, prereqEvents);    
   }
 
-  private EvaluationDetail<JsonElement> getOffValue(EvaluationReason reason) {
-    if (offVariation == null) { // off variation unspecified - return default value
-      return new EvaluationDetail<JsonElement>(reason, null, null);
+  /**
+   * Returns the compiled form of this flag, building it first if no {@link FeatureStore} has done so.
+   * The compiled form is never serialized, and since it is immutable and only depends on this flag's
+   * own data, it does no harm if two threads happen to build it at the same time.
+   */
+  CompiledFlag getCompiled() {
+    CompiledFlag c = compiled;
+    if (c == null) {
+      c = new CompiledFlag(this, null);
+      compiled = c;
     }
-    return getVariation(offVariation, reason);
-  }
-  
-  private EvaluationDetail<JsonElement> getValueForVariationOrRollout(VariationOrRollout vr, LDUser user, EvaluationReason reason) {
-    Integer index = vr.variationIndexForUser(user, key, salt);
-    if (index == null) {
-      logger.error("Data inconsistency in feature flag \"{}\": variation/rollout object with no variation or rollout", key);
-      return EvaluationDetail.<JsonElement>error(EvaluationReason.ErrorKind.MALFORMED_FLAG, null); 
+    return c;
+  }
+
+  /**
+   * Builds the compiled form of this flag ahead of time, linked to the given store. Called when the
+   * flag is put into an {@link InMemoryFeatureStore}. If it is already linked to that store and uses its
+   * current {@link AttributePresence.Registry}, it is kept, since that store's {@link TargetIndex} may
+   * refer to it.
+   */
+  void compile(InMemoryFeatureStore store) {
+    CompiledFlag c = compiled;
+    if (c != null && c.getLinkedStore() == store && c.getAttributeRegistry() == store.attributeRegistry()) {
+      return;
     }
-    return getVariation(index, reason);
+    compiled = new CompiledFlag(this, store);
   }
   
   public int getVersion() {
@@ -226,7 +170,7 @@ class FeatureFlag implements VersionedData {
     private final EvaluationDetail<JsonElement> details;
     private final List<Event.FeatureRequest> prerequisiteEvents;
 
-    private EvalResult(EvaluationDetail<JsonElement> details, List<Event.FeatureRequest> prerequisiteEvents) {
+    EvalResult(EvaluationDetail<JsonElement> details, List<Event.FeatureRequest> prerequisiteEvents) {
       checkNotNull(details);
       checkNotNull(prerequisiteEvents);
       this.details = details;
@@ -0,0 +1,135 @@
+package com.launchdarkly.client;
+
+import com.google.common.collect.ImmutableMap;
+import com.google.gson.JsonElement;
+
+import java.io.IOException;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * An immutable copy of the flags and segments in a {@link FeatureStore} at one point in time, returned
+ * by {@link LDClient#snapshot()}. Evaluating flags against a snapshot, for instance with
+ * {@link LDClient#openScope(LDUser, FeatureStoreSnapshot)}, gives results that are consistent with each
+ * other, including the prerequisite flags and segments they depend on, even if the store is updated in
+ * the meantime; and since the snapshot never changes, reading from it does not take any locks.
+ * <p>
+ * An {@link InMemoryFeatureStore} builds a snapshot the first time one is asked for after a change, and
+ * returns the same one until the next change. For other stores, each snapshot is a new copy of all of
+ * the data, which is not guaranteed to be consistent if the store changes while it is being copied.
+ *
+ * @since 4.6.0
+ */
+public final class FeatureStoreSnapshot {
+  private final long version;
+  private final boolean initialized;
+  private final Map<VersionedDataKind<?>, Map<String, VersionedData>> allData;
+  private final FeatureStore featureStore = new ReadOnlyStore();
+
+  FeatureStoreSnapshot(long version, boolean initialized, Map<VersionedDataKind<?>, Map<String, VersionedData>> allData) {
+    this.version = version;
+    this.initialized = initialized;
+    this.allData = allData;
+  }
+
+  /**
+   * Copies the current data of any feature store.
+   */
+  static FeatureStoreSnapshot copyOf(FeatureStore store) {
+    ImmutableMap.Builder<VersionedDataKind<?>, Map<String, VersionedData>> allData = ImmutableMap.builder();
+    for (VersionedDataKind<?> kind: VersionedDataKind.ALL) {
+      allData.put(kind, ImmutableMap.<String, VersionedData>copyOf(store.all(kind)));
+    }
+    return new FeatureStoreSnapshot(0, store.initialized(), allData.build());
+  }
+
+  /**
+   * The version of the store's data that this is a snapshot of. For an {@link InMemoryFeatureStore},
+   * this increases with every change to the store, so a later snapshot has a higher version; for other
+   * stores, it is always 0.
+   * @return the version
+   */
+  public long getVersion() {
+    return version;
+  }
+
+  /**
+   * The keys of all of the flags in the snapshot.
+   * @return the flag keys
+   */
+  public Set<String> getFlagKeys() {
+    return Collections.unmodifiableSet(all(VersionedDataKind.FEATURES).keySet());
+  }
+
+  /**
+   * The variation values of a flag, in the order of their variation indexes.
+   * @param flagKey the flag key
+   * @return the variations, or an empty list if there is no such flag
+   */
+  public List<JsonElement> getFlagVariations(String flagKey) {
+    FeatureFlag flag = get(VersionedDataKind.FEATURES, flagKey);
+    List<JsonElement> variations = flag == null ? null : flag.getVariations();
+    return variations == null ? Collections.<JsonElement>emptyList() : Collections.unmodifiableList(variations);
+  }
+
+  boolean initialized() {
+    return initialized;
+  }
+
+  <T extends VersionedData> T get(VersionedDataKind<T> kind, String key) {
+    Map<String, VersionedData> items = allData.get(kind);
+    VersionedData item = items == null ? null : items.get(key);
+    return kind.getItemClass().isInstance(item) ? kind.getItemClass().cast(item) : null;
+  }
+
+  @SuppressWarnings("unchecked")
+  <T extends VersionedData> Map<String, T> all(VersionedDataKind<T> kind) {
+    Map<String, VersionedData> items = allData.get(kind);
+    return items == null ? ImmutableMap.<String, T>of() : (Map<String, T>)items;
+  }
+
+  /**
+   * Returns a read-only {@link FeatureStore} view of the snapshot, for evaluating flags against it.
+   */
+  FeatureStore asFeatureStore() {
+    return featureStore;
+  }
+
+  private final class ReadOnlyStore implements FeatureStore {
+    @Override
+    public <T extends VersionedData> T get(VersionedDataKind<T> kind, String key) {
+      return FeatureStoreSnapshot.this.get(kind, key);
+    }
+
+    @Override
+    public <T extends VersionedData> Map<String, T> all(VersionedDataKind<T> kind) {
+      return FeatureStoreSnapshot.this.all(kind);
+    }
+
+    @Override
+    public void init(Map<VersionedDataKind<?>, Map<String, ? extends VersionedData>> allData) {
+      throw new UnsupportedOperationException("a feature store snapshot cannot be modified");
+    }
+
+    @Override
+    public <T extends VersionedData> void delete(VersionedDataKind<T> kind, String key, int version) {
+      throw new UnsupportedOperationException("a feature store snapshot cannot be modified");
+    }
+
+    @Override
+    public <T extends VersionedData> void upsert(VersionedDataKind<T> kind, T item) {
+      throw new UnsupportedOperationException("a feature store snapshot cannot be modified");
+    }
+
+    @Override
+    public boolean initialized() {
+      return initialized;
+    }
+
+    @Override
+    public void close() throws IOException {
+    }
+  }
+}
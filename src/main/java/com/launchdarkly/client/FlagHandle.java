@@ -0,0 +1,63 @@
+package com.launchdarkly.client;
+
+import com.google.gson.JsonElement;
+
+/**
+ * A reusable reference to one feature flag of a given type, returned by {@link LDClient#boolFlag(String)}
+ * and the similar methods. Evaluating a flag through its handle has the same result, and sends the same
+ * analytics events, as calling the corresponding variation method of {@link LDClient} with the flag key.
+ * <p>
+ * If the client uses the default in-memory feature store, the handle holds the store's entry for the
+ * flag, which the store updates in place whenever the flag is changed or deleted; so the handle never has
+ * to look up the flag by key, and it can be kept for the life of the client. With other feature stores,
+ * the flag is looked up by key as usual.
+ *
+ * @param <T> the type of the flag's value
+ * @since 4.6.0
+ */
+public final class FlagHandle<T> {
+  private final LDClient client;
+  private final String key;
+  private final ItemSlot slot; // null if the store is not an InMemoryFeatureStore
+  private final VariationType<T> type;
+
+  FlagHandle(LDClient client, String key, ItemSlot slot, VariationType<T> type) {
+    this.client = client;
+    this.key = key;
+    this.slot = slot;
+    this.type = type;
+  }
+
+  /**
+   * The key of the feature flag.
+   * @return the flag key
+   */
+  public String getKey() {
+    return key;
+  }
+
+  /**
+   * Calculates the value of the feature flag for a given user.
+   *
+   * @param user         the end user requesting the flag
+   * @param defaultValue the default value of the flag
+   * @return the variation for the given user, or {@code defaultValue} if the flag is disabled in the
+   *   LaunchDarkly control panel
+   */
+  public T variation(LDUser user, T defaultValue) {
+    return client.evaluate(key, slot, null, user, defaultValue, type.toJson(defaultValue), type);
+  }
+
+  /**
+   * Calculates the value of the feature flag for a given user, and returns an object that describes the
+   * way the value was determined.
+   *
+   * @param user         the end user requesting the flag
+   * @param defaultValue the default value of the flag
+   * @return an {@link EvaluationDetail} object
+   */
+  public EvaluationDetail<T> variationDetail(LDUser user, T defaultValue) {
+    return client.evaluateDetail(key, slot, null, user, defaultValue, type.toJson(defaultValue), type,
+        EventFactory.DEFAULT_WITH_REASONS);
+  }
+}
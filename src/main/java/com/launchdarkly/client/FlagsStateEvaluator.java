@@ -0,0 +1,109 @@
+package com.launchdarkly.client;
+
+import com.google.gson.JsonElement;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Evaluates a list of flags for one user, for {@link LDClient#allFlagsState(LDUser, FlagsStateOption...)}.
+ * <p>
+ * If a {@link ForkJoinPool} is configured (see {@link LDConfig.Builder#allFlagsStatePool(ForkJoinPool)}),
+ * the list is split into ranges that are evaluated in parallel. Each task only writes the results for its
+ * own range of the result array, and the caller then adds them to the state builder in the original order,
+ * so the output is exactly the same as for sequential evaluation.
+ * <p>
+ * All flags in one pass share an {@link EvaluationScope}, so each flag is evaluated at most once even if
+ * it is a prerequisite of many others. No prerequisite events are created, since none are sent. With an
+ * {@link InMemoryFeatureStore}, the user's individual targets in all flags, and the segments that
+ * include or exclude the user, are found with one lookup each in the store's {@link TargetIndex} and
+ * {@link SegmentIndex} before any flag is evaluated.
+ */
+final class FlagsStateEvaluator {
+  private static final Logger logger = LoggerFactory.getLogger(FlagsStateEvaluator.class);
+
+  // Ranges of flags smaller than this are evaluated by one task, since for fewer flags than this the
+  // cost of forking outweighs the benefit.
+  static final int MIN_FLAGS_PER_TASK = 64;
+
+  private final LDUser user;
+  private final FeatureStore featureStore;
+
+  FlagsStateEvaluator(LDUser user, FeatureStore featureStore) {
+    this.user = user;
+    this.featureStore = featureStore;
+  }
+
+  /**
+   * Evaluates the flags, using the pool if it is not null.
+   * @return the results, in the same order as the flags
+   */
+  @SuppressWarnings({ "unchecked", "rawtypes" })
+  EvaluationDetail<JsonElement>[] evaluateAll(List<FeatureFlag> flags, ForkJoinPool pool) {
+    EvaluationDetail<JsonElement>[] results = new EvaluationDetail[flags.size()];
+    EvaluationScope scope;
+    if (featureStore instanceof InMemoryFeatureStore) {
+      InMemoryFeatureStore store = (InMemoryFeatureStore)featureStore;
+      scope = new EvaluationScope(flags.size(), store.targetMatches(user.getKeyAsString()),
+          store.segmentMatches(user.getKeyAsString()));
+    } else {
+      scope = new EvaluationScope(flags.size());
+    }
+    if (pool == null || flags.size() <= MIN_FLAGS_PER_TASK) {
+      evaluateRange(flags, scope, results, 0, flags.size());
+    } else {
+      pool.invoke(new EvaluateRangeTask(flags, scope, results, 0, flags.size()));
+    }
+    return results;
+  }
+
+  private void evaluateRange(List<FeatureFlag> flags, EvaluationScope scope, EvaluationDetail<JsonElement>[] results,
+      int start, int end) {
+    for (int i = start; i < end; i++) {
+      results[i] = evaluate(flags.get(i), scope);
+    }
+  }
+
+  private EvaluationDetail<JsonElement> evaluate(FeatureFlag flag, EvaluationScope scope) {
+    try {
+      return flag.getCompiled().evaluate(user, featureStore, scope);
+    } catch (Exception e) {
+      logger.error("Exception caught for feature flag \"{}\" when evaluating all flags: {}", flag.getKey(), e.toString());
+      logger.debug(e.toString(), e);
+      return EvaluationDetail.<JsonElement>error(EvaluationReason.ErrorKind.EXCEPTION, null);
+    }
+  }
+
+  @SuppressWarnings("serial")
+  private final class EvaluateRangeTask extends RecursiveAction {
+    private final List<FeatureFlag> flags;
+    private final EvaluationScope scope;
+    private final EvaluationDetail<JsonElement>[] results;
+    private final int start;
+    private final int end;
+
+    EvaluateRangeTask(List<FeatureFlag> flags, EvaluationScope scope, EvaluationDetail<JsonElement>[] results,
+        int start, int end) {
+      this.flags = flags;
+      this.scope = scope;
+      this.results = results;
+      this.start = start;
+      this.end = end;
+    }
+
+    @Override
+    protected void compute() {
+      if (end - start <= MIN_FLAGS_PER_TASK) {
+        evaluateRange(flags, scope, results, start, end);
+      } else {
+        int middle = (start + end) >>> 1;
+        invokeAll(new EvaluateRangeTask(flags, scope, results, start, middle),
+            new EvaluateRangeTask(flags, scope, results, middle, end));
+      }
+    }
+  }
+}
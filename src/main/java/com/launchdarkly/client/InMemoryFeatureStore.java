@@ -1,34 +1,67 @@
 package com.launchdarkly.client;
 
+import com.google.common.collect.ImmutableMap;
+
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.io.IOException;
+import java.lang.ref.Reference;
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.WeakReference;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 import java.util.concurrent.locks.ReentrantReadWriteLock;
 
 /**
  * A thread-safe, versioned store for {@link FeatureFlag} objects and related data based on a
  * {@link HashMap}. This is the default implementation of {@link FeatureStore}.
+ * <p>
+ * Each key has an {@link ItemSlot} that holds its current item. When a flag is stored, it is compiled
+ * and linked to the slots of its prerequisite flags and of the segments its rules refer to, so that
+ * evaluating it with this store follows those references directly. Since an upsert or delete only
+ * changes what is in one slot, it never has to update the flags that depend on that key. The store only
+ * holds weak references to slots that have no item, so the slots of keys that were removed by
+ * {@link #init(Map)}, or that were only asked for, go away once nothing refers to them.
+ * <p>
+ * The store also keeps a {@link TargetIndex} of the individual user targets of the current flags, and a
+ * {@link SegmentIndex} of the included and excluded users of the current segments, which are updated
+ * along with the slots.
+ * <p>
+ * An immutable {@link FeatureStoreSnapshot} of the data is built when one is first asked for after a
+ * change, so that a group of evaluations can be made against one consistent version of it.
  */
 public class InMemoryFeatureStore implements FeatureStore {
   private static final Logger logger = LoggerFactory.getLogger(InMemoryFeatureStore.class);
 
   private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
-  private final Map<VersionedDataKind<?>, Map<String, VersionedData>> allData = new HashMap<>();
+  // The maps are concurrent so that flags can be linked to slots outside of the lock; the lock is still
+  // what makes updates atomic.
+  private final ConcurrentMap<VersionedDataKind<?>, ConcurrentMap<String, SlotRef>> allData =
+      new ConcurrentHashMap<>();
+  private final ReferenceQueue<ItemSlot> releasedSlots = new ReferenceQueue<>();
+  private final TargetIndex targetIndex = new TargetIndex();
+  private final SegmentIndex segmentIndex = new SegmentIndex();
   private volatile boolean initialized = false;
+  private long version = 0; // guarded by the write lock
+  private volatile FeatureStoreSnapshot snapshot; // null if the store has changed since it was built
+  // Replaced by init(), so that the bits of attributes that flags no longer refer to can be reused
+  private volatile AttributePresence.Registry attributeRegistry = new AttributePresence.Registry();
 
   @Override
   public <T extends VersionedData> T get(VersionedDataKind<T> kind, String key) {
     try {
       lock.readLock().lock();
-      Map<String, VersionedData> items = allData.get(kind);
+      Map<String, SlotRef> items = allData.get(kind);
       if (items == null) {
         logger.debug("[get] no objects exist for \"{}\". Returning null", kind.getNamespace());
         return null;
       }
-      Object o = items.get(key);
+      ItemSlot slot = derefSlot(items.get(key));
+      Object o = slot == null ? null : slot.getItem();
       if (o == null) {
         logger.debug("[get] Key: {} not found in \"{}\". Returning null", key, kind.getNamespace());
         return null;
@@ -55,11 +88,12 @@ public class InMemoryFeatureStore implements FeatureStore {
     try {
       lock.readLock().lock();
       Map<String, T> fs = new HashMap<>();
-      Map<String, VersionedData> items = allData.get(kind);
+      Map<String, SlotRef> items = allData.get(kind);
       if (items != null) {
-        for (Map.Entry<String, ? extends VersionedData> entry : items.entrySet()) {
-          if (!entry.getValue().isDeleted()) {
-            fs.put(entry.getKey(), kind.getItemClass().cast(entry.getValue()));
+        for (Map.Entry<String, SlotRef> entry : items.entrySet()) {
+          VersionedData item = itemOf(entry.getValue());
+          if (item != null && !item.isDeleted()) {
+            fs.put(entry.getKey(), kind.getItemClass().cast(item));
           }
         }
       }
@@ -69,33 +103,51 @@ public class InMemoryFeatureStore implements FeatureStore {
     }
   }
 
-  @SuppressWarnings("unchecked")
   @Override
   public void init(Map<VersionedDataKind<?>, Map<String, ? extends VersionedData>> allData) {
+    attributeRegistry = new AttributePresence.Registry();
+    for (Map<String, ? extends VersionedData> items: allData.values()) {
+      for (VersionedData item: items.values()) {
+        prepare(item);
+      }
+    }
     try {
       lock.writeLock().lock();
-      this.allData.clear();
+      releaseSlots();
+      for (Map.Entry<VersionedDataKind<?>, ConcurrentMap<String, SlotRef>> entry: this.allData.entrySet()) {
+        Map<String, ? extends VersionedData> newItems = allData.get(entry.getKey());
+        for (Map.Entry<String, SlotRef> slotEntry: entry.getValue().entrySet()) {
+          ItemSlot slot = slotEntry.getValue().get();
+          if (slot != null && (newItems == null || !newItems.containsKey(slotEntry.getKey()))) {
+            setItem(entry.getKey(), slotEntry.getKey(), slot, null);
+          }
+        }
+      }
       for (Map.Entry<VersionedDataKind<?>, Map<String, ? extends VersionedData>> entry: allData.entrySet()) {
-        this.allData.put(entry.getKey(), (Map<String, VersionedData>)entry.getValue());
+        for (Map.Entry<String, ? extends VersionedData> itemEntry: entry.getValue().entrySet()) {
+          setItem(entry.getKey(), itemEntry.getKey(), slotFor(entry.getKey(), itemEntry.getKey()),
+              itemEntry.getValue());
+        }
       }
       initialized = true;
+      changed();
     } finally {
       lock.writeLock().unlock();
     }
+    Map<String, ? extends VersionedData> flags = allData.get(VersionedDataKind.FEATURES);
+    if (flags != null) {
+      checkForPrerequisiteCycles(flags.keySet());
+    }
   }
 
   @Override
   public <T extends VersionedData> void delete(VersionedDataKind<T> kind, String key, int version) {
     try {
       lock.writeLock().lock();
-      Map<String, VersionedData> items = allData.get(kind);
-      if (items == null) {
-        items = new HashMap<>();
-        allData.put(kind, items);
-      }
-      VersionedData item = items.get(key);
+      ItemSlot slot = slotFor(kind, key);
+      VersionedData item = slot.getItem();
       if (item == null || item.getVersion() < version) {
-        items.put(key, kind.makeDeletedItem(key, version));
+        setItem(kind, key, slot, kind.makeDeletedItem(key, version));
       }
     } finally {
       lock.writeLock().unlock();
@@ -104,21 +156,213 @@ public class InMemoryFeatureStore implements FeatureStore {
 
   @Override
   public <T extends VersionedData> void upsert(VersionedDataKind<T> kind, T item) {
+    prepare(item);
+    boolean updated = false;
     try {
       lock.writeLock().lock();
-      Map<String, VersionedData> items = (Map<String, VersionedData>) allData.get(kind);
-      if (items == null) {
-        items = new HashMap<>();
-        allData.put(kind, items);
-      }
-      VersionedData old = items.get(item.getKey());
+      ItemSlot slot = slotFor(kind, item.getKey());
+      VersionedData old = slot.getItem();
 
       if (old == null || old.getVersion() < item.getVersion()) {
-        items.put(item.getKey(), item);
+        setItem(kind, item.getKey(), slot, item);
+        updated = true;
       }
     } finally {
       lock.writeLock().unlock();
     }
+    if (updated && item instanceof FeatureFlag) {
+      checkForPrerequisiteCycles(Collections.singleton(item.getKey()));
+    }
+  }
+
+  /**
+   * Returns the registry that flags compiled for this store get their {@link AttributePresence} bits from.
+   */
+  AttributePresence.Registry attributeRegistry() {
+    return attributeRegistry;
+  }
+
+  /**
+   * Returns the individual targets that match the given user key in the current flags.
+   */
+  UserKeyIndex.Matches<CompiledFlag> targetMatches(String userKey) {
+    return targetIndex.lookup(userKey);
+  }
+
+  /**
+   * Returns the current segments that include or exclude the given user key.
+   */
+  UserKeyIndex.Matches<Segment> segmentMatches(String userKey) {
+    return segmentIndex.lookup(userKey);
+  }
+
+  /**
+   * Returns an immutable snapshot of the current data, building it if the store has changed since the
+   * last one was built.
+   */
+  FeatureStoreSnapshot snapshot() {
+    FeatureStoreSnapshot s = snapshot;
+    if (s != null) {
+      return s;
+    }
+    try {
+      lock.readLock().lock();
+      ImmutableMap.Builder<VersionedDataKind<?>, Map<String, VersionedData>> data = ImmutableMap.builder();
+      for (Map.Entry<VersionedDataKind<?>, ConcurrentMap<String, SlotRef>> entry: allData.entrySet()) {
+        ImmutableMap.Builder<String, VersionedData> items = ImmutableMap.builder();
+        for (Map.Entry<String, SlotRef> slotEntry: entry.getValue().entrySet()) {
+          VersionedData item = itemOf(slotEntry.getValue());
+          if (item != null && !item.isDeleted()) {
+            items.put(slotEntry.getKey(), item);
+          }
+        }
+        data.put(entry.getKey(), items.build());
+      }
+      // Writers can't change anything until we release the lock, so this can't replace a newer snapshot
+      // or hide a change; two readers may build the same snapshot, which does no harm.
+      s = new FeatureStoreSnapshot(version, initialized, data.build());
+      snapshot = s;
+      return s;
+    } finally {
+      lock.readLock().unlock();
+    }
+  }
+
+  // Must be called with the write lock held.
+  private void changed() {
+    version++;
+    snapshot = null;
+  }
+
+  // Must be called with the write lock held.
+  private void setItem(VersionedDataKind<?> kind, String key, ItemSlot slot, VersionedData item) {
+    slot.setItem(item);
+    // slotFor only ever hands out the slot that the map refers to, so this is the slot's reference
+    allData.get(kind).get(key).pinned = item == null ? null : slot;
+    changed();
+    if (kind == VersionedDataKind.FEATURES) {
+      targetIndex.update(key, item instanceof FeatureFlag && !item.isDeleted() ?
+          ((FeatureFlag)item).getCompiled() : null);
+    } else if (kind == VersionedDataKind.SEGMENTS) {
+      segmentIndex.update(key, item instanceof Segment && !item.isDeleted() ? (Segment)item : null);
+    }
+  }
+
+  /**
+   * Returns the slot for the given key, creating it if necessary. A slot that has no item only stays in
+   * the store for as long as the caller, or someone else, holds on to it.
+   */
+  ItemSlot slotFor(VersionedDataKind<?> kind, String key) {
+    releaseSlots();
+    ConcurrentMap<String, SlotRef> items = allData.get(kind);
+    if (items == null) {
+      ConcurrentMap<String, SlotRef> newItems = new ConcurrentHashMap<>();
+      items = allData.putIfAbsent(kind, newItems);
+      if (items == null) {
+        items = newItems;
+      }
+    }
+    while (true) {
+      SlotRef ref = items.get(key);
+      ItemSlot slot = derefSlot(ref);
+      if (slot != null) {
+        return slot;
+      }
+      // Either there is no slot, or it had no item and was released; in both cases a new empty slot
+      // is equivalent, as long as we are the ones to put it in the map.
+      ItemSlot newSlot = new ItemSlot();
+      SlotRef newRef = new SlotRef(items, key, newSlot, releasedSlots);
+      if (ref == null ? items.putIfAbsent(key, newRef) == null : items.replace(key, ref, newRef)) {
+        return newSlot;
+      }
+    }
+  }
+
+  /**
+   * The number of slots in the store, for tests; this includes released slots that have not yet been
+   * removed from the map.
+   */
+  int slotCount() {
+    releaseSlots();
+    int n = 0;
+    for (ConcurrentMap<String, SlotRef> items: allData.values()) {
+      n += items.size();
+    }
+    return n;
+  }
+
+  // Removes the map entries of slots that the garbage collector has released.
+  private void releaseSlots() {
+    Reference<? extends ItemSlot> r;
+    while ((r = releasedSlots.poll()) != null) {
+      SlotRef ref = (SlotRef)r;
+      ref.owner.remove(ref.key, ref);
+    }
+  }
+
+  private static ItemSlot derefSlot(SlotRef ref) {
+    return ref == null ? null : ref.get();
+  }
+
+  private static VersionedData itemOf(SlotRef ref) {
+    ItemSlot slot = ref.get();
+    return slot == null ? null : slot.getItem();
+  }
+
+  /**
+   * The store's reference to a slot: weak, so that a slot with no item can be released, plus a strong
+   * reference while the slot has an item.
+   */
+  private static final class SlotRef extends WeakReference<ItemSlot> {
+    final ConcurrentMap<String, SlotRef> owner;
+    final String key;
+    ItemSlot pinned; // only set with the write lock held
+
+    SlotRef(ConcurrentMap<String, SlotRef> owner, String key, ItemSlot slot, ReferenceQueue<ItemSlot> queue) {
+      super(slot, queue);
+      this.owner = owner;
+      this.key = key;
+    }
+  }
+
+  // Builds the evaluation-ready form of a flag or segment as it enters the store, outside of the lock,
+  // so that this work is not done by the first evaluation.
+  private void prepare(VersionedData item) {
+    if (item instanceof FeatureFlag) {
+      ((FeatureFlag) item).compile(this);
+    } else if (item instanceof Segment) {
+      ((Segment) item).compile();
+    }
+  }
+
+  // Logs an error for every prerequisite cycle that can be reached from the given flags. Evaluation
+  // already guards against cycles (see CompiledFlag), so this is only to report the bad data when it
+  // arrives rather than on every evaluation.
+  private void checkForPrerequisiteCycles(Iterable<String> flagKeys) {
+    Map<String, Boolean> visited = new HashMap<>(); // false while a flag's prerequisites are being visited
+    for (String key: flagKeys) {
+      visitPrerequisites(key, visited);
+    }
+  }
+
+  private void visitPrerequisites(String key, Map<String, Boolean> visited) {
+    Boolean done = visited.get(key);
+    if (done != null) {
+      if (!done) {
+        logger.error("Data inconsistency in feature flag \"{}\": it is in a prerequisite cycle", key);
+      }
+      return;
+    }
+    ConcurrentMap<String, SlotRef> flagSlots = allData.get(VersionedDataKind.FEATURES);
+    ItemSlot slot = flagSlots == null ? null : derefSlot(flagSlots.get(key));
+    FeatureFlag flag = slot == null ? null : slot.get(VersionedDataKind.FEATURES);
+    visited.put(key, false);
+    if (flag != null && flag.getPrerequisites() != null) {
+      for (Prerequisite p: flag.getPrerequisites()) {
+        visitPrerequisites(p.getKey(), visited);
+      }
+    }
+    visited.put(key, true);
   }
 
   @Override
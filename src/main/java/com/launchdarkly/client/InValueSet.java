@@ -0,0 +1,68 @@
+package com.launchdarkly.client;
+
+import com.google.gson.JsonPrimitive;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * The values of an {@code in} clause, in a form that can be matched against a user value with one hash
+ * lookup instead of by comparing it with each value in turn.
+ * <p>
+ * {@link Operator#in} treats two numbers as equal if they have the same double value, and any two
+ * non-numbers (strings or booleans) as equal if they have the same string form; a number never equals a
+ * non-number. So the numbers are kept as doubles and everything else as strings.
+ */
+final class InValueSet implements Operator.ValueMatcher {
+  private final CompactStringSet strings;
+  private final Set<Double> numbers;
+
+  private InValueSet(CompactStringSet strings, Set<Double> numbers) {
+    this.strings = strings;
+    this.numbers = numbers;
+  }
+
+  /**
+   * Returns a set of the given values, or null if any of them is null; {@link Operator#in} throws an
+   * exception for a null clause value, so in that case the values are left to be compared one at a time.
+   */
+  static InValueSet of(List<JsonPrimitive> values) {
+    List<String> strings = new ArrayList<>();
+    Set<Double> numbers = new HashSet<>();
+    for (JsonPrimitive value: values) {
+      if (value == null) {
+        return null;
+      }
+      if (value.isNumber()) {
+        Double d = numberKey(value);
+        if (d != null) {
+          numbers.add(d);
+        }
+      } else {
+        strings.add(value.getAsString());
+      }
+    }
+    return new InValueSet(CompactStringSet.of(strings), numbers);
+  }
+
+  @Override
+  public boolean matchAny(JsonPrimitive uValue) {
+    if (uValue.isNumber()) {
+      Double d = numberKey(uValue);
+      return d != null && numbers.contains(d);
+    }
+    return strings.contains(uValue.getAsString());
+  }
+
+  // Double.equals() would distinguish -0.0 from 0.0, but the in operator does not
+  static Double numberKey(JsonPrimitive value) {
+    try {
+      double d = value.getAsDouble();
+      return d == 0 ? 0.0 : d;
+    } catch (NumberFormatException e) {
+      return null;
+    }
+  }
+}
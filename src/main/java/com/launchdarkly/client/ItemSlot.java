@@ -0,0 +1,33 @@
+package com.launchdarkly.client;
+
+/**
+ * The place where {@link InMemoryFeatureStore} keeps the current item for one key. There is at most one
+ * slot per key at a time, and it is created when the key is first stored or first referred to by another
+ * item (for instance as a prerequisite), even if no item with that key exists yet. Compiled flags hold on
+ * to the slots of the flags and segments they depend on, so they always see the current version of those
+ * items without looking them up by key. A slot with no item is dropped by the store once nothing holds
+ * on to it, and a new one is created if the key is used again.
+ */
+final class ItemSlot {
+  private volatile VersionedData item;
+
+  VersionedData getItem() {
+    return item;
+  }
+
+  void setItem(VersionedData item) {
+    this.item = item;
+  }
+
+  /**
+   * Returns the item if it exists, is not deleted, and is of the expected kind; otherwise null. This is
+   * the same condition under which {@link FeatureStore#get(VersionedDataKind, String)} returns null.
+   */
+  <T extends VersionedData> T get(VersionedDataKind<T> kind) {
+    VersionedData current = item;
+    if (current == null || current.isDeleted() || !kind.getItemClass().isInstance(current)) {
+      return null;
+    }
+    return kind.getItemClass().cast(current);
+  }
+}
@@ -12,7 +12,12 @@ import java.io.UnsupportedEncodingException;
 import java.net.URL;
 import java.security.InvalidKeyException;
 import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ForkJoinPool;
 import java.util.concurrent.Future;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.TimeoutException;
@@ -39,6 +44,7 @@ public final class LDClient implements LDClientInterface {
   final UpdateProcessor updateProcessor;
   final FeatureStore featureStore;
   final boolean shouldCloseFeatureStore;
+  private final EvaluationCache evaluationCache; // null if not enabled
   
   /**
    * Creates a new client instance that connects to LaunchDarkly with the default configuration. In most
@@ -76,6 +82,16 @@ public final class LDClient implements LDClientInterface {
       this.shouldCloseFeatureStore = true;
     }
     
+    if (!config.linearRegexEngine) {
+      RegexMatcher.setLinearEngineDisabled(true);
+    }
+    if (config.segmentKeyFilesDirectory != null) {
+      SortedKeyFile.setDirectory(config.segmentKeyFilesDirectory);
+    }
+
+    this.evaluationCache = config.evaluationCacheSize > 0 ?
+        new EvaluationCache(config.evaluationCacheSize, config.evaluationCacheTtlMillis) : null;
+
     EventProcessorFactory epFactory = config.eventProcessorFactory == null ?
         Components.defaultEventProcessor() : config.eventProcessorFactory;
     this.eventProcessor = epFactory.createEventProcessor(sdkKey, config);
@@ -134,11 +150,19 @@ public final class LDClient implements LDClientInterface {
     eventProcessor.sendEvent(EventFactory.DEFAULT.newIdentifyEvent(user));
   }
 
-  private void sendFlagRequestEvent(Event.FeatureRequest event) {
-    eventProcessor.sendEvent(event);
+  private void sendFlagRequestEvent(UserScope scope, Event.FeatureRequest event) {
+    sendEvent(scope, event);
     NewRelicReflector.annotateTransaction(event.key, String.valueOf(event.value));
   }
 
+  private void sendEvent(UserScope scope, Event.FeatureRequest event) {
+    if (scope != null) {
+      scope.sendEvent(event);
+    } else {
+      eventProcessor.sendEvent(event);
+    }
+  }
+
   @Override
   public Map<String, JsonElement> allFlags(LDUser user) {
     FeatureFlagsState state = allFlagsState(user);
@@ -172,26 +196,23 @@ public final class LDClient implements LDClientInterface {
 
     boolean clientSideOnly = FlagsStateOption.hasOption(options, FlagsStateOption.CLIENT_SIDE_ONLY);
     Map<String, FeatureFlag> flags = featureStore.all(FEATURES);
-    for (Map.Entry<String, FeatureFlag> entry : flags.entrySet()) {
-      FeatureFlag flag = entry.getValue();
-      if (clientSideOnly && !flag.isClientSide()) {
-        continue;
-      }
-      try {
-        EvaluationDetail<JsonElement> result = flag.evaluate(user, featureStore, EventFactory.DEFAULT).getDetails();
-        builder.addFlag(flag, result);
-      } catch (Exception e) {
-        logger.error("Exception caught for feature flag \"{}\" when evaluating all flags: {}", entry.getKey(), e.toString());
-        logger.debug(e.toString(), e);
-        builder.addFlag(entry.getValue(), EvaluationDetail.<JsonElement>error(EvaluationReason.ErrorKind.EXCEPTION, null));
+    List<FeatureFlag> flagsToEvaluate = new ArrayList<>(flags.size());
+    for (FeatureFlag flag: flags.values()) {
+      if (!clientSideOnly || flag.isClientSide()) {
+        flagsToEvaluate.add(flag);
       }
     }
+    EvaluationDetail<JsonElement>[] results = new FlagsStateEvaluator(user, featureStore)
+        .evaluateAll(flagsToEvaluate, config.allFlagsStatePool);
+    for (int i = 0; i < results.length; i++) {
+      builder.addFlag(flagsToEvaluate.get(i), results[i]);
+    }
     return builder.build();
   }
   
   @Override
   public boolean boolVariation(String featureKey, LDUser user, boolean defaultValue) {
-    return evaluate(featureKey, user, defaultValue, new JsonPrimitive(defaultValue), VariationType.Boolean);
+    return evaluate(featureKey, user, defaultValue, Util.jsonBoolean(defaultValue), VariationType.Boolean);
   }
 
   @Override
@@ -216,7 +237,7 @@ public final class LDClient implements LDClientInterface {
 
   @Override
   public EvaluationDetail<Boolean> boolVariationDetail(String featureKey, LDUser user, boolean defaultValue) {
-     return evaluateDetail(featureKey, user, defaultValue, new JsonPrimitive(defaultValue), VariationType.Boolean,
+     return evaluateDetail(featureKey, user, defaultValue, Util.jsonBoolean(defaultValue), VariationType.Boolean,
          EventFactory.DEFAULT_WITH_REASONS);
   }
 
@@ -244,6 +265,194 @@ public final class LDClient implements LDClientInterface {
          EventFactory.DEFAULT_WITH_REASONS);
   }
   
+  /**
+   * Returns a handle for evaluating a boolean feature flag repeatedly. Evaluating through the handle gives
+   * the same results and events as {@link #boolVariation(String, LDUser, boolean)}, but if the client uses
+   * the default in-memory feature store, the handle refers directly to the store's entry for the flag, so
+   * it does not look the flag up by key each time. It always sees the current version of the flag.
+   *
+   * @param featureKey the unique key for the feature flag
+   * @return a handle for the flag
+   * @since 4.6.0
+   */
+  public FlagHandle<Boolean> boolFlag(String featureKey) {
+    return flagHandle(featureKey, VariationType.Boolean);
+  }
+
+  /**
+   * Returns a handle for evaluating an integer feature flag repeatedly; see {@link #boolFlag(String)}.
+   *
+   * @param featureKey the unique key for the feature flag
+   * @return a handle for the flag
+   * @since 4.6.0
+   */
+  public FlagHandle<Integer> intFlag(String featureKey) {
+    return flagHandle(featureKey, VariationType.Integer);
+  }
+
+  /**
+   * Returns a handle for evaluating a floating point numeric feature flag repeatedly; see
+   * {@link #boolFlag(String)}.
+   *
+   * @param featureKey the unique key for the feature flag
+   * @return a handle for the flag
+   * @since 4.6.0
+   */
+  public FlagHandle<Double> doubleFlag(String featureKey) {
+    return flagHandle(featureKey, VariationType.Double);
+  }
+
+  /**
+   * Returns a handle for evaluating a String feature flag repeatedly; see {@link #boolFlag(String)}.
+   *
+   * @param featureKey the unique key for the feature flag
+   * @return a handle for the flag
+   * @since 4.6.0
+   */
+  public FlagHandle<String> stringFlag(String featureKey) {
+    return flagHandle(featureKey, VariationType.String);
+  }
+
+  /**
+   * Returns a handle for evaluating a JSON feature flag repeatedly; see {@link #boolFlag(String)}.
+   *
+   * @param featureKey the unique key for the feature flag
+   * @return a handle for the flag
+   * @since 4.6.0
+   */
+  public FlagHandle<JsonElement> jsonFlag(String featureKey) {
+    return flagHandle(featureKey, VariationType.Json);
+  }
+
+  /**
+   * Opens a scope for evaluating flags for one user, such as during a single request to an application
+   * server, in which each flag is only evaluated once and repeated evaluations do not each send an
+   * analytics event. See {@link UserScope}; the scope should be closed when it is no longer needed.
+   * <p>
+   * If the client uses the default in-memory feature store, the scope evaluates flags against a
+   * {@link #snapshot()} of it taken now.
+   *
+   * @param user the end user requesting the flags
+   * @return a new scope
+   * @since 4.6.0
+   */
+  public UserScope openScope(LDUser user) {
+    FeatureStoreSnapshot snapshot = featureStore instanceof InMemoryFeatureStore ?
+        ((InMemoryFeatureStore)featureStore).snapshot() : null;
+    return new UserScope(this, eventProcessor, user, snapshot);
+  }
+
+  /**
+   * Same as {@link #openScope(LDUser)}, but evaluates flags against the given snapshot. Opening scopes
+   * for several users with the same snapshot makes all of their results consistent with each other.
+   *
+   * @param user the end user requesting the flags
+   * @param snapshot a snapshot from {@link #snapshot()}
+   * @return a new scope
+   * @since 4.6.0
+   */
+  public UserScope openScope(LDUser user, FeatureStoreSnapshot snapshot) {
+    return new UserScope(this, eventProcessor, user, snapshot);
+  }
+
+  /**
+   * Returns an immutable snapshot of the flags and segments in the feature store, which can be passed
+   * to {@link #openScope(LDUser, FeatureStoreSnapshot)} so that a group of evaluations all see the same
+   * version of the data, even if the store is updated while they are being made. With the default
+   * in-memory feature store, this is cheap unless the store has changed since the last snapshot.
+   *
+   * @return a snapshot of the current data
+   * @since 4.6.0
+   */
+  public FeatureStoreSnapshot snapshot() {
+    if (featureStore instanceof InMemoryFeatureStore) {
+      return ((InMemoryFeatureStore)featureStore).snapshot();
+    }
+    return FeatureStoreSnapshot.copyOf(featureStore);
+  }
+
+  /**
+   * Evaluates a feature flag for every user in a batch, such as for an offline job that needs to know
+   * which variation each of a large number of users would get. All of the users are evaluated against
+   * the same {@link #snapshot()}, and if a pool is given, different parts of the batch are evaluated in
+   * parallel in it.
+   * <p>
+   * No analytics event is sent for each user. If {@code sendSummaryEvents} is true, the evaluations are
+   * added to the analytics summary counts instead, as if each user had been evaluated with
+   * {@link #jsonVariation(String, LDUser, JsonElement)}, but with only one summary-only event per flag
+   * variation; otherwise nothing at all is sent.
+   *
+   * @param featureKey the unique key for the feature flag
+   * @param users the users to evaluate the flag for
+   * @param pool the pool to evaluate the users in, or null to evaluate them in the calling thread
+   * @param sendSummaryEvents true to add the evaluations to the analytics summary
+   * @return the index of the variation that each user gets, in the same order as the users in the batch;
+   *   -1 if a user would get the default value, because the flag is off and has no off variation, the
+   *   user has no key, the flag does not exist, or there was an error
+   * @since 4.6.0
+   */
+  public int[] evaluateBatch(String featureKey, UserBatch users, ForkJoinPool pool, boolean sendSummaryEvents) {
+    return evaluateBatch(featureKey, users, null, pool, sendSummaryEvents);
+  }
+
+  /**
+   * Same as {@link #evaluateBatch(String, UserBatch, ForkJoinPool, boolean)}, but evaluates the flag
+   * against the given snapshot, so that a job that evaluates many batches, or several flags, gets
+   * results that are all consistent with each other.
+   *
+   * @param featureKey the unique key for the feature flag
+   * @param users the users to evaluate the flag for
+   * @param snapshot a snapshot from {@link #snapshot()}, or null to take a new one
+   * @param pool the pool to evaluate the users in, or null to evaluate them in the calling thread
+   * @param sendSummaryEvents true to add the evaluations to the analytics summary
+   * @return the index of the variation that each user gets, or -1 if a user would get the default value
+   * @since 4.6.0
+   */
+  public int[] evaluateBatch(String featureKey, UserBatch users, FeatureStoreSnapshot snapshot, ForkJoinPool pool,
+      boolean sendSummaryEvents) {
+    int[] results = new int[users.size()];
+    Arrays.fill(results, BatchEvaluator.NO_VARIATION);
+    if (snapshot == null && !initialized()) {
+      if (featureStore.initialized()) {
+        logger.warn("evaluateBatch called before client initialized for feature flag \"{}\"; using last known values from feature store", featureKey);
+      } else {
+        logger.warn("evaluateBatch called before client initialized for feature flag \"{}\"; feature store unavailable, returning default values", featureKey);
+        return results;
+      }
+    }
+
+    try {
+      FeatureStore store = (snapshot != null ? snapshot : snapshot()).asFeatureStore();
+      FeatureFlag featureFlag = store.get(FEATURES, featureKey);
+      if (featureFlag == null) {
+        logger.info("Unknown feature flag \"{}\"; returning default values", featureKey);
+        if (sendSummaryEvents && users.size() > 0) {
+          Event.FeatureRequest e = EventFactory.DEFAULT.newUnknownFeatureRequestEvent(featureKey, null, null,
+              EvaluationReason.ErrorKind.FLAG_NOT_FOUND);
+          eventProcessor.sendEvent(new Event.FeatureRequest(e, users.size()));
+        }
+        return results;
+      }
+      BatchEvaluator evaluator = new BatchEvaluator(featureFlag, store, users, sendSummaryEvents);
+      results = evaluator.evaluateAll(pool);
+      if (sendSummaryEvents) {
+        for (Event.FeatureRequest e: evaluator.summaryEvents(results)) {
+          eventProcessor.sendEvent(e);
+        }
+      }
+    } catch (Exception e) {
+      logger.error("Encountered exception while evaluating feature flag \"{}\" for a batch of users: {}", featureKey, e.toString());
+      logger.debug(e.toString(), e);
+    }
+    return results;
+  }
+
+  private <T> FlagHandle<T> flagHandle(String featureKey, VariationType<T> type) {
+    ItemSlot slot = featureStore instanceof InMemoryFeatureStore ?
+        ((InMemoryFeatureStore)featureStore).slotFor(FEATURES, featureKey) : null;
+    return new FlagHandle<>(this, featureKey, slot, type);
+  }
+
   @Override
   public boolean isFlagKnown(String featureKey) {
     if (!initialized()) {
@@ -267,19 +476,43 @@ public final class LDClient implements LDClientInterface {
     return false;
   }
 
+  // Same as evaluateDetail(...).getValue(), but without building an EvaluationDetail for the result
   private <T> T evaluate(String featureKey, LDUser user, T defaultValue, JsonElement defaultJson, VariationType<T> expectedType) {
-    return evaluateDetail(featureKey, user, defaultValue, defaultJson, expectedType, EventFactory.DEFAULT).getValue();
+    return evaluate(featureKey, null, null, user, defaultValue, defaultJson, expectedType);
+  }
+
+  <T> T evaluate(String featureKey, ItemSlot slot, UserScope scope, LDUser user, T defaultValue, JsonElement defaultJson,
+      VariationType<T> expectedType) {
+    EvaluationDetail<JsonElement> details = evaluateInternal(featureKey, slot, scope, user, defaultJson,
+        EventFactory.DEFAULT);
+    if (details.getReason().getKind() == EvaluationReason.Kind.ERROR) {
+      return defaultValue;
+    }
+    if (details.getValue() == null) {
+      return null;
+    }
+    try {
+      return expectedType.coerceDetail(details);
+    } catch (EvaluationException e) {
+      logger.error("Encountered exception in LaunchDarkly client: " + e);
+      return defaultValue;
+    }
   }
   
   private <T> EvaluationDetail<T> evaluateDetail(String featureKey, LDUser user, T defaultValue,
       JsonElement defaultJson, VariationType<T> expectedType, EventFactory eventFactory) {
-    EvaluationDetail<JsonElement> details = evaluateInternal(featureKey, user, defaultJson, eventFactory);
+    return evaluateDetail(featureKey, null, null, user, defaultValue, defaultJson, expectedType, eventFactory);
+  }
+
+  <T> EvaluationDetail<T> evaluateDetail(String featureKey, ItemSlot slot, UserScope scope, LDUser user, T defaultValue,
+      JsonElement defaultJson, VariationType<T> expectedType, EventFactory eventFactory) {
+    EvaluationDetail<JsonElement> details = evaluateInternal(featureKey, slot, scope, user, defaultJson, eventFactory);
     T resultValue = null;
     if (details.getReason().getKind() == EvaluationReason.Kind.ERROR) {
       resultValue = defaultValue;
     } else if (details.getValue() != null) {
       try {
-        resultValue = expectedType.coerceValue(details.getValue());
+        resultValue = expectedType.coerceDetail(details);
       } catch (EvaluationException e) {
         logger.error("Encountered exception in LaunchDarkly client: " + e);
         return EvaluationDetail.error(EvaluationReason.ErrorKind.WRONG_TYPE, defaultValue);
@@ -288,54 +521,88 @@ public final class LDClient implements LDClientInterface {
     return new EvaluationDetail<T>(details.getReason(), details.getVariationIndex(), resultValue);
   }
   
-  private EvaluationDetail<JsonElement> evaluateInternal(String featureKey, LDUser user, JsonElement defaultValue, EventFactory eventFactory) {
+  // If slot is not null, it is the feature store's slot for the flag, which is read instead of looking
+  // the flag up by key. If scope is not null, the result is remembered in it, or taken from it if the
+  // flag has already been evaluated there, and events are sent through it; if the scope has a snapshot,
+  // flags are evaluated against that instead of the feature store.
+  private EvaluationDetail<JsonElement> evaluateInternal(String featureKey, ItemSlot slot, UserScope scope, LDUser user,
+      JsonElement defaultValue, EventFactory eventFactory) {
     if (!initialized()) {
       if (featureStore.initialized()) {
         logger.warn("Evaluation called before client initialized for feature flag \"{}\"; using last known values from feature store", featureKey);
       } else {
         logger.warn("Evaluation called before client initialized for feature flag \"{}\"; feature store unavailable, returning default value", featureKey);
-        sendFlagRequestEvent(eventFactory.newUnknownFeatureRequestEvent(featureKey, user, defaultValue,
+        sendFlagRequestEvent(scope, eventFactory.newUnknownFeatureRequestEvent(featureKey, user, defaultValue,
             EvaluationReason.ErrorKind.CLIENT_NOT_READY));
         return EvaluationDetail.error(EvaluationReason.ErrorKind.CLIENT_NOT_READY, defaultValue);
       }
     }
 
+    FeatureStore store = scope != null && scope.getSnapshot() != null ? scope.getSnapshot().asFeatureStore() :
+        featureStore;
     FeatureFlag featureFlag = null;
     try {
-      featureFlag = featureStore.get(FEATURES, featureKey);
+      UserScope.Result scoped = scope == null ? null : scope.getResult(featureKey);
+      featureFlag = scoped != null ? scoped.flag :
+          slot != null ? slot.get(FEATURES) : store.get(FEATURES, featureKey);
       if (featureFlag == null) {
         logger.info("Unknown feature flag \"{}\"; returning default value", featureKey);
-        sendFlagRequestEvent(eventFactory.newUnknownFeatureRequestEvent(featureKey, user, defaultValue,
+        sendFlagRequestEvent(scope, eventFactory.newUnknownFeatureRequestEvent(featureKey, user, defaultValue,
             EvaluationReason.ErrorKind.FLAG_NOT_FOUND));
         return EvaluationDetail.error(EvaluationReason.ErrorKind.FLAG_NOT_FOUND, defaultValue);
       }
       if (user == null || user.getKey() == null) {
         logger.warn("Null user or null user key when evaluating flag \"{}\"; returning default value", featureKey);
-        sendFlagRequestEvent(eventFactory.newDefaultFeatureRequestEvent(featureFlag, user, defaultValue,
+        sendFlagRequestEvent(scope, eventFactory.newDefaultFeatureRequestEvent(featureFlag, user, defaultValue,
             EvaluationReason.ErrorKind.USER_NOT_SPECIFIED));
         return EvaluationDetail.error(EvaluationReason.ErrorKind.USER_NOT_SPECIFIED, defaultValue);
       }
       if (user.getKeyAsString().isEmpty()) {
         logger.warn("User key is blank. Flag evaluation will proceed, but the user will not be stored in LaunchDarkly");
       }
-      FeatureFlag.EvalResult evalResult = featureFlag.evaluate(user, featureStore, eventFactory);
-      for (Event.FeatureRequest event : evalResult.getPrerequisiteEvents()) {
-        eventProcessor.sendEvent(event);
+      CompiledFlag compiled = featureFlag.getCompiled();
+      // If the flag is off or has no targeting, the result was already computed when it was stored
+      EvaluationDetail<JsonElement> details = scoped != null ? scoped.details : compiled.getConstantResult();
+      List<EvaluationCache.PrerequisiteResult> prerequisites = Collections.emptyList();
+      if (scoped != null) {
+        for (EvaluationCache.PrerequisiteResult p: scoped.prerequisites) {
+          scope.sendEvent(eventFactory.newPrerequisiteFeatureRequestEvent(p.flag, user, p.details, p.prereqOf));
+        }
+      } else if (details == null) {
+        if (evaluationCache == null && !compiled.hasPrerequisites()) {
+          // There can't be any prerequisite events, so there is no need for an EvalResult
+          details = compiled.evaluate(user, store, Collections.<Event.FeatureRequest>emptyList(), eventFactory);
+        } else {
+          EvaluationCache.RecordingEventFactory recorder = scope == null ? null :
+              new EvaluationCache.RecordingEventFactory(eventFactory);
+          EventFactory factory = recorder == null ? eventFactory : recorder;
+          FeatureFlag.EvalResult evalResult = evaluationCache == null ? featureFlag.evaluate(user, store, factory) :
+              evaluationCache.evaluate(featureFlag, user, store, factory);
+          for (Event.FeatureRequest event : evalResult.getPrerequisiteEvents()) {
+            sendEvent(scope, event);
+          }
+          details = evalResult.getDetails();
+          if (recorder != null) {
+            prerequisites = recorder.prerequisites;
+          }
+        }
+      }
+      if (scope != null && scoped == null) {
+        scope.putResult(featureKey, new UserScope.Result(featureFlag, details, prerequisites));
       }
-      EvaluationDetail<JsonElement> details = evalResult.getDetails();
       if (details.isDefaultValue()) {
         details = new EvaluationDetail<JsonElement>(details.getReason(), null, defaultValue);
       }
-      sendFlagRequestEvent(eventFactory.newFeatureRequestEvent(featureFlag, user, details, defaultValue));
+      sendFlagRequestEvent(scope, eventFactory.newFeatureRequestEvent(featureFlag, user, details, defaultValue));
       return details;
     } catch (Exception e) {
       logger.error("Encountered exception while evaluating feature flag \"{}\": {}", featureKey, e.toString());
       logger.debug(e.toString(), e);
       if (featureFlag == null) {
-        sendFlagRequestEvent(eventFactory.newUnknownFeatureRequestEvent(featureKey, user, defaultValue,
+        sendFlagRequestEvent(scope, eventFactory.newUnknownFeatureRequestEvent(featureKey, user, defaultValue,
             EvaluationReason.ErrorKind.EXCEPTION));
       } else {
-        sendFlagRequestEvent(eventFactory.newDefaultFeatureRequestEvent(featureFlag, user, defaultValue,
+        sendFlagRequestEvent(scope, eventFactory.newDefaultFeatureRequestEvent(featureFlag, user, defaultValue,
             EvaluationReason.ErrorKind.EXCEPTION));
       }
       return EvaluationDetail.error(EvaluationReason.ErrorKind.EXCEPTION, defaultValue);
@@ -22,6 +22,7 @@ import java.net.URI;
 import java.util.Arrays;
 import java.util.HashSet;
 import java.util.Set;
+import java.util.concurrent.ForkJoinPool;
 import java.util.concurrent.TimeUnit;
 
 /**
@@ -45,6 +46,7 @@ public final class LDConfig {
   private static final int DEFAULT_USER_KEYS_FLUSH_INTERVAL_SECONDS = 60 * 5;
   private static final long DEFAULT_RECONNECT_TIME_MILLIS = 1000;
   private static final long MAX_HTTP_CACHE_SIZE_BYTES = 10 * 1024 * 1024; // 10 MB
+  private static final long DEFAULT_EVALUATION_CACHE_TTL_MILLIS = 60000L;
 
   protected static final LDConfig DEFAULT = new Builder().build();
 
@@ -75,6 +77,11 @@ public final class LDConfig {
   final int userKeysCapacity;
   final int userKeysFlushInterval;
   final boolean inlineUsersInEvents;
+  final int evaluationCacheSize;
+  final long evaluationCacheTtlMillis;
+  final ForkJoinPool allFlagsStatePool;
+  final boolean linearRegexEngine;
+  final File segmentKeyFilesDirectory;
   
   protected LDConfig(Builder builder) {
     this.baseURI = builder.baseURI;
@@ -107,6 +114,11 @@ public final class LDConfig {
     this.userKeysCapacity = builder.userKeysCapacity;
     this.userKeysFlushInterval = builder.userKeysFlushInterval;
     this.inlineUsersInEvents = builder.inlineUsersInEvents;
+    this.evaluationCacheSize = builder.evaluationCacheSize;
+    this.evaluationCacheTtlMillis = builder.evaluationCacheTtlMillis;
+    this.allFlagsStatePool = builder.allFlagsStatePool;
+    this.linearRegexEngine = builder.linearRegexEngine;
+    this.segmentKeyFilesDirectory = builder.segmentKeyFilesDirectory;
     
     OkHttpClient.Builder httpClientBuilder = new OkHttpClient.Builder()
         .connectionPool(new ConnectionPool(5, 5, TimeUnit.SECONDS))
@@ -177,6 +189,11 @@ public final class LDConfig {
     private int userKeysCapacity = DEFAULT_USER_KEYS_CAPACITY;
     private int userKeysFlushInterval = DEFAULT_USER_KEYS_FLUSH_INTERVAL_SECONDS;
     private boolean inlineUsersInEvents = false;
+    private int evaluationCacheSize = 0;
+    private long evaluationCacheTtlMillis = DEFAULT_EVALUATION_CACHE_TTL_MILLIS;
+    private ForkJoinPool allFlagsStatePool = null;
+    private boolean linearRegexEngine = true;
+    private File segmentKeyFilesDirectory = null;
     
     /**
      * Creates a builder with all configuration parameters set to the default
@@ -556,6 +573,80 @@ public final class LDConfig {
       this.inlineUsersInEvents = inlineUsersInEvents;
       return this;
     }
+
+    /**
+     * Sets the maximum number of flag evaluation results that the client will cache, so that evaluating
+     * the same flag for the same user again does not repeat the work of evaluating its rules. A cached
+     * result is only used while the flag, and any prerequisite flags and segments it depends on, are
+     * unchanged, and analytics events are still sent for every evaluation. The default is zero, which
+     * disables the cache.
+     *
+     * @param evaluationCacheSize the maximum number of cached results, or zero for no cache
+     * @return the builder
+     */
+    public Builder evaluationCacheSize(int evaluationCacheSize) {
+      this.evaluationCacheSize = evaluationCacheSize;
+      return this;
+    }
+
+    /**
+     * Sets how long a cached flag evaluation result is kept, if {@link #evaluationCacheSize(int)} is set.
+     * The default is 60000 (one minute).
+     *
+     * @param evaluationCacheTtlMillis the time to keep a cached result, in milliseconds
+     * @return the builder
+     */
+    public Builder evaluationCacheTtlMillis(long evaluationCacheTtlMillis) {
+      this.evaluationCacheTtlMillis = evaluationCacheTtlMillis;
+      return this;
+    }
+
+    /**
+     * Sets a thread pool that {@link LDClient#allFlagsState(LDUser, FlagsStateOption...)} can use to
+     * evaluate flags in parallel, which can make it faster in environments with many flags. The result
+     * is the same as with sequential evaluation. By default this is null, and all flags are evaluated on
+     * the calling thread. The client does not shut down the pool when it is closed.
+     *
+     * @param pool the pool to use for parallel evaluation, or null to evaluate sequentially
+     * @return the builder
+     */
+    public Builder allFlagsStatePool(ForkJoinPool pool) {
+      this.allFlagsStatePool = pool;
+      return this;
+    }
+
+    /**
+     * Sets whether the {@code matches} operator uses the SDK's own regular expression engine, which takes
+     * time proportional to the length of the user's attribute for any pattern, for the patterns that it
+     * supports. If false, all patterns are matched with {@link java.util.regex.Pattern}. The default is
+     * true. Since flag data can be shared by clients, setting this to false for one client turns the
+     * engine off for every client in the JVM.
+     *
+     * @param linearRegexEngine false to match all patterns with {@link java.util.regex.Pattern}
+     * @return the builder
+     * @since 4.6.0
+     */
+    public Builder linearRegexEngine(boolean linearRegexEngine) {
+      this.linearRegexEngine = linearRegexEngine;
+      return this;
+    }
+
+    /**
+     * Sets the directory that holds the files of user keys that segments can name in their
+     * {@code includedKeysFile} and {@code excludedKeysFile} properties. A name is looked up inside this
+     * directory; a segment that names an absolute path, or a path that leads out of the directory, is
+     * treated as if its file could not be read. By default this is null, and segments cannot use key
+     * files. Since segment data can be shared by clients, the directory applies to every client in the
+     * JVM, and the most recently created client that sets one decides which it is.
+     *
+     * @param directory the directory of segment key files, or null
+     * @return the builder
+     * @since 4.6.0
+     */
+    public Builder segmentKeyFilesDirectory(File directory) {
+      this.segmentKeyFilesDirectory = directory;
+      return this;
+    }
     
     // returns null if none of the proxy bits were configured. Minimum required part: port.
     Proxy proxy() {
@@ -39,6 +39,7 @@ import java.util.regex.Pattern;
  */
 public class LDUser {
   private static final Logger logger = LoggerFactory.getLogger(LDUser.class);
+  private static final int MAX_CONVERTED_VALUES = 64;
 
   // Note that these fields are all stored internally as JsonPrimitive rather than String so that
   // we don't waste time repeatedly converting them to JsonPrimitive in the rule evaluation logic.
@@ -54,6 +55,10 @@ public class LDUser {
   private JsonPrimitive country;
   private Map<String, JsonElement> custom;
   Set<String> privateAttributeNames;
+  // Attribute values that have been converted for comparison operators; see getValueAsType()
+  private transient volatile ConvertedValue[] convertedValues;
+  // Which attributes used by flag rules this user has; see hasAttributes()
+  private transient volatile AttributePresence attributePresence;
 
   protected LDUser(Builder builder) {
     if (builder.key == null || builder.key.equals("")) {
@@ -84,14 +89,93 @@ public class LDUser {
     this.privateAttributeNames = null;
   }
 
+  /**
+   * Creates a user for evaluation only, from attribute values that are already JSON, without the copying
+   * and validation that the builder does; used by {@link UserBatch}. The built-in attributes other than
+   * the key are taken from an array indexed by {@link UserAttribute} ordinal, which may be null.
+   */
+  LDUser(JsonPrimitive key, JsonPrimitive[] builtIns, Map<String, JsonElement> custom) {
+    this.key = key;
+    if (builtIns != null) {
+      this.secondary = builtIns[UserAttribute.secondary.ordinal()];
+      this.ip = builtIns[UserAttribute.ip.ordinal()];
+      this.email = builtIns[UserAttribute.email.ordinal()];
+      this.avatar = builtIns[UserAttribute.avatar.ordinal()];
+      this.firstName = builtIns[UserAttribute.firstName.ordinal()];
+      this.lastName = builtIns[UserAttribute.lastName.ordinal()];
+      this.name = builtIns[UserAttribute.name.ordinal()];
+      this.country = builtIns[UserAttribute.country.ordinal()];
+      this.anonymous = builtIns[UserAttribute.anonymous.ordinal()];
+    }
+    this.custom = custom;
+    this.privateAttributeNames = null;
+  }
+
   protected JsonElement getValueForEvaluation(String attribute) {
     // Don't use Enum.valueOf because we don't want to trigger unnecessary exceptions
-    for (UserAttribute builtIn: UserAttribute.values()) {
-      if (builtIn.name().equals(attribute)) {
-        return builtIn.get(this);
+    return getValueForEvaluation(UserAttribute.forName(attribute), attribute);
+  }
+
+  // Used when the caller has already looked up whether the attribute is built-in; builtIn is null for
+  // a custom attribute.
+  JsonElement getValueForEvaluation(UserAttribute builtIn, String attribute) {
+    return builtIn != null ? builtIn.get(this) : getCustom(attribute);
+  }
+
+  /**
+   * Returns {@code type.getValueAsType(value)} for one of this user's attribute values, converting it only
+   * the first time, so that a date or version attribute is not parsed again by every clause and flag that
+   * refers to it. Since a user has few such attributes, they are kept in a small array that is copied
+   * when a value is added; if two threads add one at once, one may be lost, which only means it will be
+   * converted again.
+   */
+  Object getValueAsType(JsonPrimitive value, OperandType type) {
+    ConvertedValue[] values = convertedValues;
+    if (values != null) {
+      for (ConvertedValue v: values) {
+        if (v.value == value && v.type == type) {
+          return v.result;
+        }
       }
     }
-    return getCustom(attribute);
+    Object result = type.getValueAsType(value);
+    int n = values == null ? 0 : values.length;
+    if (n == MAX_CONVERTED_VALUES) {
+      return result;
+    }
+    ConvertedValue[] newValues = new ConvertedValue[n + 1];
+    if (n > 0) {
+      System.arraycopy(values, 0, newValues, 0, n);
+    }
+    newValues[n] = new ConvertedValue(value, type, result);
+    convertedValues = newValues;
+    return result;
+  }
+
+  /**
+   * Returns true if this user has all of the attributes whose {@link AttributePresence} bits from the
+   * given registry are in the mask. The presence of each attribute is only checked once, unless
+   * attributes have been given bits since then or the mask is from a different registry.
+   */
+  boolean hasAttributes(AttributePresence.Registry registry, long mask) {
+    AttributePresence p = attributePresence;
+    if (p == null || !p.covers(registry, mask)) {
+      p = registry.of(this);
+      attributePresence = p;
+    }
+    return (mask & ~p.present) == 0;
+  }
+
+  private static final class ConvertedValue {
+    final JsonPrimitive value; // compared by identity, since it is one of this user's own values
+    final OperandType type;
+    final Object result;
+
+    ConvertedValue(JsonPrimitive value, OperandType type, Object result) {
+      this.value = value;
+      this.type = type;
+      this.result = result;
+    }
   }
 
   JsonPrimitive getKey() {
@@ -142,6 +226,10 @@ public class LDUser {
     return anonymous;
   }
 
+  Map<String, JsonElement> getCustomAttributes() {
+    return custom;
+  }
+
   JsonElement getCustom(String key) {
     if (custom != null) {
       return custom.get(key);
@@ -0,0 +1,676 @@
+package com.launchdarkly.client;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * A regular expression matcher that runs in time proportional to the length of the input times the size
+ * of the pattern, however the pattern is written, for the {@code matches} operator.
+ * <p>
+ * It supports the commonly used subset of {@link java.util.regex.Pattern} syntax: literals, {@code .},
+ * character classes with ranges and negation, {@code \d \D \w \W \s \S}, the anchors {@code ^} and
+ * {@code $}, groups, alternation, and the quantifiers {@code * + ? {n} {n,} {n,m}} (greedy or lazy,
+ * which makes no difference to whether there is a match). Within that subset it finds a match exactly
+ * when {@code Pattern.compile(pattern).matcher(input).find()} would. {@link #compile(List)} returns null
+ * for a pattern that uses anything else, such as backreferences, lookaround, flags, word boundaries or
+ * a quantifier directly after another quantifier, and the caller then uses {@link java.util.regex.Pattern} instead.
+ * <p>
+ * The pattern is compiled to a program for a Thompson NFA, which is run by keeping the set of states
+ * the automaton could be in at each position of the input rather than by backtracking. Several patterns
+ * can be compiled into one program that matches if any of them does.
+ */
+final class LinearRegex {
+  // Beyond this many instructions, for instance from large repeat counts, we let Pattern handle it
+  private static final int MAX_PROGRAM_SIZE = 10000;
+
+  private static final int CHAR = 0;
+  private static final int SET = 1;
+  private static final int ANY_BUT_LINE_TERMINATOR = 2;
+  private static final int SPLIT = 3;
+  private static final int JUMP = 4;
+  private static final int ASSERT_BEGIN = 5;
+  private static final int ASSERT_END = 6;
+  private static final int MATCH = 7;
+
+  private final int[] ops;
+  private final int[] args1; // the character for CHAR; the first target for SPLIT and JUMP
+  private final int[] args2; // the second target for SPLIT
+  private final CharSet[] sets; // for SET
+
+  private LinearRegex(int[] ops, int[] args1, int[] args2, CharSet[] sets) {
+    this.ops = ops;
+    this.args1 = args1;
+    this.args2 = args2;
+    this.sets = sets;
+  }
+
+  /**
+   * Compiles patterns, which must all be valid {@link java.util.regex.Pattern} syntax, into one program
+   * that matches if any of them matches. Returns null if any of them uses unsupported syntax.
+   */
+  static LinearRegex compile(List<String> patterns) {
+    List<String> unsupported = new ArrayList<>();
+    LinearRegex program = compile(patterns, unsupported);
+    return unsupported.isEmpty() ? program : null;
+  }
+
+  /**
+   * Compiles the patterns that use supported syntax, which must all be valid
+   * {@link java.util.regex.Pattern} syntax, into one program that matches if any of them matches, and
+   * adds the others to {@code unsupported}. Each pattern is parsed once. Returns null if none of them are
+   * supported, or if the program would be too large, in which case they are all added to
+   * {@code unsupported}.
+   */
+  static LinearRegex compile(List<String> patterns, List<String> unsupported) {
+    List<Node> alternatives = new ArrayList<>();
+    List<String> supported = new ArrayList<>();
+    for (String pattern: patterns) {
+      Node node = new Parser(pattern).parse();
+      if (node == null) {
+        unsupported.add(pattern);
+      } else {
+        alternatives.add(node);
+        supported.add(pattern);
+      }
+    }
+    if (alternatives.isEmpty()) {
+      return null;
+    }
+    Emitter emitter = new Emitter();
+    if (!emitter.emit(new Node(Node.ALTERNATE, alternatives)) || !emitter.add(MATCH, 0, 0, null)) {
+      unsupported.addAll(supported);
+      return null;
+    }
+    return emitter.build();
+  }
+
+  /**
+   * Returns true if the pattern matches anywhere in the input. This takes at most a fixed number of
+   * steps per input character, proportional to the size of the program, so it needs no step budget.
+   */
+  boolean find(String input) {
+    int n = ops.length;
+    StateSet current = new StateSet(n), next = new StateSet(n);
+    int[] stack = new int[n];
+    int pos = 0;
+    if (addState(current, 0, input, pos, stack)) {
+      return true;
+    }
+    while (pos < input.length()) {
+      int c = input.codePointAt(pos);
+      int nextPos = pos + Character.charCount(c);
+      next.clear();
+      for (int i = 0; i < current.size; i++) {
+        int pc = current.dense[i];
+        boolean advance;
+        switch (ops[pc]) {
+        case CHAR:
+          advance = args1[pc] == c;
+          break;
+        case SET:
+          advance = sets[pc].contains(c);
+          break;
+        case ANY_BUT_LINE_TERMINATOR:
+          advance = !isLineTerminator(c);
+          break;
+        default:
+          advance = false;
+        }
+        if (advance && addState(next, pc + 1, input, nextPos, stack)) {
+          return true;
+        }
+      }
+      // The match could also start at the next position
+      if (addState(next, 0, input, nextPos, stack)) {
+        return true;
+      }
+      StateSet t = current;
+      current = next;
+      next = t;
+      pos = nextPos;
+    }
+    return false;
+  }
+
+  // Adds a state and every state reachable from it without consuming input; returns true if that
+  // includes the match state.
+  private boolean addState(StateSet set, int start, String input, int pos, int[] stack) {
+    int top = 0;
+    stack[top++] = start;
+    while (top > 0) {
+      int pc = stack[--top];
+      if (!set.add(pc)) {
+        continue;
+      }
+      switch (ops[pc]) {
+      case MATCH:
+        return true;
+      case JUMP:
+        stack[top++] = args1[pc];
+        break;
+      case SPLIT:
+        stack[top++] = args2[pc];
+        stack[top++] = args1[pc];
+        break;
+      case ASSERT_BEGIN:
+        if (pos == 0) {
+          stack[top++] = pc + 1;
+        }
+        break;
+      case ASSERT_END:
+        if (isEnd(input, pos)) {
+          stack[top++] = pc + 1;
+        }
+        break;
+      default:
+        break;
+      }
+    }
+    return false;
+  }
+
+  // Same as Pattern's "$" without the MULTILINE flag: the end of the input, or before a line terminator
+  // at the end of the input.
+  private static boolean isEnd(String input, int pos) {
+    int end = input.length();
+    if (pos == end) {
+      return true;
+    }
+    if (pos == end - 2) {
+      return input.charAt(pos) == '\r' && input.charAt(pos + 1) == '\n';
+    }
+    if (pos == end - 1) {
+      char c = input.charAt(pos);
+      if (c == '\n') {
+        return pos == 0 || input.charAt(pos - 1) != '\r';
+      }
+      return c == '\r' || c == '\u0085' || c == '\u2028' || c == '\u2029';
+    }
+    return false;
+  }
+
+  private static boolean isLineTerminator(int c) {
+    return c == '\n' || c == '\r' || c == '\u0085' || c == '\u2028' || c == '\u2029';
+  }
+
+  /**
+   * A set of program counters that can be cleared in constant time.
+   */
+  private static final class StateSet {
+    final int[] dense;
+    final int[] sparse;
+    int size;
+
+    StateSet(int capacity) {
+      dense = new int[capacity];
+      sparse = new int[capacity];
+    }
+
+    boolean add(int pc) {
+      int i = sparse[pc];
+      if (i < size && dense[i] == pc) {
+        return false;
+      }
+      sparse[pc] = size;
+      dense[size++] = pc;
+      return true;
+    }
+
+    void clear() {
+      size = 0;
+    }
+  }
+
+  /**
+   * A set of code points, as a list of inclusive ranges, possibly negated.
+   */
+  private static final class CharSet {
+    final int[] ranges; // start and end of each range
+    final boolean negated;
+
+    CharSet(int[] ranges, boolean negated) {
+      this.ranges = ranges;
+      this.negated = negated;
+    }
+
+    boolean contains(int c) {
+      for (int i = 0; i < ranges.length; i += 2) {
+        if (c >= ranges[i] && c <= ranges[i + 1]) {
+          return !negated;
+        }
+      }
+      return negated;
+    }
+  }
+
+  private static final class Node {
+    static final int LITERAL = 0;
+    static final int SET = 1;
+    static final int ANY = 2;
+    static final int BEGIN = 3;
+    static final int END = 4;
+    static final int CONCAT = 5;
+    static final int ALTERNATE = 6;
+    static final int REPEAT = 7;
+
+    final int type;
+    final int c; // for LITERAL
+    final CharSet set; // for SET
+    final List<Node> children; // for CONCAT and ALTERNATE, or the one repeated node for REPEAT
+    final int min; // for REPEAT
+    final int max; // for REPEAT; -1 for no limit
+
+    Node(int type) {
+      this(type, 0, null, null, 0, 0);
+    }
+
+    Node(int type, List<Node> children) {
+      this(type, 0, null, children, 0, 0);
+    }
+
+    Node(int type, int c, CharSet set, List<Node> children, int min, int max) {
+      this.type = type;
+      this.c = c;
+      this.set = set;
+      this.children = children;
+      this.min = min;
+      this.max = max;
+    }
+
+    static Node literal(int c) {
+      return new Node(LITERAL, c, null, null, 0, 0);
+    }
+
+    static Node set(CharSet set) {
+      return new Node(SET, 0, set, null, 0, 0);
+    }
+
+    static Node repeat(Node node, int min, int max) {
+      return new Node(REPEAT, 0, null, Arrays.asList(node), min, max);
+    }
+  }
+
+  /**
+   * Parses the supported subset of the syntax, returning null for anything else. Since the pattern is
+   * known to be valid, this does not need to report syntax errors.
+   */
+  private static final class Parser {
+    private static final CharSet DIGITS = new CharSet(new int[] { '0', '9' }, false);
+    private static final CharSet WORD = new CharSet(new int[] { 'a', 'z', 'A', 'Z', '_', '_', '0', '9' }, false);
+    private static final CharSet SPACE = new CharSet(new int[] { ' ', ' ', '\t', '\r' }, false);
+
+    private final String pattern;
+    private int pos;
+
+    Parser(String pattern) {
+      this.pattern = pattern;
+    }
+
+    Node parse() {
+      try {
+        Node node = parseAlternation();
+        return pos == pattern.length() ? node : null;
+      } catch (Unsupported e) {
+        return null;
+      }
+    }
+
+    private int peek() {
+      return pos < pattern.length() ? pattern.codePointAt(pos) : -1;
+    }
+
+    private int next() {
+      int c = pattern.codePointAt(pos);
+      pos += Character.charCount(c);
+      return c;
+    }
+
+    private Node parseAlternation() {
+      List<Node> alternatives = new ArrayList<>();
+      alternatives.add(parseSequence());
+      while (peek() == '|') {
+        next();
+        alternatives.add(parseSequence());
+      }
+      return alternatives.size() == 1 ? alternatives.get(0) : new Node(Node.ALTERNATE, alternatives);
+    }
+
+    private Node parseSequence() {
+      List<Node> items = new ArrayList<>();
+      while (peek() != -1 && peek() != '|' && peek() != ')') {
+        items.add(parseRepeat(parseAtom()));
+      }
+      return new Node(Node.CONCAT, items);
+    }
+
+    private Node parseRepeat(Node atom) {
+      int min, max;
+      switch (peek()) {
+      case '*':
+        next();
+        min = 0;
+        max = -1;
+        break;
+      case '+':
+        next();
+        min = 1;
+        max = -1;
+        break;
+      case '?':
+        next();
+        min = 0;
+        max = 1;
+        break;
+      case '{':
+        next();
+        min = parseNumber();
+        max = min;
+        if (peek() == ',') {
+          next();
+          max = peek() == '}' ? -1 : parseNumber();
+        }
+        if (peek() != '}') {
+          throw new Unsupported();
+        }
+        next();
+        break;
+      default:
+        return atom;
+      }
+      if (peek() == '?') {
+        next(); // lazy, which does not change whether there is a match
+      } else if (peek() == '+') {
+        throw new Unsupported(); // possessive, which does
+      }
+      switch (peek()) {
+      case '*': case '+': case '?': case '{':
+        throw new Unsupported(); // stacked quantifiers, which Pattern does not treat as nested repeats
+      default:
+        return Node.repeat(atom, min, max);
+      }
+    }
+
+    private int parseNumber() {
+      int start = pos;
+      while (peek() >= '0' && peek() <= '9') {
+        next();
+      }
+      if (pos == start || pos - start > 4) {
+        throw new Unsupported();
+      }
+      return Integer.parseInt(pattern.substring(start, pos));
+    }
+
+    private Node parseAtom() {
+      int c = next();
+      switch (c) {
+      case '(':
+        if (peek() == '?') {
+          next();
+          if (peek() != ':') {
+            throw new Unsupported(); // lookaround, flags, named groups, etc.
+          }
+          next();
+        }
+        Node group = parseAlternation();
+        if (peek() != ')') {
+          throw new Unsupported();
+        }
+        next();
+        return group;
+      case '[':
+        return Node.set(parseClass());
+      case '.':
+        return new Node(Node.ANY);
+      case '^':
+        return new Node(Node.BEGIN);
+      case '$':
+        return new Node(Node.END);
+      case '\\':
+        CharSet set = parseClassEscape();
+        return set != null ? Node.set(set) : Node.literal(parseEscape());
+      case '*': case '+': case '?': case '{':
+        throw new Unsupported();
+      default:
+        return Node.literal(c);
+      }
+    }
+
+    // Called after a backslash; returns the class for \d, \w, etc. and consumes it, or returns null
+    private CharSet parseClassEscape() {
+      switch (peek()) {
+      case 'd': next(); return DIGITS;
+      case 'D': next(); return negate(DIGITS);
+      case 'w': next(); return WORD;
+      case 'W': next(); return negate(WORD);
+      case 's': next(); return SPACE;
+      case 'S': next(); return negate(SPACE);
+      default: return null;
+      }
+    }
+
+    private static CharSet negate(CharSet set) {
+      return new CharSet(set.ranges, !set.negated);
+    }
+
+    // Called after a backslash, for an escape that stands for a single character
+    private int parseEscape() {
+      if (peek() == -1) {
+        throw new Unsupported();
+      }
+      int c = next();
+      switch (c) {
+      case 't': return '\t';
+      case 'n': return '\n';
+      case 'r': return '\r';
+      case 'f': return '\f';
+      case 'a': return '\u0007';
+      case 'e': return '\u001B';
+      case 'x': return parseHex(2);
+      case 'u':
+        int u = parseHex(4);
+        if (Character.isSurrogate((char)u)) {
+          throw new Unsupported();
+        }
+        return u;
+      default:
+        if ((c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z') || (c >= '0' && c <= '9')) {
+          throw new Unsupported(); // \b, \p{...}, \Q, backreferences, octal, etc.
+        }
+        return c; // any other escaped character stands for itself
+      }
+    }
+
+    private int parseHex(int digits) {
+      if (pos + digits > pattern.length()) {
+        throw new Unsupported();
+      }
+      String hex = pattern.substring(pos, pos + digits);
+      for (int i = 0; i < digits; i++) {
+        if (Character.digit(hex.charAt(i), 16) < 0) {
+          throw new Unsupported();
+        }
+      }
+      pos += digits;
+      return Integer.parseInt(hex, 16);
+    }
+
+    // Called after '['
+    private CharSet parseClass() {
+      boolean negated = false;
+      if (peek() == '^') {
+        next();
+        negated = true;
+      }
+      if (peek() == ']') {
+        throw new Unsupported(); // Pattern's handling of a leading ']' is best left to it
+      }
+      List<Integer> ranges = new ArrayList<>();
+      while (peek() != ']') {
+        boolean first = ranges.isEmpty();
+        int c = next();
+        if (c == '[' || (c == '&' && peek() == '&')) {
+          throw new Unsupported(); // unions and intersections
+        }
+        if (c == '-' && !first && peek() != ']') {
+          throw new Unsupported(); // a '-' that is not clearly a literal
+        }
+        if (c == '\\') {
+          CharSet set = parseClassEscape();
+          if (set != null) {
+            if (set.negated) {
+              throw new Unsupported();
+            }
+            for (int r: set.ranges) {
+              ranges.add(r);
+            }
+            continue;
+          }
+          c = parseEscape();
+        }
+        int end = c;
+        if (peek() == '-') {
+          next();
+          if (peek() == ']') {
+            ranges.add((int)'-');
+            ranges.add((int)'-');
+          } else {
+            end = next();
+            if (end == '[' || end == '&') {
+              throw new Unsupported();
+            }
+            if (end == '\\') {
+              if (parseClassEscape() != null) {
+                throw new Unsupported();
+              }
+              end = parseEscape();
+            }
+          }
+        }
+        ranges.add(c);
+        ranges.add(end);
+      }
+      next();
+      int[] array = new int[ranges.size()];
+      for (int i = 0; i < array.length; i++) {
+        array[i] = ranges.get(i);
+      }
+      return new CharSet(array, negated);
+    }
+  }
+
+  @SuppressWarnings("serial")
+  private static final class Unsupported extends RuntimeException {
+    Unsupported() {
+      super(null, null, false, false); // no stack trace needed
+    }
+  }
+
+  private static final class Emitter {
+    private int[] ops = new int[16];
+    private int[] args1 = new int[16];
+    private int[] args2 = new int[16];
+    private CharSet[] sets = new CharSet[16];
+    private int size;
+
+    boolean add(int op, int arg1, int arg2, CharSet set) {
+      if (size == MAX_PROGRAM_SIZE) {
+        return false;
+      }
+      if (size == ops.length) {
+        ops = Arrays.copyOf(ops, size * 2);
+        args1 = Arrays.copyOf(args1, size * 2);
+        args2 = Arrays.copyOf(args2, size * 2);
+        sets = Arrays.copyOf(sets, size * 2);
+      }
+      ops[size] = op;
+      args1[size] = arg1;
+      args2[size] = arg2;
+      sets[size] = set;
+      size++;
+      return true;
+    }
+
+    // Returns false if the program would be too large
+    boolean emit(Node node) {
+      switch (node.type) {
+      case Node.LITERAL:
+        return add(CHAR, node.c, 0, null);
+      case Node.SET:
+        return add(SET, 0, 0, node.set);
+      case Node.ANY:
+        return add(ANY_BUT_LINE_TERMINATOR, 0, 0, null);
+      case Node.BEGIN:
+        return add(ASSERT_BEGIN, 0, 0, null);
+      case Node.END:
+        return add(ASSERT_END, 0, 0, null);
+      case Node.CONCAT:
+        for (Node child: node.children) {
+          if (!emit(child)) {
+            return false;
+          }
+        }
+        return true;
+      case Node.ALTERNATE:
+        return emitAlternatives(node.children, 0);
+      default:
+        return emitRepeat(node.children.get(0), node.min, node.max);
+      }
+    }
+
+    private boolean emitAlternatives(List<Node> alternatives, int index) {
+      if (index == alternatives.size() - 1) {
+        return emit(alternatives.get(index));
+      }
+      int split = size;
+      if (!add(SPLIT, split + 1, 0, null) || !emit(alternatives.get(index))) {
+        return false;
+      }
+      int jump = size;
+      if (!add(JUMP, 0, 0, null)) {
+        return false;
+      }
+      args2[split] = size;
+      if (!emitAlternatives(alternatives, index + 1)) {
+        return false;
+      }
+      args1[jump] = size;
+      return true;
+    }
+
+    private boolean emitRepeat(Node node, int min, int max) {
+      for (int i = 0; i < min; i++) {
+        if (!emit(node)) {
+          return false;
+        }
+      }
+      if (max == -1) {
+        // L: SPLIT L+1, end; node; JUMP L; end:
+        int split = size;
+        if (!add(SPLIT, split + 1, 0, null) || !emit(node) || !add(JUMP, split, 0, null)) {
+          return false;
+        }
+        args2[split] = size;
+        return true;
+      }
+      // Each optional copy may be skipped, which skips the rest as well
+      List<Integer> splits = new ArrayList<>();
+      for (int i = min; i < max; i++) {
+        splits.add(size);
+        if (!add(SPLIT, size + 1, 0, null) || !emit(node)) {
+          return false;
+        }
+      }
+      for (int split: splits) {
+        args2[split] = size;
+      }
+      return true;
+    }
+
+    LinearRegex build() {
+      return new LinearRegex(Arrays.copyOf(ops, size), Arrays.copyOf(args1, size), Arrays.copyOf(args2, size),
+          Arrays.copyOf(sets, size));
+    }
+  }
+}
@@ -1,6 +1,8 @@
 package com.launchdarkly.client;
 
+import java.util.List;
 import java.util.regex.Pattern;
+import java.util.regex.PatternSyntaxException;
 
 import com.google.gson.JsonPrimitive;
 
@@ -8,6 +10,11 @@ import com.google.gson.JsonPrimitive;
  * Operator value that can be applied to {@link JsonPrimitive} objects. Incompatible types or other errors
  * will always yield false. This enum can be directly deserialized from JSON, avoiding the need for a mapping
  * of strings to operators.
+ * <p>
+ * Clause values only change when the flag changes, so {@link Clause} parses each one once with
+ * {@link #preparse(JsonPrimitive)} and then calls {@link #applyPreparsed(JsonPrimitive, Object)} for each
+ * user. {@link #apply(JsonPrimitive, JsonPrimitive)} does both steps at once. Some operators can also
+ * prepare all of a clause's values together with {@link #prepareValues(List)}.
  */
 enum Operator {
   in {
@@ -22,75 +29,84 @@ enum Operator {
       }
       return false;
     }
+
+    @Override
+    ValueMatcher prepareValues(List<JsonPrimitive> cValues) {
+      return InValueSet.of(cValues);
+    }
   },
   endsWith {
     @Override
     public boolean apply(JsonPrimitive uValue, JsonPrimitive cValue) {
       return uValue.isString() && cValue.isString() && uValue.getAsString().endsWith(cValue.getAsString());
     }
+
+    @Override
+    ValueMatcher prepareValues(List<JsonPrimitive> cValues) {
+      return SubstringMatcher.of(SubstringMatcher.Mode.SUFFIX, cValues);
+    }
   },
   startsWith {
     @Override
     public boolean apply(JsonPrimitive uValue, JsonPrimitive cValue) {
       return uValue.isString() && cValue.isString() && uValue.getAsString().startsWith(cValue.getAsString());
     }
-  },
-  matches {
-    public boolean apply(JsonPrimitive uValue, JsonPrimitive cValue) {
-      return uValue.isString() && cValue.isString() &&
-              Pattern.compile(cValue.getAsString()).matcher(uValue.getAsString()).find();
-    }
-  },
-  contains {
-    public boolean apply(JsonPrimitive uValue, JsonPrimitive cValue) {
-      return uValue.isString() && cValue.isString() && uValue.getAsString().contains(cValue.getAsString());
-    }
-  },
-  lessThan {
-    public boolean apply(JsonPrimitive uValue, JsonPrimitive cValue) {
-      return compareValues(ComparisonOp.LT, uValue, cValue, OperandType.number);
-    }
-  },
-  lessThanOrEqual {
-    public boolean apply(JsonPrimitive uValue, JsonPrimitive cValue) {
-      return compareValues(ComparisonOp.LTE, uValue, cValue, OperandType.number);
-    }
-  },
-  greaterThan {
-    public boolean apply(JsonPrimitive uValue, JsonPrimitive cValue) {
-      return compareValues(ComparisonOp.GT, uValue, cValue, OperandType.number);
+
+    @Override
+    ValueMatcher prepareValues(List<JsonPrimitive> cValues) {
+      return SubstringMatcher.of(SubstringMatcher.Mode.PREFIX, cValues);
     }
   },
-  greaterThanOrEqual {
+  matches {
     public boolean apply(JsonPrimitive uValue, JsonPrimitive cValue) {
-      return compareValues(ComparisonOp.GTE, uValue, cValue, OperandType.number);
+      return applyPreparsed(uValue, preparse(cValue));
     }
-  },
-  before {
-    public boolean apply(JsonPrimitive uValue, JsonPrimitive cValue) {
-      return compareValues(ComparisonOp.LT, uValue, cValue, OperandType.date);
+
+    @Override
+    Object preparse(JsonPrimitive cValue) {
+      if (cValue == null || !cValue.isString()) {
+        return null;
+      }
+      try {
+        return Pattern.compile(cValue.getAsString());
+      } catch (PatternSyntaxException e) {
+        // Rethrown at evaluation time, so an invalid regex behaves the same as it did before it was preparsed
+        return e;
+      }
     }
-  },
-  after {
-    public boolean apply(JsonPrimitive uValue, JsonPrimitive cValue) {
-      return compareValues(ComparisonOp.GT, uValue, cValue, OperandType.date);
+
+    @Override
+    boolean applyPreparsed(JsonPrimitive uValue, Object cValue) {
+      if (cValue instanceof PatternSyntaxException) {
+        throw (PatternSyntaxException)cValue;
+      }
+      return cValue != null && uValue.isString() && ((Pattern)cValue).matcher(uValue.getAsString()).find();
     }
-  },
-  semVerEqual {
-    public boolean apply(JsonPrimitive uValue, JsonPrimitive cValue) {
-      return compareValues(ComparisonOp.EQ, uValue, cValue, OperandType.semVer);
+
+    @Override
+    ValueMatcher prepareValues(List<JsonPrimitive> cValues) {
+      return RegexMatcher.of(cValues);
     }
   },
-  semVerLessThan {
+  contains {
     public boolean apply(JsonPrimitive uValue, JsonPrimitive cValue) {
-      return compareValues(ComparisonOp.LT, uValue, cValue, OperandType.semVer);
+      return uValue.isString() && cValue.isString() && uValue.getAsString().contains(cValue.getAsString());
     }
-  },
-  semVerGreaterThan {
-    public boolean apply(JsonPrimitive uValue, JsonPrimitive cValue) {
-      return compareValues(ComparisonOp.GT, uValue, cValue, OperandType.semVer);
+
+    @Override
+    ValueMatcher prepareValues(List<JsonPrimitive> cValues) {
+      return SubstringMatcher.of(SubstringMatcher.Mode.CONTAINS, cValues);
     }
   },
+  lessThan(ComparisonOp.LT, OperandType.number),
+  lessThanOrEqual(ComparisonOp.LTE, OperandType.number),
+  greaterThan(ComparisonOp.GT, OperandType.number),
+  greaterThanOrEqual(ComparisonOp.GTE, OperandType.number),
+  before(ComparisonOp.LT, OperandType.date),
+  after(ComparisonOp.GT, OperandType.date),
+  semVerEqual(ComparisonOp.EQ, OperandType.semVer),
+  semVerLessThan(ComparisonOp.LT, OperandType.semVer),
+  semVerGreaterThan(ComparisonOp.GT, OperandType.semVer),
   segmentMatch {
     public boolean apply(JsonPrimitive uValue, JsonPrimitive cValue) {
       // We shouldn't call apply() for this operator, because it is really implemented in
@@ -99,14 +115,91 @@ enum Operator {
     }
   };
 
-  abstract boolean apply(JsonPrimitive uValue, JsonPrimitive cValue);
-  
+  // For the comparison operators, the kind of comparison and the type that both values are converted to;
+  // null for operators that work directly on the JSON values.
+  private final ComparisonOp comparison;
+  private final OperandType operandType;
+
+  private Operator() {
+    this(null, null);
+  }
+
+  private Operator(ComparisonOp comparison, OperandType operandType) {
+    this.comparison = comparison;
+    this.operandType = operandType;
+  }
+
+  boolean apply(JsonPrimitive uValue, JsonPrimitive cValue) {
+    return applyPreparsed(uValue, preparse(cValue));
+  }
+
+  /**
+   * Converts a clause value into whatever form this operator compares against: a Double, DateTime or
+   * SemanticVersion for the comparison operators, a Pattern for {@code matches}, or the value itself.
+   * The result may be null if the value can never match.
+   */
+  Object preparse(JsonPrimitive cValue) {
+    if (operandType == null) {
+      return cValue;
+    }
+    return cValue == null ? null : operandType.getValueAsType(cValue);
+  }
+
+  /**
+   * Prepares all of a clause's values at once, for operators that can test a user value against all of
+   * them faster than by applying the operator to each one. Returns null if this operator cannot, in which
+   * case each value is prepared with {@link #preparse(JsonPrimitive)} instead.
+   */
+  ValueMatcher prepareValues(List<JsonPrimitive> cValues) {
+    return null;
+  }
+
+  /**
+   * Applies the operator to a user value and a clause value that was returned by {@link #preparse(JsonPrimitive)}.
+   */
+  boolean applyPreparsed(JsonPrimitive uValue, Object cValue) {
+    if (operandType == null) {
+      return apply(uValue, (JsonPrimitive)cValue);
+    }
+    if (cValue == null) {
+      return false;
+    }
+    return applyConverted(operandType.getValueAsType(uValue), cValue);
+  }
+
+  /**
+   * For the comparison operators, the type that both values are converted to before comparing them;
+   * null for other operators.
+   */
+  OperandType getOperandType() {
+    return operandType;
+  }
+
+  /**
+   * Applies a comparison operator to a user value that has already been converted to
+   * {@link #getOperandType()}, or null if it could not be, and a clause value that was returned by
+   * {@link #preparse(JsonPrimitive)}.
+   */
+  boolean applyConverted(Object uValueObj, Object cValue) {
+    return uValueObj != null && cValue != null && comparison.apply(uValueObj, cValue);
+  }
+
   private static boolean compareValues(ComparisonOp op, JsonPrimitive uValue, JsonPrimitive cValue, OperandType asType) {
     Object uValueObj = asType.getValueAsType(uValue);
     Object cValueObj = asType.getValueAsType(cValue);
     return uValueObj != null && cValueObj != null && op.apply(uValueObj, cValueObj);
   }
   
+  /**
+   * The values of a clause, as returned by {@link Operator#prepareValues(List)}.
+   */
+  interface ValueMatcher {
+    /**
+     * Returns true if applying the operator to the user value and any of the clause values would return true.
+     */
+    boolean matchAny(JsonPrimitive uValue);
+  }
+
   private static enum ComparisonOp {
     EQ,
     LT,
@@ -0,0 +1,150 @@
+package com.launchdarkly.client;
+
+import com.google.gson.JsonPrimitive;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.regex.Pattern;
+import java.util.regex.PatternSyntaxException;
+
+/**
+ * The values of a {@code matches} clause, compiled so that no user value can make matching take
+ * unbounded work.
+ * <p>
+ * The patterns that {@link LinearRegex} supports, which is nearly all of them in practice, are combined
+ * into one linear-time program, so the user value is scanned once for all of them. Any others are
+ * matched with {@link Pattern}, through a {@link CharSequence} that counts how often the matcher reads
+ * the input. If a backtracking match takes more than {@link #STEP_BUDGET} steps for a user value,
+ * {@link StepBudgetExceededException} is thrown and {@link Clause} treats the clause as not matching.
+ * <p>
+ * If the linear engine has been turned off with {@link LDConfig.Builder#linearRegexEngine(boolean)}, all
+ * of the patterns are matched with {@link Pattern}.
+ */
+final class RegexMatcher implements Operator.ValueMatcher {
+  /**
+   * The most steps that matching one user value against one of the patterns that {@link LinearRegex}
+   * does not support may take, where a step is one read of an input character by {@link Pattern}. This
+   * is far more than any reasonable pattern needs for a typical attribute. The linear program does not
+   * need a budget, since its cost only grows with the length of the input.
+   */
+  static final int STEP_BUDGET = 1000000;
+
+  // Set by LDClient if any client is configured not to use LinearRegex; see
+  // LDConfig.Builder#linearRegexEngine(boolean). Compiled clauses can be shared by clients, so this is
+  // checked when matching rather than when compiling.
+  private static volatile boolean linearEngineDisabled;
+
+  private final LinearRegex program; // null if no patterns are supported by LinearRegex
+  private final Pattern[] patterns; // the patterns that are not
+  private final Pattern[] allPatterns; // used instead of both if the linear engine is disabled
+
+  private RegexMatcher(LinearRegex program, Pattern[] patterns, Pattern[] allPatterns) {
+    this.program = program;
+    this.patterns = patterns;
+    this.allPatterns = allPatterns;
+  }
+
+  /**
+   * Sets whether all {@code matches} clauses use {@link Pattern} from now on, instead of
+   * {@link LinearRegex}.
+   */
+  static void setLinearEngineDisabled(boolean disabled) {
+    linearEngineDisabled = disabled;
+  }
+
+  /**
+   * Compiles the clause values, or returns null if any of them is not a valid pattern; since the
+   * {@code matches} operator throws an exception for those, they are left to be compared one at a time.
+   * Values that are not strings are ignored, since they never match.
+   */
+  static RegexMatcher of(List<JsonPrimitive> values) {
+    Map<String, Pattern> compiled = new LinkedHashMap<>();
+    for (JsonPrimitive value: values) {
+      if (value == null || !value.isString()) {
+        continue;
+      }
+      try {
+        compiled.put(value.getAsString(), Pattern.compile(value.getAsString()));
+      } catch (PatternSyntaxException e) {
+        return null;
+      }
+    }
+    List<String> unsupported = new ArrayList<>();
+    LinearRegex program = LinearRegex.compile(new ArrayList<>(compiled.keySet()), unsupported);
+    Pattern[] others = new Pattern[unsupported.size()];
+    for (int i = 0; i < others.length; i++) {
+      others[i] = compiled.get(unsupported.get(i));
+    }
+    return new RegexMatcher(program, others, compiled.values().toArray(new Pattern[compiled.size()]));
+  }
+
+  @Override
+  public boolean matchAny(JsonPrimitive uValue) {
+    if (!uValue.isString()) {
+      return false;
+    }
+    String s = uValue.getAsString();
+    if (linearEngineDisabled) {
+      return findAny(allPatterns, s);
+    }
+    return (program != null && program.find(s)) || findAny(patterns, s);
+  }
+
+  private static boolean findAny(Pattern[] patterns, String s) {
+    for (Pattern pattern: patterns) {
+      if (pattern.matcher(new CountingCharSequence(s, STEP_BUDGET)).find()) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  /**
+   * Thrown when matching a user value takes more than {@link RegexMatcher#STEP_BUDGET} steps.
+   */
+  @SuppressWarnings("serial")
+  static final class StepBudgetExceededException extends RuntimeException {
+    StepBudgetExceededException() {
+      super("regular expression step budget exceeded");
+    }
+  }
+
+  /**
+   * Wraps a string so that reading it more than a given number of times throws an exception, which is
+   * how we stop a backtracking {@link Pattern} matcher that is taking too long.
+   */
+  private static final class CountingCharSequence implements CharSequence {
+    private final String s;
+    private int remaining;
+
+    CountingCharSequence(String s, int budget) {
+      this.s = s;
+      this.remaining = budget;
+    }
+
+    @Override
+    public char charAt(int index) {
+      if (--remaining < 0) {
+        throw new StepBudgetExceededException();
+      }
+      return s.charAt(index);
+    }
+
+    @Override
+    public int length() {
+      return s.length();
+    }
+
+    @Override
+    public CharSequence subSequence(int start, int end) {
+      return s.subSequence(start, end);
+    }
+
+    @Override
+    public String toString() {
+      return s;
+    }
+  }
+}
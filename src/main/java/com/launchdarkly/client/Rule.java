@@ -25,6 +25,10 @@ class Rule extends VariationOrRollout {
   String getId() {
     return id;
   }
+
+  List<Clause> getClauses() {
+    return clauses;
+  }
   
   boolean matchesUser(FeatureStore store, LDUser user) {
     for (Clause clause : clauses) {
@@ -0,0 +1,156 @@
+package com.launchdarkly.client;
+
+import com.google.gson.JsonArray;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonPrimitive;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * An index for a run of consecutive flag rules that each have a single, non-negated {@code in} clause
+ * on the same attribute, such as one rule per tenant ID. It maps each clause value to the first rule in
+ * the run that has it, so the first matching rule is found with one hash lookup per user value instead
+ * of by checking every rule in turn. Values are compared the same way as by {@link InValueSet}.
+ * <p>
+ * Built by {@link CompiledFlag}, which still reports the matching rule's own index and ID.
+ */
+final class RuleValueIndex {
+  /**
+   * Runs shorter than this are not indexed, since checking them one by one is just as fast.
+   */
+  static final int MIN_RULES = 4;
+
+  /**
+   * Returned by {@link #firstMatch(LDUser)} if no rule in the run matches.
+   */
+  static final int NO_MATCH = -1;
+
+  /**
+   * Returned by {@link #firstMatch(LDUser)} if the user's value is not something the index can handle,
+   * so the rules have to be checked one by one.
+   */
+  static final int UNKNOWN = -2;
+
+  private final int start;
+  private final int end;
+  private final String attribute;
+  private final UserAttribute builtInAttribute;
+  private final Map<String, Integer> strings = new HashMap<>();
+  private final Map<Double, Integer> numbers = new HashMap<>();
+
+  private RuleValueIndex(List<Rule> rules, int start, int end) {
+    this.start = start;
+    this.end = end;
+    this.attribute = rules.get(start).getClauses().get(0).getAttribute();
+    this.builtInAttribute = UserAttribute.forName(attribute);
+    for (int i = start; i < end; i++) {
+      for (JsonPrimitive value: rules.get(i).getClauses().get(0).getValues()) {
+        if (value.isNumber()) {
+          Double d = InValueSet.numberKey(value);
+          if (d != null && !numbers.containsKey(d)) {
+            numbers.put(d, i);
+          }
+        } else if (!strings.containsKey(value.getAsString())) {
+          strings.put(value.getAsString(), i);
+        }
+      }
+    }
+  }
+
+  /**
+   * Builds an index for each run of at least {@link #MIN_RULES} indexable rules.
+   * @param rules the flag's rules
+   * @return an array with the index for each run at the position of its first rule, and null everywhere
+   *   else; or null if there are no such runs
+   */
+  static RuleValueIndex[] buildAll(List<Rule> rules) {
+    RuleValueIndex[] result = null;
+    int i = 0;
+    while (i < rules.size()) {
+      String attribute = indexableAttribute(rules.get(i));
+      int j = i + 1;
+      if (attribute != null) {
+        while (j < rules.size() && attribute.equals(indexableAttribute(rules.get(j)))) {
+          j++;
+        }
+        if (j - i >= MIN_RULES) {
+          if (result == null) {
+            result = new RuleValueIndex[rules.size()];
+          }
+          result[i] = new RuleValueIndex(rules, i, j);
+        }
+      }
+      i = j;
+    }
+    return result;
+  }
+
+  // Returns the attribute of the rule's clause if the rule can be part of an indexed run, or null.
+  private static String indexableAttribute(Rule rule) {
+    List<Clause> clauses = rule.getClauses();
+    if (clauses == null || clauses.size() != 1) {
+      return null;
+    }
+    Clause c = clauses.get(0);
+    if (c.getOp() != Operator.in || c.isNegate() || c.getValues() == null || c.getAttribute() == null) {
+      return null;
+    }
+    for (JsonPrimitive value: c.getValues()) {
+      if (value == null) {
+        return null;
+      }
+    }
+    return c.getAttribute();
+  }
+
+  /**
+   * Returns the index of the rule after the last one in the run.
+   */
+  int getEnd() {
+    return end;
+  }
+
+  /**
+   * Returns the index (in the flag's rule list) of the first rule in the run that matches the user,
+   * {@link #NO_MATCH}, or {@link #UNKNOWN}.
+   */
+  int firstMatch(LDUser user) {
+    JsonElement userValue = user.getValueForEvaluation(builtInAttribute, attribute);
+    if (userValue == null) {
+      return NO_MATCH;
+    }
+    if (userValue.isJsonPrimitive()) {
+      int rule = lookup(userValue.getAsJsonPrimitive());
+      return rule < 0 ? NO_MATCH : rule;
+    }
+    if (userValue.isJsonArray()) {
+      // The clause of the first rule that matches any of the values is the first one that matches
+      int first = end;
+      JsonArray array = userValue.getAsJsonArray();
+      for (JsonElement element: array) {
+        if (!element.isJsonPrimitive()) {
+          return UNKNOWN; // the clause logs an error for this
+        }
+        int rule = lookup(element.getAsJsonPrimitive());
+        if (rule >= 0 && rule < first) {
+          first = rule;
+        }
+      }
+      return first == end ? NO_MATCH : first;
+    }
+    return UNKNOWN;
+  }
+
+  private int lookup(JsonPrimitive value) {
+    Integer rule;
+    if (value.isNumber()) {
+      Double d = InValueSet.numberKey(value);
+      rule = d == null ? null : numbers.get(d);
+    } else {
+      rule = strings.get(value.getAsString());
+    }
+    return rule == null ? -1 : rule;
+  }
+}
@@ -1,25 +1,54 @@
 package com.launchdarkly.client;
 
+import java.io.IOException;
 import java.lang.reflect.Type;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.List;
 import java.util.Map;
 
+import com.google.gson.annotations.JsonAdapter;
 import com.google.gson.reflect.TypeToken;
 
-class Segment implements VersionedData {
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
+/**
+ * A user segment.
+ * <p>
+ * Besides the {@code included} and {@code excluded} lists, a segment can name a file of included and a
+ * file of excluded user keys ({@code includedKeysFile} and {@code excludedKeysFile}), for segments with
+ * too many users to hold in memory; see {@link SortedKeyFile}. The file names are part of the segment
+ * data, so this works with any data source or persistent store, as long as the files exist in the key
+ * file directory wherever the segment is evaluated. A file that cannot be opened or read is logged as an
+ * error; an included file is then treated as empty and an excluded file as excluding every user, so that
+ * the segment never matches a user it should not. The files are checked for changes at most once a
+ * second, and opened again if they have changed or could not be opened.
+ * The users in these files are not in the store's {@link SegmentIndex}.
+ */
+class Segment implements VersionedData, UserKeyIndex.Indexed {
+
+  private static final Logger logger = LoggerFactory.getLogger(Segment.class);
   private static final Type mapType = new TypeToken<Map<String, Segment>>() { }.getType();
 
+  static final long KEY_FILE_CHECK_INTERVAL_MILLIS = 1000;
+
   private String key;
-  private List<String> included;
-  private List<String> excluded;
+  @JsonAdapter(CompactStringSet.Adapter.class)
+  private CompactStringSet included;
+  @JsonAdapter(CompactStringSet.Adapter.class)
+  private CompactStringSet excluded;
+  private String includedKeysFile;
+  private String excludedKeysFile;
   private String salt;
   private List<SegmentRule> rules;
   private int version;
   private boolean deleted;
 
+  private final transient UserKeyIndex.Generations indexGenerations = new UserKeyIndex.Generations();
+  private transient volatile KeyFiles keyFiles; // see getKeyFiles()
+  private transient volatile boolean loggedKeyFileError;
+
   static Segment fromJson(LDConfig config, String json) {
     return config.gson.fromJson(json, Segment.class);
   }
@@ -33,8 +62,10 @@ class Segment implements VersionedData {
 
   private Segment(Builder builder) {
     this.key = builder.key;
-    this.included = builder.included;
-    this.excluded = builder.excluded;
+    this.included = CompactStringSet.of(builder.included);
+    this.excluded = CompactStringSet.of(builder.excluded);
+    this.includedKeysFile = builder.includedKeysFile;
+    this.excludedKeysFile = builder.excludedKeysFile;
     this.salt = builder.salt;
     this.rules = builder.rules;
     this.version = builder.version;
@@ -53,6 +84,14 @@ class Segment implements VersionedData {
     return excluded;
   }
   
+  String getIncludedKeysFile() {
+    return includedKeysFile;
+  }
+
+  String getExcludedKeysFile() {
+    return excludedKeysFile;
+  }
+
   public String getSalt() {
     return salt;
   }
@@ -69,17 +108,67 @@ class Segment implements VersionedData {
     return deleted;
   }
   
+  @Override
+  public UserKeyIndex.Generations getIndexGenerations() {
+    return indexGenerations;
+  }
+
+  boolean isIncluded(String userKey) {
+    return included != null && included.contains(userKey);
+  }
+
   public boolean matchesUser(LDUser user) {
     String key = user.getKeyAsString();
     if (key == null) {
       return false;
     }
-    if (included.contains(key)) {
+    if (included != null && included.contains(key)) {
+      return true;
+    }
+    KeyFiles files = getKeyFiles();
+    if (files.includes(key)) {
       return true;
     }
-    if (excluded.contains(key)) {
+    if (excluded != null && excluded.contains(key)) {
       return false;
     }
+    if (files.excludes(key)) {
+      return false;
+    }
+    return matchesUserRules(user, key);
+  }
+
+  /**
+   * Returns the result of {@link #matchesUser(LDUser)} given the user's membership of this segment from
+   * a {@link SegmentIndex} lookup, so that only the key files and rules are checked if the user key is in
+   * neither list.
+   */
+  boolean matchesUser(LDUser user, int membership) {
+    KeyFiles files = getKeyFiles();
+    String key = user.getKeyAsString();
+    switch (membership) {
+    case SegmentIndex.INCLUDED:
+      return true;
+    case SegmentIndex.EXCLUDED:
+      // The included keys file takes precedence over the excluded list
+      return files.includes(key);
+    case UserKeyIndex.NONE:
+      if (key == null) {
+        return false;
+      }
+      if (files.includes(key)) {
+        return true;
+      }
+      if (files.excludes(key)) {
+        return false;
+      }
+      return matchesUserRules(user, key);
+    default:
+      return matchesUser(user);
+    }
+  }
+
+  private boolean matchesUserRules(LDUser user, String key) {
     for (SegmentRule rule: rules) {
       if (rule.matchUser(user, key, salt)) {
         return true;
@@ -88,10 +177,124 @@ class Segment implements VersionedData {
     return false;
   }
   
+  // Prepares the clauses of the segment's rules for evaluation, see Clause.compile(), and opens the key
+  // files if any.
+  void compile() {
+    if (rules != null) {
+      for (SegmentRule rule: rules) {
+        rule.compile();
+      }
+    }
+    getKeyFiles();
+  }
+
+  // Opens the key files the first time they are needed, and again if they have changed. If two threads
+  // get here at once they will both get the same files, since SortedKeyFile shares them by path.
+  private KeyFiles getKeyFiles() {
+    KeyFiles files = keyFiles;
+    if (files == null || files.needsReopening()) {
+      files = new KeyFiles(openKeyFile(includedKeysFile), includedKeysFile != null,
+          openKeyFile(excludedKeysFile), excludedKeysFile != null);
+      keyFiles = files;
+    }
+    return files;
+  }
+
+  private SortedKeyFile openKeyFile(String name) {
+    if (name == null) {
+      return null;
+    }
+    try {
+      return SortedKeyFile.open(name);
+    } catch (Exception e) {
+      logKeyFileError(name, e);
+      return null;
+    }
+  }
+
+  // Logs the first error for this segment's key files as an error, and any later ones at debug level,
+  // since a missing file is retried every KEY_FILE_CHECK_INTERVAL_MILLIS.
+  private void logKeyFileError(String name, Exception e) {
+    if (!loggedKeyFileError) {
+      loggedKeyFileError = true;
+      logger.error("Could not read key file \"{}\" for segment \"{}\"; {}: {}", name, key,
+          name.equals(excludedKeysFile) ? "no users will match the segment's rules until it can be read"
+              : "it will be treated as empty",
+          e.toString());
+    } else {
+      logger.debug("Could not read key file \"{}\" for segment \"{}\": {}", name, key, e.toString());
+    }
+    logger.debug(e.toString(), e);
+  }
+
+  private final class KeyFiles {
+    private final SortedKeyFile included;
+    private final SortedKeyFile excluded;
+    private final boolean excludedUnavailable;
+    private volatile boolean failed;
+    private volatile long nextCheckTime;
+
+    KeyFiles(SortedKeyFile included, boolean hasIncluded, SortedKeyFile excluded, boolean hasExcluded) {
+      this.included = included;
+      this.excluded = excluded;
+      this.excludedUnavailable = hasExcluded && excluded == null;
+      this.failed = (hasIncluded && included == null) || excludedUnavailable;
+      this.nextCheckTime = System.currentTimeMillis() + KEY_FILE_CHECK_INTERVAL_MILLIS;
+    }
+
+    boolean includes(String userKey) {
+      if (included == null) {
+        return false;
+      }
+      try {
+        return included.contains(userKey);
+      } catch (IOException e) {
+        readFailed(includedKeysFile, e);
+        return false;
+      }
+    }
+
+    // Returns true if the user is in the excluded file, or if it could not be read.
+    boolean excludes(String userKey) {
+      if (excludedUnavailable) {
+        return true;
+      }
+      if (excluded == null) {
+        return false;
+      }
+      try {
+        return excluded.contains(userKey);
+      } catch (IOException e) {
+        readFailed(excludedKeysFile, e);
+        return true;
+      }
+    }
+
+    private void readFailed(String name, IOException e) {
+      failed = true;
+      nextCheckTime = 0;
+      logKeyFileError(name, e);
+    }
+
+    boolean needsReopening() {
+      if (included == null && excluded == null && !failed) {
+        return false;
+      }
+      long now = System.currentTimeMillis();
+      if (now < nextCheckTime) {
+        return false;
+      }
+      nextCheckTime = now + KEY_FILE_CHECK_INTERVAL_MILLIS;
+      return failed || (included != null && !included.isCurrent()) || (excluded != null && !excluded.isCurrent());
+    }
+  }
+
   public static class Builder {
     private String key;
     private List<String> included = new ArrayList<>();
     private List<String> excluded = new ArrayList<>();
+    private String includedKeysFile;
+    private String excludedKeysFile;
     private String salt = "";
     private List<SegmentRule> rules = new ArrayList<>();
     private int version = 0;
@@ -105,6 +308,8 @@ class Segment implements VersionedData {
       this.key = from.key;
       this.included = new ArrayList<>(from.included);
       this.excluded = new ArrayList<>(from.excluded);
+      this.includedKeysFile = from.includedKeysFile;
+      this.excludedKeysFile = from.excludedKeysFile;
       this.salt = from.salt;
       this.rules = new ArrayList<>(from.rules);
       this.version = from.version;
@@ -125,6 +330,16 @@ class Segment implements VersionedData {
       return this;
     }
     
+    public Builder includedKeysFile(String path) {
+      this.includedKeysFile = path;
+      return this;
+    }
+
+    public Builder excludedKeysFile(String path) {
+      this.excludedKeysFile = path;
+      return this;
+    }
+
     public Builder salt(String salt) {
       this.salt = salt;
       return this;
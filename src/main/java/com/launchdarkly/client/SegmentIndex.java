@@ -0,0 +1,50 @@
+package com.launchdarkly.client;
+
+/**
+ * An index from user key to the segments that include or exclude that key, kept by
+ * {@link InMemoryFeatureStore} so that a {@code segmentMatch} clause naming many segments can find the
+ * user's membership of all of them with one lookup, and only has to evaluate segment rules for the
+ * segments that neither include nor exclude the user.
+ */
+final class SegmentIndex extends UserKeyIndex<Segment> {
+  /**
+   * The value for a segment whose {@code included} list contains the user key.
+   */
+  static final int INCLUDED = 1;
+
+  /**
+   * The value for a segment whose {@code excluded} list, but not its {@code included} list, contains
+   * the user key.
+   */
+  static final int EXCLUDED = 0;
+
+  @Override
+  void addEntries(Segment segment) {
+    if (segment.getIncluded() != null) {
+      for (String userKey: segment.getIncluded()) {
+        addEntry(userKey, segment, INCLUDED);
+      }
+    }
+    if (segment.getExcluded() != null) {
+      for (String userKey: segment.getExcluded()) {
+        if (!segment.isIncluded(userKey)) {
+          addEntry(userKey, segment, EXCLUDED);
+        }
+      }
+    }
+  }
+
+  @Override
+  void removeEntries(Segment segment) {
+    if (segment.getIncluded() != null) {
+      for (String userKey: segment.getIncluded()) {
+        removeEntry(userKey, segment);
+      }
+    }
+    if (segment.getExcluded() != null) {
+      for (String userKey: segment.getExcluded()) {
+        removeEntry(userKey, segment);
+      }
+    }
+  }
+}
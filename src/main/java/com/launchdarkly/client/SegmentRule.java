@@ -13,6 +13,22 @@ public class SegmentRule {
     this.bucketBy = bucketBy;
   }
 
+  List<Clause> getClauses() {
+    return clauses;
+  }
+
+  String getBucketBy() {
+    return bucketBy;
+  }
+
+  void compile() {
+    if (clauses != null) {
+      for (Clause c: clauses) {
+        c.compile();
+      }
+    }
+  }
+
   public boolean matchUser(LDUser user, String segmentKey, String salt) {
     for (Clause c: clauses) {
       if (!c.matchesUserNoSegments(user)) {
@@ -1,17 +1,10 @@
 package com.launchdarkly.client;
 
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
-
 /**
  * Simple implementation of semantic version parsing and comparison according to the Semantic
  * Versions 2.0.0 standard (http://semver.org).
  */
 class SemanticVersion implements Comparable<SemanticVersion> {
-
-  private static Pattern VERSION_REGEX = Pattern.compile(
-      "^(?<major>0|[1-9]\\d*)(\\.(?<minor>0|[1-9]\\d*))?(\\.(?<patch>0|[1-9]\\d*))?" +
-      "(\\-(?<prerel>[0-9A-Za-z\\-\\.]+))?(\\+(?<build>[0-9A-Za-z\\-\\.]+))?$");
   
   @SuppressWarnings("serial")
   public static class InvalidVersionException extends Exception {
@@ -74,26 +67,75 @@ class SemanticVersion implements Comparable<SemanticVersion> {
    * @throws InvalidVersionException if the version could not be parsed
    */
   public static SemanticVersion parse(String input, boolean allowMissingMinorAndPatch) throws InvalidVersionException {
-    Matcher matcher = VERSION_REGEX.matcher(input);
-    if (!matcher.matches()) {
+    // The syntax is <major>[.<minor>[.<patch>]][-<prerelease>][+<build>], where each version number is 0 or
+    // has no leading zeroes, and the prerelease and build are nonempty strings of [0-9A-Za-z.-].
+    int[] pos = new int[1];
+    int major = parseVersionNumber(input, pos);
+    int minor = -1, patch = -1;
+    if (pos[0] < input.length() && input.charAt(pos[0]) == '.') {
+      pos[0]++;
+      minor = parseVersionNumber(input, pos);
+      if (pos[0] < input.length() && input.charAt(pos[0]) == '.') {
+        pos[0]++;
+        patch = parseVersionNumber(input, pos);
+      }
+    }
+    if (!allowMissingMinorAndPatch && (minor < 0 || patch < 0)) {
+      throw new InvalidVersionException("Invalid semantic version");
+    }
+    String prerelease = null, build = null;
+    if (pos[0] < input.length() && input.charAt(pos[0]) == '-') {
+      prerelease = parseIdentifiers(input, pos);
+    }
+    if (pos[0] < input.length() && input.charAt(pos[0]) == '+') {
+      build = parseIdentifiers(input, pos);
+    }
+    if (pos[0] != input.length()) {
       throw new InvalidVersionException("Invalid semantic version");
     }
-    int major, minor, patch;
-    try {
-      major = Integer.parseInt(matcher.group("major"));
-      if (!allowMissingMinorAndPatch) {
-        if (matcher.group("minor") == null || matcher.group("patch") == null) {
-          throw new InvalidVersionException("Invalid semantic version");
-        }
+    return new SemanticVersion(major, Math.max(minor, 0), Math.max(patch, 0), prerelease, build);
+  }
+
+  // Parses a version number starting at pos[0], and advances pos[0] past it.
+  private static int parseVersionNumber(String input, int[] pos) throws InvalidVersionException {
+    int start = pos[0];
+    long n = 0;
+    int i = start;
+    for (; i < input.length(); i++) {
+      char c = input.charAt(i);
+      if (c < '0' || c > '9') {
+        break;
       }
-      minor = matcher.group("minor") == null ? 0 : Integer.parseInt(matcher.group("minor"));
-      patch = matcher.group("patch") == null ? 0 : Integer.parseInt(matcher.group("patch"));
-    } catch (NumberFormatException e) {
+      if (i > start && n == 0) {
+        break; // a leading zero can only be the whole number
+      }
+      n = n * 10 + (c - '0');
+      if (n > Integer.MAX_VALUE) {
+        throw new InvalidVersionException("Invalid semantic version");
+      }
+    }
+    if (i == start) {
+      throw new InvalidVersionException("Invalid semantic version");
+    }
+    pos[0] = i;
+    return (int)n;
+  }
+
+  // Parses a prerelease or build string, after the '-' or '+' at pos[0], and advances pos[0] past it.
+  private static String parseIdentifiers(String input, int[] pos) throws InvalidVersionException {
+    int start = pos[0] + 1;
+    int i = start;
+    for (; i < input.length(); i++) {
+      char c = input.charAt(i);
+      if (!((c >= '0' && c <= '9') || (c >= 'A' && c <= 'Z') || (c >= 'a' && c <= 'z') || c == '-' || c == '.')) {
+        break;
+      }
+    }
+    if (i == start) {
       throw new InvalidVersionException("Invalid semantic version");
     }
-    String prerelease = matcher.group("prerel");
-    String build = matcher.group("build");
-    return new SemanticVersion(major, minor, patch, prerelease, build);
+    pos[0] = i;
+    return input.substring(start, i);
   }
   
   @Override
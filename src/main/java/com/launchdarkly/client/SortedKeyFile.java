@@ -0,0 +1,266 @@
+package com.launchdarkly.client;
+
+import com.google.common.hash.BloomFilter;
+import com.google.common.hash.Funnels;
+
+import java.io.File;
+import java.io.IOException;
+import java.lang.ref.Reference;
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.WeakReference;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * A set of user keys in a file, used for segments that include or exclude too many users to hold in
+ * memory (see {@link Segment}). The file is a list of keys in UTF-8, one per line, sorted in byte order
+ * (for instance with {@code LC_ALL=C sort}). It is memory-mapped rather than read, so the keys take no
+ * heap space, and a lookup is a binary search of the mapped bytes. A Bloom filter built when the file is
+ * opened, of about 10 bits per key, answers most lookups for keys that are not in the file without
+ * touching it.
+ * <p>
+ * Segment data names a file rather than giving its path, and names are only looked up in the directory
+ * set with {@link LDConfig.Builder#segmentKeyFilesDirectory(File)}; there are no key files until one is
+ * set. Files are opened once per path and shared, so a segment that refers to a file can be deserialized
+ * again (for instance by a persistent store's cache) without reading the file again. A file that has
+ * changed since it was opened, by size or modification time, is opened again. The mapping of a file is
+ * released by the garbage collector once no segment refers to it, since unmapping it while another
+ * thread might still be reading it is not safe.
+ */
+final class SortedKeyFile {
+  private static final Charset UTF8 = Charset.forName("UTF-8");
+  private static final double BLOOM_FILTER_FALSE_POSITIVES = 0.01;
+
+  // Set by LDClient; see LDConfig.Builder#segmentKeyFilesDirectory(File). Segments can be deserialized
+  // without a client, for instance by a persistent store, so this is not passed to them.
+  private static volatile Path directory;
+
+  private static final ConcurrentMap<String, FileRef> openFiles = new ConcurrentHashMap<>();
+  private static final ReferenceQueue<SortedKeyFile> closedFiles = new ReferenceQueue<>();
+
+  private final File file;
+  private final long length;
+  private final long lastModified;
+  private final MappedByteBuffer buffer; // only accessed with absolute gets, which are thread-safe
+  private final int limit; // end of the last key, not counting a final newline
+  private final int size;
+  private final BloomFilter<byte[]> bloomFilter;
+
+  private SortedKeyFile(File file, long length, long lastModified, MappedByteBuffer buffer) throws IOException {
+    this.file = file;
+    this.length = length;
+    this.lastModified = lastModified;
+    this.buffer = buffer;
+    int end = (int)length;
+    if (end > 0 && buffer.get(end - 1) == '\n') {
+      end--;
+    }
+    this.limit = end;
+
+    // Check the order and count the keys, then fill the Bloom filter with a second pass. Every line,
+    // including an empty one, is a key, unless the file is empty.
+    int count = 0;
+    int prevStart = -1, prevEnd = -1;
+    for (int start = 0; limit > 0 && start <= limit; ) {
+      int lineEnd = lineEnd(start);
+      if (prevStart >= 0 && compare(prevStart, prevEnd, start, lineEnd) > 0) {
+        throw new IOException("Keys are not sorted in byte order at line " + (count + 1) + " of " + file);
+      }
+      count++;
+      prevStart = start;
+      prevEnd = lineEnd;
+      start = lineEnd + 1;
+    }
+    this.size = count;
+    this.bloomFilter = BloomFilter.create(Funnels.byteArrayFunnel(), Math.max(count, 1), BLOOM_FILTER_FALSE_POSITIVES);
+    for (int start = 0; limit > 0 && start <= limit; ) {
+      int lineEnd = lineEnd(start);
+      byte[] key = new byte[lineEnd - start];
+      for (int i = 0; i < key.length; i++) {
+        key[i] = buffer.get(start + i);
+      }
+      bloomFilter.put(key);
+      start = lineEnd + 1;
+    }
+  }
+
+  /**
+   * Sets the directory that key file names are looked up in, or null if segments cannot use key files.
+   */
+  static void setDirectory(File dir) {
+    directory = dir == null ? null : dir.toPath().toAbsolutePath().normalize();
+  }
+
+  /**
+   * Returns the key file with the given name in the key file directory, opening it if it has not already
+   * been opened or has changed since then.
+   * @param name the file name, or a relative path within the directory
+   * @return the key file
+   * @throws IOException if no directory has been set, the name is not inside the directory, or the file
+   *   cannot be read, is larger than 2GB, or is not sorted
+   */
+  static SortedKeyFile open(String name) throws IOException {
+    File file = resolve(name);
+    String path = file.getPath();
+    releaseClosedFiles();
+    FileRef ref = openFiles.get(path);
+    SortedKeyFile existing = ref == null ? null : ref.get();
+    if (existing != null && existing.isCurrent()) {
+      return existing;
+    }
+    long lastModified = file.lastModified();
+    SortedKeyFile keyFile;
+    try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+      long length = channel.size();
+      if (length > Integer.MAX_VALUE) {
+        throw new IOException("Key file " + path + " is larger than 2GB");
+      }
+      keyFile = new SortedKeyFile(file, length, lastModified,
+          channel.map(FileChannel.MapMode.READ_ONLY, 0, length));
+    } catch (InternalError e) {
+      throw truncated(file, e);
+    }
+    openFiles.put(path, new FileRef(path, keyFile, closedFiles));
+    return keyFile;
+  }
+
+  private static File resolve(String name) throws IOException {
+    Path dir = directory;
+    if (dir == null) {
+      throw new IOException("No key file directory has been configured");
+    }
+    Path relative = dir.getFileSystem().getPath(name);
+    if (relative.isAbsolute() || relative.getRoot() != null) {
+      throw new IOException("Key file name \"" + name + "\" is an absolute path");
+    }
+    for (Path element: relative) {
+      if (element.toString().equals("..")) {
+        throw new IOException("Key file name \"" + name + "\" refers to a parent directory");
+      }
+    }
+    Path path = dir.resolve(relative).normalize();
+    // A symbolic link could still lead out of the directory
+    if (!path.toRealPath().startsWith(dir.toRealPath())) {
+      throw new IOException("Key file \"" + name + "\" is outside of the key file directory");
+    }
+    return path.toFile();
+  }
+
+  private static void releaseClosedFiles() {
+    Reference<? extends SortedKeyFile> ref;
+    while ((ref = closedFiles.poll()) != null) {
+      openFiles.remove(((FileRef)ref).path, ref);
+    }
+  }
+
+  // The number of files that are open and have not been released, for tests.
+  static int openFileCount() {
+    releaseClosedFiles();
+    return openFiles.size();
+  }
+
+  private static IOException truncated(File file, InternalError e) {
+    // This is how the JVM reports a read of a mapped page that no longer exists in the file
+    return new IOException("Key file " + file + " was truncated while it was mapped", e);
+  }
+
+  /**
+   * Returns true if the file has the same size and modification time as when it was opened.
+   */
+  boolean isCurrent() {
+    return file.length() == length && file.lastModified() == lastModified;
+  }
+
+  /**
+   * Returns the number of keys in the file, including any duplicates.
+   */
+  int size() {
+    return size;
+  }
+
+  /**
+   * Returns true if the key is in the file.
+   * @throws IOException if the file was truncated since it was opened
+   */
+  boolean contains(String key) throws IOException {
+    if (key == null) {
+      return false;
+    }
+    try {
+      return search(key);
+    } catch (InternalError e) {
+      throw truncated(file, e);
+    }
+  }
+
+  private boolean search(String key) {
+    byte[] bytes = key.getBytes(UTF8);
+    if (!bloomFilter.mightContain(bytes)) {
+      return false;
+    }
+    // Binary search over byte offsets: lo is always the start of a line, and the key can only be on a
+    // line that starts in [lo, hi).
+    int lo = 0, hi = size == 0 ? 0 : limit + 1;
+    while (lo < hi) {
+      int start = (lo + hi) >>> 1;
+      while (start > lo && buffer.get(start - 1) != '\n') {
+        start--;
+      }
+      int end = lineEnd(start);
+      int c = compare(bytes, start, end);
+      if (c == 0) {
+        return true;
+      } else if (c < 0) {
+        hi = start;
+      } else {
+        lo = end + 1;
+      }
+    }
+    return false;
+  }
+
+  private int lineEnd(int start) {
+    int i = start;
+    while (i < limit && buffer.get(i) != '\n') {
+      i++;
+    }
+    return i;
+  }
+
+  // Compares a key with the line [start, end) in unsigned byte order.
+  private int compare(byte[] key, int start, int end) {
+    int n = Math.min(key.length, end - start);
+    for (int i = 0; i < n; i++) {
+      int c = (key[i] & 0xff) - (buffer.get(start + i) & 0xff);
+      if (c != 0) {
+        return c;
+      }
+    }
+    return key.length - (end - start);
+  }
+
+  private int compare(int start1, int end1, int start2, int end2) {
+    int n = Math.min(end1 - start1, end2 - start2);
+    for (int i = 0; i < n; i++) {
+      int c = (buffer.get(start1 + i) & 0xff) - (buffer.get(start2 + i) & 0xff);
+      if (c != 0) {
+        return c;
+      }
+    }
+    return (end1 - start1) - (end2 - start2);
+  }
+
+  private static final class FileRef extends WeakReference<SortedKeyFile> {
+    final String path;
+
+    FileRef(String path, SortedKeyFile file, ReferenceQueue<SortedKeyFile> queue) {
+      super(file, queue);
+      this.path = path;
+    }
+  }
+}
@@ -0,0 +1,210 @@
+package com.launchdarkly.client;
+
+import com.google.gson.JsonPrimitive;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * The values of a {@code startsWith}, {@code endsWith} or {@code contains} clause, compiled so that a user
+ * value is scanned once no matter how many values the clause has.
+ * <p>
+ * The clause strings are put into a trie (of the reversed strings, for {@code endsWith}). For
+ * {@code startsWith} and {@code endsWith} the user value is matched by walking down the trie from either
+ * end. For {@code contains} the trie is turned into an Aho-Corasick automaton, whose failure links let one
+ * pass over the user value find any clause string that occurs in it. Strings are compared by
+ * {@code char}, the same as {@link String#startsWith(String)} and the like, and clause values that are
+ * not strings never match, as in {@link Operator}.
+ */
+final class SubstringMatcher implements Operator.ValueMatcher {
+  // With fewer clause values than this, it is just as fast to compare them one at a time.
+  static final int MIN_VALUES = 2;
+
+  enum Mode {
+    PREFIX,
+    SUFFIX,
+    CONTAINS
+  }
+
+  private final Mode mode;
+  private final char[][] labels; // for each node, the characters that have a transition, in ascending order
+  private final int[][] children; // for each node, the node that each of those characters leads to
+  private final boolean[] terminal; // for each node, true if reaching it means the user value matches
+  private final int[] failure; // for each node, the Aho-Corasick failure link; only used for CONTAINS
+
+  private SubstringMatcher(Mode mode, char[][] labels, int[][] children, boolean[] terminal, int[] failure) {
+    this.mode = mode;
+    this.labels = labels;
+    this.children = children;
+    this.terminal = terminal;
+    this.failure = failure;
+  }
+
+  /**
+   * Compiles the clause values, or returns null if there are fewer than {@link #MIN_VALUES} of them or
+   * any of them is null (the operators throw an exception for a null value, so those are left to be
+   * compared one at a time).
+   */
+  static SubstringMatcher of(Mode mode, List<JsonPrimitive> values) {
+    if (values.size() < MIN_VALUES) {
+      return null;
+    }
+    Builder builder = new Builder();
+    for (JsonPrimitive value: values) {
+      if (value == null) {
+        return null;
+      }
+      if (value.isString()) {
+        String s = value.getAsString();
+        builder.add(mode == Mode.SUFFIX ? new StringBuilder(s).reverse().toString() : s);
+      }
+    }
+    return builder.build(mode);
+  }
+
+  @Override
+  public boolean matchAny(JsonPrimitive uValue) {
+    if (!uValue.isString()) {
+      return false;
+    }
+    String s = uValue.getAsString();
+    switch (mode) {
+    case PREFIX:
+      return matchPrefix(s);
+    case SUFFIX:
+      return matchSuffix(s);
+    default:
+      return matchContains(s);
+    }
+  }
+
+  private boolean matchPrefix(String s) {
+    int node = 0;
+    for (int i = 0; !terminal[node]; i++) {
+      if (i == s.length() || (node = child(node, s.charAt(i))) < 0) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  private boolean matchSuffix(String s) {
+    int node = 0;
+    for (int i = s.length() - 1; !terminal[node]; i--) {
+      if (i < 0 || (node = child(node, s.charAt(i))) < 0) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  private boolean matchContains(String s) {
+    int node = 0;
+    if (terminal[node]) {
+      return true;
+    }
+    for (int i = 0; i < s.length(); i++) {
+      char c = s.charAt(i);
+      int next;
+      while ((next = child(node, c)) < 0 && node != 0) {
+        node = failure[node];
+      }
+      node = next < 0 ? 0 : next;
+      if (terminal[node]) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  private int child(int node, char c) {
+    int i = Arrays.binarySearch(labels[node], c);
+    return i < 0 ? -1 : children[node][i];
+  }
+
+  private static final class Builder {
+    private final List<TreeMap<Character, Integer>> nodes = new ArrayList<>();
+    private final List<Boolean> ends = new ArrayList<>();
+
+    Builder() {
+      newNode();
+    }
+
+    private int newNode() {
+      nodes.add(new TreeMap<Character, Integer>());
+      ends.add(false);
+      return nodes.size() - 1;
+    }
+
+    void add(String s) {
+      int node = 0;
+      for (int i = 0; i < s.length(); i++) {
+        Integer next = nodes.get(node).get(s.charAt(i));
+        if (next == null) {
+          next = newNode();
+          nodes.get(node).put(s.charAt(i), next);
+        }
+        node = next;
+      }
+      ends.set(node, true);
+    }
+
+    SubstringMatcher build(Mode mode) {
+      int n = nodes.size();
+      char[][] labels = new char[n][];
+      int[][] children = new int[n][];
+      boolean[] terminal = new boolean[n];
+      for (int i = 0; i < n; i++) {
+        TreeMap<Character, Integer> map = nodes.get(i);
+        labels[i] = new char[map.size()];
+        children[i] = new int[map.size()];
+        int j = 0;
+        for (Map.Entry<Character, Integer> e: map.entrySet()) {
+          labels[i][j] = e.getKey();
+          children[i][j] = e.getValue();
+          j++;
+        }
+        terminal[i] = ends.get(i);
+      }
+      int[] failure = null;
+      if (mode == Mode.CONTAINS) {
+        failure = new int[n];
+        // Breadth-first, so that the failure link of a node's parent is known before the node's own
+        int[] queue = new int[n];
+        int head = 0, tail = 0;
+        for (int child: children[0]) {
+          queue[tail++] = child; // failure link is the root
+        }
+        while (head < tail) {
+          int node = queue[head++];
+          for (int j = 0; j < labels[node].length; j++) {
+            char c = labels[node][j];
+            int child = children[node][j];
+            int f = failure[node];
+            int target;
+            while (true) {
+              int k = Arrays.binarySearch(labels[f], c);
+              if (k >= 0) {
+                target = children[f][k];
+                break;
+              }
+              if (f == 0) {
+                target = 0;
+                break;
+              }
+              f = failure[f];
+            }
+            failure[child] = target;
+            // A node also matches if any string ending at its failure node does
+            terminal[child] = terminal[child] || terminal[target];
+            queue[tail++] = child;
+          }
+        }
+      }
+      return new SubstringMatcher(mode, labels, children, terminal, failure);
+    }
+  }
+}
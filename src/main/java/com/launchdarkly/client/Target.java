@@ -1,20 +1,23 @@
 package com.launchdarkly.client;
 
-import java.util.List;
+import com.google.gson.annotations.JsonAdapter;
+
+import java.util.Collection;
 
 class Target {
-  private List<String> values;
+  @JsonAdapter(CompactStringSet.Adapter.class)
+  private CompactStringSet values;
   private int variation;
 
   // We need this so Gson doesn't complain in certain java environments that restrict unsafe allocation
   Target() {}
 
-  Target(List<String> values, int variation) {
-    this.values = values;
+  Target(Collection<String> values, int variation) {
+    this.values = CompactStringSet.of(values);
     this.variation = variation;
   }
 
-  List<String> getValues() {
+  CompactStringSet getValues() {
     return values;
   }
 
@@ -0,0 +1,54 @@
+package com.launchdarkly.client;
+
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * An index from user key to the flags that target that user individually, kept by
+ * {@link InMemoryFeatureStore} so that a pass over all flags for one user (see {@link FlagsStateEvaluator})
+ * can find every individual target match with one lookup, instead of checking the target lists of every
+ * flag. The value for a flag is the position of the first of its targets that contains the user key.
+ */
+final class TargetIndex extends UserKeyIndex<CompiledFlag> {
+  /**
+   * Returned by {@link UserKeyIndex.Matches#get(UserKeyIndex.Indexed)} if the flag does not target the user.
+   */
+  static final int NOT_TARGETED = NONE;
+
+  @Override
+  void addEntries(CompiledFlag flag) {
+    List<Target> targets = flag.getFlag().getTargets();
+    if (targets == null) {
+      return;
+    }
+    Set<String> seen = new HashSet<>();
+    for (int i = 0; i < targets.size(); i++) {
+      CompactStringSet values = targets.get(i).getValues();
+      if (values == null) {
+        continue;
+      }
+      for (String userKey: values) {
+        if (seen.add(userKey)) { // only the first target that contains a key can match
+          addEntry(userKey, flag, i);
+        }
+      }
+    }
+  }
+
+  @Override
+  void removeEntries(CompiledFlag flag) {
+    List<Target> targets = flag.getFlag().getTargets();
+    if (targets == null) {
+      return;
+    }
+    for (Target target: targets) {
+      if (target.getValues() == null) {
+        continue;
+      }
+      for (String userKey: target.getValues()) {
+        removeEntry(userKey, flag);
+      }
+    }
+  }
+}
@@ -2,6 +2,9 @@ package com.launchdarkly.client;
 
 import com.google.gson.JsonElement;
 
+import java.util.HashMap;
+import java.util.Map;
+
 enum UserAttribute {
   key {
     JsonElement get(LDUser user) {
@@ -54,6 +57,21 @@ enum UserAttribute {
     }
   };
 
+  // Looking up names here avoids the array copy made by values() and a string comparison per attribute
+  private static final Map<String, UserAttribute> byName = new HashMap<>();
+  static {
+    for (UserAttribute a: values()) {
+      byName.put(a.name(), a);
+    }
+  }
+
+  /**
+   * Returns the built-in attribute with the given name, or null if there is none.
+   */
+  static UserAttribute forName(String name) {
+    return name == null ? null : byName.get(name);
+  }
+
   /**
    * Gets value for Rule evaluation for a user.
    *
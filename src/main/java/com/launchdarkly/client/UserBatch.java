@@ -0,0 +1,257 @@
+package com.launchdarkly.client;
+
+import com.google.common.collect.ImmutableList;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonPrimitive;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * The attributes of many users, stored as one array per attribute rather than as {@link LDUser}
+ * objects, for evaluating a flag for all of them at once with
+ * {@link LDClient#evaluateBatch(String, UserBatch, java.util.concurrent.ForkJoinPool, boolean)}.
+ * Only the attributes that the flag refers to are converted for evaluation, one user at a time, so
+ * a batch can have many more users, and more attributes, than it would be practical to hold as users.
+ * <p>
+ * Attributes can be built-in ones, such as {@code "email"} or {@code "country"}, or custom ones. Unlike
+ * {@link LDUser.Builder#country(String)}, a {@code "country"} attribute is used as it is, so it should
+ * be the ISO 3166-1 alpha-2 code. The arrays are not copied, and must not be changed while the batch is
+ * being evaluated.
+ *
+ * @since 4.6.0
+ */
+public final class UserBatch {
+  private final String[] keys;
+  private final Map<String, Column> columns;
+
+  private UserBatch(Builder builder) {
+    this.keys = builder.keys;
+    this.columns = new LinkedHashMap<>(builder.columns);
+  }
+
+  /**
+   * The number of users in the batch.
+   * @return the number of users
+   */
+  public int size() {
+    return keys.length;
+  }
+
+  /**
+   * Returns true if the attribute name is one of the built-in user attributes, such as {@code "key"} or
+   * {@code "email"}, rather than a custom attribute.
+   *
+   * @param attribute the attribute name
+   * @return true if it is a built-in attribute
+   */
+  public static boolean isBuiltInAttribute(String attribute) {
+    return UserAttribute.forName(attribute) != null;
+  }
+
+  /**
+   * Returns the columns for the given attributes that the batch has, or all of its columns if the
+   * attributes are null. The key is not a column.
+   */
+  List<Column> columnsFor(Set<String> attributes) {
+    if (attributes == null) {
+      return ImmutableList.copyOf(columns.values());
+    }
+    List<Column> result = new ArrayList<>();
+    for (Column c: columns.values()) {
+      if (attributes.contains(c.attribute)) {
+        result.add(c);
+      }
+    }
+    return result;
+  }
+
+  /**
+   * Builds the user in the given row, with only the attributes in the given columns.
+   */
+  LDUser user(int row, List<Column> userColumns) {
+    JsonPrimitive[] builtIns = null;
+    Map<String, JsonElement> custom = null;
+    for (Column c: userColumns) {
+      JsonElement value = c.get(row);
+      if (value == null) {
+        continue;
+      }
+      if (c.builtIn != null) {
+        if (builtIns == null) {
+          builtIns = new JsonPrimitive[UserAttribute.values().length];
+        }
+        builtIns[c.builtIn.ordinal()] = (JsonPrimitive)value;
+      } else {
+        if (custom == null) {
+          custom = new HashMap<>();
+        }
+        custom.put(c.attribute, value);
+      }
+    }
+    return new LDUser(keys[row] == null ? null : new JsonPrimitive(keys[row]), builtIns, custom);
+  }
+
+  /**
+   * One attribute's values.
+   */
+  abstract static class Column {
+    final String attribute;
+    final UserAttribute builtIn;
+
+    Column(String attribute) {
+      this.attribute = attribute;
+      this.builtIn = UserAttribute.forName(attribute);
+    }
+
+    /**
+     * Returns the value in the given row, or null if the user does not have the attribute.
+     */
+    abstract JsonElement get(int row);
+  }
+
+  /**
+   * Builds a {@link UserBatch}.
+   */
+  public static final class Builder {
+    private final String[] keys;
+    private final Map<String, Column> columns = new LinkedHashMap<>();
+
+    /**
+     * Creates a builder for a batch of users with the given keys.
+     *
+     * @param keys the user keys, one for each user in the batch
+     */
+    public Builder(String[] keys) {
+      this.keys = keys;
+    }
+
+    /**
+     * Adds a string attribute.
+     *
+     * @param attribute the attribute name
+     * @param values the value for each user, in the same order as the keys; null if a user does not have
+     *   the attribute
+     * @return the builder
+     * @throws IllegalArgumentException if there is not one value per user, or the attribute is the key or
+     *   {@code "anonymous"}
+     */
+    public Builder strings(String attribute, final String[] values) {
+      checkColumn(attribute, values.length, false);
+      columns.put(attribute, new Column(attribute) {
+        JsonPrimitive get(int row) {
+          return values[row] == null ? null : new JsonPrimitive(values[row]);
+        }
+      });
+      return this;
+    }
+
+    /**
+     * Adds a numeric custom attribute. A whole number that fits in an {@code int} is given to flag rules as
+     * an integer, the same as {@link LDUser.Builder#custom(String, Number)} with an {@link Integer}, so that
+     * it can be used to bucket users in a percentage rollout.
+     *
+     * @param attribute the attribute name
+     * @param values the value for each user, in the same order as the keys; {@code NaN} if a user does
+     *   not have the attribute
+     * @return the builder
+     * @throws IllegalArgumentException if there is not one value per user, or the attribute is a built-in
+     *   one
+     */
+    public Builder numbers(String attribute, final double[] values) {
+      checkColumn(attribute, values.length, true);
+      if (UserAttribute.forName(attribute) != null) {
+        throw new IllegalArgumentException("\"" + attribute + "\" is not a numeric attribute");
+      }
+      columns.put(attribute, new Column(attribute) {
+        JsonPrimitive get(int row) {
+          double value = values[row];
+          if (Double.isNaN(value)) {
+            return null;
+          }
+          return value == (int)value ? new JsonPrimitive((int)value) : new JsonPrimitive(value);
+        }
+      });
+      return this;
+    }
+
+    /**
+     * Adds a boolean attribute, which can be {@code "anonymous"} or a custom attribute.
+     *
+     * @param attribute the attribute name
+     * @param values the value for each user, in the same order as the keys
+     * @return the builder
+     * @throws IllegalArgumentException if there is not one value per user, or the attribute is a built-in
+     *   one other than {@code "anonymous"}
+     */
+    public Builder booleans(String attribute, final boolean[] values) {
+      checkColumn(attribute, values.length, true);
+      columns.put(attribute, new Column(attribute) {
+        JsonPrimitive get(int row) {
+          return Util.jsonBoolean(values[row]);
+        }
+      });
+      return this;
+    }
+
+    /**
+     * Adds an attribute whose values can be of any JSON type, such as one read from JSON data. The
+     * values of a custom attribute can also be arrays.
+     *
+     * @param attribute the attribute name
+     * @param values the value for each user, in the same order as the keys; null if a user does not have
+     *   the attribute
+     * @return the builder
+     * @throws IllegalArgumentException if there is not one value per user, the attribute is the key, or
+     *   the attribute is a built-in one and one of the values is not a string, number or boolean
+     */
+    public Builder values(String attribute, final JsonElement[] values) {
+      if (values.length != keys.length) {
+        throw new IllegalArgumentException("Expected " + keys.length + " values for \"" + attribute + "\" but got " + values.length);
+      }
+      UserAttribute builtIn = UserAttribute.forName(attribute);
+      if (builtIn == UserAttribute.key) {
+        throw new IllegalArgumentException("The user keys are not an attribute column");
+      }
+      if (builtIn != null) {
+        for (JsonElement value: values) {
+          if (value != null && !value.isJsonNull() && !value.isJsonPrimitive()) {
+            throw new IllegalArgumentException("\"" + attribute + "\" must be a string, number or boolean");
+          }
+        }
+      }
+      columns.put(attribute, new Column(attribute) {
+        JsonElement get(int row) {
+          return values[row] == null || values[row].isJsonNull() ? null : values[row];
+        }
+      });
+      return this;
+    }
+
+    private void checkColumn(String attribute, int length, boolean nonString) {
+      if (length != keys.length) {
+        throw new IllegalArgumentException("Expected " + keys.length + " values for \"" + attribute + "\" but got " + length);
+      }
+      UserAttribute builtIn = UserAttribute.forName(attribute);
+      if (builtIn == UserAttribute.key) {
+        throw new IllegalArgumentException("The user keys are not an attribute column");
+      }
+      if (builtIn != null && nonString != (builtIn == UserAttribute.anonymous)) {
+        throw new IllegalArgumentException("\"" + attribute + "\" is a "
+            + (builtIn == UserAttribute.anonymous ? "boolean" : "string") + " attribute");
+      }
+    }
+
+    /**
+     * Builds the batch.
+     * @return the batch
+     */
+    public UserBatch build() {
+      return new UserBatch(this);
+    }
+  }
+}
@@ -0,0 +1,209 @@
+package com.launchdarkly.client;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * An index kept by {@link InMemoryFeatureStore} from user key to the items (flags or segments) whose
+ * user key lists contain that key, with an int value for each: see {@link TargetIndex} and
+ * {@link SegmentIndex}. One lookup then tells an evaluation about every item that names the user.
+ * <p>
+ * Updates are only made with the store's write lock held, but lookups do not take the lock. Entries
+ * are keyed by item object, and an item's entries only depend on its own data, so an entry that is
+ * found is always right for that item. To also be able to trust the absence of an entry, every update
+ * has a generation number, and each item records the generations during which it was in the index
+ * (see {@link Generations}). A {@link Matches} taken at generation {@code g} then proves that an item
+ * does not name the user only if that item was in the index at {@code g}; otherwise the caller has to
+ * check the item's lists as usual. The generation is odd while an update is in progress, and a lookup
+ * that overlaps an update gets no generation, so only its entries can be used.
+ */
+abstract class UserKeyIndex<T extends UserKeyIndex.Indexed> {
+  /**
+   * Returned by {@link Matches#get(Indexed)} if the item does not contain the user key.
+   */
+  static final int NONE = -1;
+
+  /**
+   * Returned by {@link Matches#get(Indexed)} if the index cannot tell, because the item was not in the
+   * index when the lookup was done.
+   */
+  static final int UNKNOWN = -2;
+
+  private static final Entry[] NO_ENTRIES = new Entry[0];
+  private static final long NO_GENERATION = -1;
+
+  // The arrays are never modified once they are in the map, so a lookup can return one as it is.
+  private final ConcurrentMap<String, Entry[]> entriesByUserKey = new ConcurrentHashMap<>();
+  private final Map<String, T> itemsByKey = new HashMap<>(); // only used by updates
+  private volatile long generation;
+
+  /**
+   * An item that can be in an index.
+   */
+  interface Indexed {
+    Generations getIndexGenerations();
+  }
+
+  /**
+   * Replaces the indexed user keys for an item key with those of the item that is now stored for that
+   * key, or removes them if the item is null. Must be called with the store's write lock held.
+   */
+  void update(String itemKey, T item) {
+    T old = item == null ? itemsByKey.remove(itemKey) : itemsByKey.put(itemKey, item);
+    if (old == item) {
+      return;
+    }
+    long g = generation + 1;
+    generation = g; // odd: update in progress
+    if (old != null) {
+      removeEntries(old);
+    }
+    if (item != null) {
+      addEntries(item);
+    }
+    g++;
+    if (old != null) {
+      old.getIndexGenerations().removed(this, g);
+    }
+    if (item != null) {
+      item.getIndexGenerations().added(this, g);
+    }
+    generation = g;
+  }
+
+  /**
+   * Returns the items that contain the given user key. This does not need the store's lock.
+   */
+  Matches<T> lookup(String userKey) {
+    long g = generation;
+    Entry[] entries = entriesByUserKey.get(userKey);
+    if (entries == null) {
+      entries = NO_ENTRIES;
+    }
+    if ((g & 1) != 0 || generation != g) {
+      g = NO_GENERATION;
+    }
+    return new Matches<>(this, entries, g);
+  }
+
+  /**
+   * Adds the entries for an item, by calling {@link #addEntry(String, Indexed, int)} for each user key
+   * in it.
+   */
+  abstract void addEntries(T item);
+
+  /**
+   * Removes the entries for an item, by calling {@link #removeEntry(String, Indexed)} for each user key
+   * in it.
+   */
+  abstract void removeEntries(T item);
+
+  final void addEntry(String userKey, T item, int value) {
+    Entry[] entries = entriesByUserKey.get(userKey);
+    if (entries == null) {
+      entriesByUserKey.put(userKey, new Entry[] { new Entry(item, value) });
+    } else {
+      Entry[] newEntries = new Entry[entries.length + 1];
+      System.arraycopy(entries, 0, newEntries, 0, entries.length);
+      newEntries[entries.length] = new Entry(item, value);
+      entriesByUserKey.put(userKey, newEntries);
+    }
+  }
+
+  final void removeEntry(String userKey, T item) {
+    Entry[] entries = entriesByUserKey.get(userKey);
+    if (entries == null) {
+      return;
+    }
+    int count = 0;
+    for (Entry e: entries) {
+      if (e.item != item) {
+        count++;
+      }
+    }
+    if (count == entries.length) {
+      return;
+    }
+    if (count == 0) {
+      entriesByUserKey.remove(userKey);
+      return;
+    }
+    Entry[] newEntries = new Entry[count];
+    int j = 0;
+    for (Entry e: entries) {
+      if (e.item != item) {
+        newEntries[j++] = e;
+      }
+    }
+    entriesByUserKey.put(userKey, newEntries);
+  }
+
+  private static final class Entry {
+    final Object item;
+    final int value;
+
+    Entry(Object item, int value) {
+      this.item = item;
+      this.value = value;
+    }
+  }
+
+  /**
+   * The generations of one index during which an item was in it. An item that is added again after
+   * being removed, or is added to a second index, is given an empty range, so the absence of its
+   * entries is never trusted.
+   */
+  static final class Generations {
+    private volatile UserKeyIndex<?> index;
+    private volatile long from = Long.MAX_VALUE;
+    private volatile long until = Long.MAX_VALUE;
+
+    void added(UserKeyIndex<?> index, long generation) {
+      if (this.index == null) {
+        this.from = generation;
+        this.index = index;
+      } else {
+        until = from;
+      }
+    }
+
+    void removed(UserKeyIndex<?> index, long generation) {
+      if (this.index == index && until == Long.MAX_VALUE) {
+        until = generation;
+      }
+    }
+
+    boolean contains(UserKeyIndex<?> index, long generation) {
+      return this.index == index && from <= generation && generation < until;
+    }
+  }
+
+  /**
+   * The entries for one user key at one point in time.
+   */
+  static final class Matches<T extends Indexed> {
+    private final UserKeyIndex<T> index;
+    private final Entry[] entries;
+    private final long generation;
+
+    Matches(UserKeyIndex<T> index, Entry[] entries, long generation) {
+      this.index = index;
+      this.entries = entries;
+      this.generation = generation;
+    }
+
+    /**
+     * Returns the value of the item's entry for the user key, {@link #NONE}, or {@link #UNKNOWN}.
+     */
+    int get(T item) {
+      for (Entry e: entries) {
+        if (e.item == item) {
+          return e.value;
+        }
+      }
+      return item.getIndexGenerations().contains(index, generation) ? NONE : UNKNOWN;
+    }
+  }
+}
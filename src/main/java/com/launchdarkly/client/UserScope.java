@@ -0,0 +1,271 @@
+package com.launchdarkly.client;
+
+import com.google.gson.JsonElement;
+
+import java.io.Closeable;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Evaluates feature flags for one user over a short period, such as one request to an application
+ * server, so that code in different layers that asks for the same flag does not evaluate it again.
+ * Returned by {@link LDClient#openScope(LDUser)}.
+ * <p>
+ * Each flag is evaluated the first time it is asked for, and later calls return the same result from
+ * the same version of the flag, even if the flag is changed in the meantime. If the scope was opened
+ * with a {@link FeatureStoreSnapshot}, as it is by default with the in-memory feature store, all flags
+ * are evaluated against that snapshot, so they are also consistent with each other.
+ * <p>
+ * Repeated calls still count as evaluations in the analytics summary, and a full event is still sent
+ * for each call if the flag is tracked or being debugged; but for other flags, the repeated calls are
+ * counted in the scope, and sent as one summary-only event per flag variation when the scope is closed,
+ * instead of one event per call.
+ * A scope should therefore always be closed. Calls made after it is closed send their events as usual.
+ * <p>
+ * A scope can be used from more than one thread.
+ *
+ * @since 4.6.0
+ */
+public final class UserScope implements Closeable {
+  private final LDClient client;
+  private final EventProcessor eventProcessor;
+  private final LDUser user;
+  private final FeatureStoreSnapshot snapshot;
+  private final ConcurrentMap<String, Result> results = new ConcurrentHashMap<>();
+  private final Map<EventSummarizer.CounterKey, Pending> pending = new HashMap<>(); // guarded by this
+  private boolean closed; // guarded by this
+
+  UserScope(LDClient client, EventProcessor eventProcessor, LDUser user, FeatureStoreSnapshot snapshot) {
+    this.client = client;
+    this.eventProcessor = eventProcessor;
+    this.user = user;
+    this.snapshot = snapshot;
+  }
+
+  /**
+   * The user that flags are evaluated for.
+   * @return the user
+   */
+  public LDUser getUser() {
+    return user;
+  }
+
+  /**
+   * The snapshot that flags are evaluated against.
+   * @return the snapshot, or null if flags are evaluated against the current data in the feature store
+   */
+  public FeatureStoreSnapshot getSnapshot() {
+    return snapshot;
+  }
+
+  /**
+   * Same as {@link LDClientInterface#boolVariation(String, LDUser, boolean)} for this scope's user.
+   *
+   * @param featureKey   the unique key for the feature flag
+   * @param defaultValue the default value of the flag
+   * @return the variation for the user, or {@code defaultValue} if the flag is disabled in the LaunchDarkly control panel
+   */
+  public boolean boolVariation(String featureKey, boolean defaultValue) {
+    return client.evaluate(featureKey, null, this, user, defaultValue, VariationType.Boolean.toJson(defaultValue),
+        VariationType.Boolean);
+  }
+
+  /**
+   * Same as {@link LDClientInterface#intVariation(String, LDUser, int)} for this scope's user.
+   *
+   * @param featureKey   the unique key for the feature flag
+   * @param defaultValue the default value of the flag
+   * @return the variation for the user, or {@code defaultValue} if the flag is disabled in the LaunchDarkly control panel
+   */
+  public Integer intVariation(String featureKey, int defaultValue) {
+    return client.evaluate(featureKey, null, this, user, defaultValue, VariationType.Integer.toJson(defaultValue),
+        VariationType.Integer);
+  }
+
+  /**
+   * Same as {@link LDClientInterface#doubleVariation(String, LDUser, Double)} for this scope's user.
+   *
+   * @param featureKey   the unique key for the feature flag
+   * @param defaultValue the default value of the flag
+   * @return the variation for the user, or {@code defaultValue} if the flag is disabled in the LaunchDarkly control panel
+   */
+  public Double doubleVariation(String featureKey, Double defaultValue) {
+    return client.evaluate(featureKey, null, this, user, defaultValue, VariationType.Double.toJson(defaultValue),
+        VariationType.Double);
+  }
+
+  /**
+   * Same as {@link LDClientInterface#stringVariation(String, LDUser, String)} for this scope's user.
+   *
+   * @param featureKey   the unique key for the feature flag
+   * @param defaultValue the default value of the flag
+   * @return the variation for the user, or {@code defaultValue} if the flag is disabled in the LaunchDarkly control panel
+   */
+  public String stringVariation(String featureKey, String defaultValue) {
+    return client.evaluate(featureKey, null, this, user, defaultValue, VariationType.String.toJson(defaultValue),
+        VariationType.String);
+  }
+
+  /**
+   * Same as {@link LDClientInterface#jsonVariation(String, LDUser, JsonElement)} for this scope's user.
+   *
+   * @param featureKey   the unique key for the feature flag
+   * @param defaultValue the default value of the flag
+   * @return the variation for the user, or {@code defaultValue} if the flag is disabled in the LaunchDarkly control panel
+   */
+  public JsonElement jsonVariation(String featureKey, JsonElement defaultValue) {
+    return client.evaluate(featureKey, null, this, user, defaultValue, defaultValue, VariationType.Json);
+  }
+
+  /**
+   * Same as {@link LDClientInterface#boolVariationDetail(String, LDUser, boolean)} for this scope's user.
+   *
+   * @param featureKey   the unique key for the feature flag
+   * @param defaultValue the default value of the flag
+   * @return an {@link EvaluationDetail} object
+   */
+  public EvaluationDetail<Boolean> boolVariationDetail(String featureKey, boolean defaultValue) {
+    return client.evaluateDetail(featureKey, null, this, user, defaultValue,
+        VariationType.Boolean.toJson(defaultValue), VariationType.Boolean, EventFactory.DEFAULT_WITH_REASONS);
+  }
+
+  /**
+   * Same as {@link LDClientInterface#intVariationDetail(String, LDUser, int)} for this scope's user.
+   *
+   * @param featureKey   the unique key for the feature flag
+   * @param defaultValue the default value of the flag
+   * @return an {@link EvaluationDetail} object
+   */
+  public EvaluationDetail<Integer> intVariationDetail(String featureKey, int defaultValue) {
+    return client.evaluateDetail(featureKey, null, this, user, defaultValue,
+        VariationType.Integer.toJson(defaultValue), VariationType.Integer, EventFactory.DEFAULT_WITH_REASONS);
+  }
+
+  /**
+   * Same as {@link LDClientInterface#doubleVariationDetail(String, LDUser, double)} for this scope's user.
+   *
+   * @param featureKey   the unique key for the feature flag
+   * @param defaultValue the default value of the flag
+   * @return an {@link EvaluationDetail} object
+   */
+  public EvaluationDetail<Double> doubleVariationDetail(String featureKey, double defaultValue) {
+    return client.evaluateDetail(featureKey, null, this, user, defaultValue,
+        VariationType.Double.toJson(defaultValue), VariationType.Double, EventFactory.DEFAULT_WITH_REASONS);
+  }
+
+  /**
+   * Same as {@link LDClientInterface#stringVariationDetail(String, LDUser, String)} for this scope's user.
+   *
+   * @param featureKey   the unique key for the feature flag
+   * @param defaultValue the default value of the flag
+   * @return an {@link EvaluationDetail} object
+   */
+  public EvaluationDetail<String> stringVariationDetail(String featureKey, String defaultValue) {
+    return client.evaluateDetail(featureKey, null, this, user, defaultValue,
+        VariationType.String.toJson(defaultValue), VariationType.String, EventFactory.DEFAULT_WITH_REASONS);
+  }
+
+  /**
+   * Same as {@link LDClientInterface#jsonVariationDetail(String, LDUser, JsonElement)} for this scope's user.
+   *
+   * @param featureKey   the unique key for the feature flag
+   * @param defaultValue the default value of the flag
+   * @return an {@link EvaluationDetail} object
+   */
+  public EvaluationDetail<JsonElement> jsonVariationDetail(String featureKey, JsonElement defaultValue) {
+    return client.evaluateDetail(featureKey, null, this, user, defaultValue, defaultValue, VariationType.Json,
+        EventFactory.DEFAULT_WITH_REASONS);
+  }
+
+  /**
+   * Sends the summary events for the repeated evaluations of flags in this scope.
+   */
+  @Override
+  public void close() {
+    List<Event.FeatureRequest> events = new ArrayList<>();
+    synchronized (this) {
+      if (closed) {
+        return;
+      }
+      closed = true;
+      for (Pending p: pending.values()) {
+        if (p.count > 0) {
+          events.add(new Event.FeatureRequest(p.latest, p.count));
+        }
+      }
+      pending.clear();
+    }
+    for (Event.FeatureRequest e: events) {
+      eventProcessor.sendEvent(e);
+    }
+  }
+
+  /**
+   * Returns the remembered result for a flag, or null if it has not been evaluated in this scope.
+   */
+  Result getResult(String featureKey) {
+    return results.get(featureKey);
+  }
+
+  /**
+   * Remembers the result for a flag, unless another thread has already done so.
+   */
+  void putResult(String featureKey, Result result) {
+    results.putIfAbsent(featureKey, result);
+  }
+
+  /**
+   * Sends a feature event for an evaluation in this scope, or counts it to be sent when the scope is
+   * closed if it only needs to be counted in the summary and an event for the same flag variation has
+   * already been sent.
+   */
+  void sendEvent(Event.FeatureRequest event) {
+    if (!event.trackEvents && event.debugEventsUntilDate == null) {
+      EventSummarizer.CounterKey key = new EventSummarizer.CounterKey(event.key, event.variation, event.version);
+      synchronized (this) {
+        if (!closed) {
+          Pending p = pending.get(key);
+          if (p != null) {
+            p.count++;
+            p.latest = event;
+            return;
+          }
+          pending.put(key, new Pending(event));
+        }
+      }
+    }
+    eventProcessor.sendEvent(event);
+  }
+
+  /**
+   * The first result of evaluating a flag in a scope: the flag that was evaluated, the result before
+   * the default value is filled in, and the prerequisite results, whose events are sent again for each
+   * later call.
+   */
+  static final class Result {
+    final FeatureFlag flag;
+    final EvaluationDetail<JsonElement> details;
+    final List<EvaluationCache.PrerequisiteResult> prerequisites;
+
+    Result(FeatureFlag flag, EvaluationDetail<JsonElement> details,
+        List<EvaluationCache.PrerequisiteResult> prerequisites) {
+      this.flag = flag;
+      this.details = details;
+      this.prerequisites = prerequisites;
+    }
+  }
+
+  // The evaluations of one flag variation that have been counted but not sent
+  private static final class Pending {
+    Event.FeatureRequest latest;
+    int count;
+
+    Pending(Event.FeatureRequest first) {
+      this.latest = first;
+    }
+  }
+}
@@ -7,6 +7,16 @@ import org.joda.time.DateTimeZone;
 import okhttp3.Request;
 
 class Util {
+  private static final JsonPrimitive JSON_TRUE = new JsonPrimitive(true);
+  private static final JsonPrimitive JSON_FALSE = new JsonPrimitive(false);
+
+  /**
+   * Returns a shared {@link JsonPrimitive} for a boolean, rather than allocating one for each value.
+   */
+  static JsonPrimitive jsonBoolean(boolean value) {
+    return value ? JSON_TRUE : JSON_FALSE;
+  }
+
   /**
    * Converts either a unix epoch millis number or RFC3339/ISO8601 timestamp as {@link JsonPrimitive} to a {@link DateTime} object.
    * @param maybeDate wraps either a nubmer or a string that may contain a valid timestamp.
@@ -2,8 +2,11 @@ package com.launchdarkly.client;
 
 
 import com.google.gson.JsonElement;
-import org.apache.commons.codec.digest.DigestUtils;
 
+import java.security.DigestException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
 import java.util.List;
 
 /**
@@ -24,6 +27,14 @@ class VariationOrRollout {
     this.rollout = rollout;
   }
 
+  Integer getVariation() {
+    return variation;
+  }
+
+  Rollout getRollout() {
+    return rollout;
+  }
+
   // Attempt to determine the variation index for a given user. Returns null if no index can be computed
   // due to internal inconsistency of the data (i.e. a malformed flag). 
   Integer variationIndexForUser(LDUser user, String key, String salt) {
@@ -45,33 +56,148 @@ class VariationOrRollout {
 
   static float bucketUser(LDUser user, String key, String attr, String salt) {
     JsonElement userValue = user.getValueForEvaluation(attr);
-    String idHash = getBucketableStringValue(userValue);
-    if (idHash != null) {
-      if (user.getSecondary() != null) {
-        idHash = idHash + "." + user.getSecondary().getAsString();
-      }
-      String hash = DigestUtils.sha1Hex(key + "." + salt + "." + idHash).substring(0, 15);
-      long longVal = Long.parseLong(hash, 16);
-      return (float) longVal / long_scale;
+    if (!isBucketable(userValue)) {
+      return 0F;
     }
-    return 0F;
+    // This is equivalent to taking the first 15 hex digits of sha1Hex(key + "." + salt + "." + idHash),
+    // where idHash is the attribute value followed by "." and the secondary key if there is one, but
+    // without building any intermediate strings.
+    BucketHasher hasher = hashers.get();
+    hasher.reset();
+    hasher.append(key).append('.').append(salt).append('.');
+    if (userValue.getAsJsonPrimitive().isString()) {
+      hasher.append(userValue.getAsString());
+    } else {
+      hasher.append(userValue.getAsJsonPrimitive().getAsNumber().intValue());
+    }
+    if (user.getSecondary() != null) {
+      hasher.append('.').append(user.getSecondary().getAsString());
+    }
+    long longVal = hasher.first60Bits();
+    return (float) longVal / long_scale;
   }
 
-  private static String getBucketableStringValue(JsonElement userValue) {
+  private static final ThreadLocal<BucketHasher> hashers = new ThreadLocal<BucketHasher>() {
+    @Override
+    protected BucketHasher initialValue() {
+      return new BucketHasher();
+    }
+  };
+
+  private static boolean isBucketable(JsonElement userValue) {
     if (userValue != null && userValue.isJsonPrimitive()) {
       if (userValue.getAsJsonPrimitive().isString()) {
-        return userValue.getAsString();
+        return true;
       }
       if (userValue.getAsJsonPrimitive().isNumber()) {
-        Number n = userValue.getAsJsonPrimitive().getAsNumber();
-        if (n instanceof Integer) {
-          return userValue.getAsString();
+        return userValue.getAsJsonPrimitive().getAsNumber() instanceof Integer;
+      }
+    }
+    return false;
+  }
+
+  /**
+   * Per-thread SHA-1 state for {@link VariationOrRollout#bucketUser(LDUser, String, String, String)}. The
+   * input is encoded as UTF-8 into a reusable buffer, the same way String.getBytes would encode it, and
+   * hashed into a reusable output buffer, so bucketing a user normally allocates nothing.
+   */
+  private static final class BucketHasher {
+    private final MessageDigest digest;
+    private final byte[] output = new byte[20];
+    private byte[] input = new byte[256];
+    private int length;
+
+    BucketHasher() {
+      try {
+        digest = MessageDigest.getInstance("SHA-1");
+      } catch (NoSuchAlgorithmException e) {
+        throw new IllegalStateException(e); // every Java platform is required to support SHA-1
+      }
+    }
+
+    void reset() {
+      length = 0;
+    }
+
+    private void ensureCapacity(int moreBytes) {
+      if (length + moreBytes > input.length) {
+        input = Arrays.copyOf(input, Math.max(input.length * 2, length + moreBytes));
+      }
+    }
+
+    BucketHasher append(char c) {
+      ensureCapacity(1);
+      input[length++] = (byte)c; // only used for ASCII
+      return this;
+    }
+
+    BucketHasher append(int n) {
+      ensureCapacity(11);
+      if (n < 0) {
+        input[length++] = '-';
+      } else {
+        n = -n; // work with negative numbers so that Integer.MIN_VALUE doesn't overflow
+      }
+      int start = length;
+      do {
+        input[length++] = (byte)('0' - (n % 10));
+        n /= 10;
+      } while (n != 0);
+      for (int i = start, j = length - 1; i < j; i++, j--) {
+        byte b = input[i];
+        input[i] = input[j];
+        input[j] = b;
+      }
+      return this;
+    }
+
+    BucketHasher append(String s) {
+      if (s == null) {
+        s = "null"; // for consistency with string concatenation
+      }
+      ensureCapacity(s.length() * 3); // a UTF-16 char never takes more than 3 bytes in UTF-8
+      for (int i = 0, n = s.length(); i < n; i++) {
+        char c = s.charAt(i);
+        if (c < 0x80) {
+          input[length++] = (byte)c;
+        } else if (c < 0x800) {
+          input[length++] = (byte)(0xC0 | (c >> 6));
+          input[length++] = (byte)(0x80 | (c & 0x3F));
+        } else if (Character.isSurrogate(c)) {
+          if (Character.isHighSurrogate(c) && i + 1 < n && Character.isLowSurrogate(s.charAt(i + 1))) {
+            int cp = Character.toCodePoint(c, s.charAt(++i));
+            input[length++] = (byte)(0xF0 | (cp >> 18));
+            input[length++] = (byte)(0x80 | ((cp >> 12) & 0x3F));
+            input[length++] = (byte)(0x80 | ((cp >> 6) & 0x3F));
+            input[length++] = (byte)(0x80 | (cp & 0x3F));
+          } else {
+            input[length++] = '?'; // an unpaired surrogate is encoded as '?' by String.getBytes
+          }
+        } else {
+          input[length++] = (byte)(0xE0 | (c >> 12));
+          input[length++] = (byte)(0x80 | ((c >> 6) & 0x3F));
+          input[length++] = (byte)(0x80 | (c & 0x3F));
         }
       }
+      return this;
+    }
+
+    // Hashes the input and returns the first 60 bits of the hash (15 hex digits) as a long
+    long first60Bits() {
+      digest.update(input, 0, length);
+      try {
+        digest.digest(output, 0, output.length);
+      } catch (DigestException e) {
+        throw new IllegalStateException(e); // can't happen, the output buffer is big enough
+      }
+      long value = 0;
+      for (int i = 0; i < 7; i++) {
+        value = (value << 8) | (output[i] & 0xFF);
+      }
+      return (value << 4) | ((output[7] & 0xFF) >>> 4);
     }
-    return null;
   }
-  
+
   static class Rollout {
     private List<WeightedVariation> variations;
     private String bucketBy;
@@ -83,6 +209,10 @@ class VariationOrRollout {
       this.variations = variations;
       this.bucketBy = bucketBy;
     }
+
+    String getBucketBy() {
+      return bucketBy;
+    }
   }
 
   static class WeightedVariation {
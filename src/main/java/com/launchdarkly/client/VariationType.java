@@ -2,50 +2,116 @@ package com.launchdarkly.client;
 
 
 import com.google.gson.JsonElement;
+import com.google.gson.JsonPrimitive;
 
 abstract class VariationType<T> {
   abstract T coerceValue(JsonElement result) throws EvaluationException;
+
+  /**
+   * Same as {@code coerceValue(details.getValue())}, but uses the value that was converted in advance if
+   * the result is a {@link CoercedDetail}.
+   */
+  T coerceDetail(EvaluationDetail<JsonElement> details) throws EvaluationException {
+    return coerceValue(details.getValue());
+  }
   
+  /**
+   * Converts a default value to JSON for events, or returns null if the value is null.
+   */
+  abstract JsonElement toJson(T value);
+
   private VariationType() {
   }
-  
+
   static VariationType<Boolean> Boolean = new VariationType<Boolean>() {
+    JsonElement toJson(Boolean value) {
+      return value == null ? null : Util.jsonBoolean(value);
+    }
+
     Boolean coerceValue(JsonElement result) throws EvaluationException {
       if (result.isJsonPrimitive() && result.getAsJsonPrimitive().isBoolean()) {
         return result.getAsBoolean();
       }
       throw new EvaluationException("Feature flag evaluation expected result as boolean type, but got non-boolean type.");
     }
+
+    @Override
+    Boolean coerceDetail(EvaluationDetail<JsonElement> details) throws EvaluationException {
+      if (details instanceof CoercedDetail && ((CoercedDetail)details).boolValue != null) {
+        return ((CoercedDetail)details).boolValue;
+      }
+      return coerceValue(details.getValue());
+    }
   };
   
   static VariationType<Integer> Integer = new VariationType<Integer>() {
+    JsonElement toJson(Integer value) {
+      return value == null ? null : new JsonPrimitive(value);
+    }
+
     Integer coerceValue(JsonElement result) throws EvaluationException {
       if (result.isJsonPrimitive() && result.getAsJsonPrimitive().isNumber()) {
         return result.getAsInt();
       }
       throw new EvaluationException("Feature flag evaluation expected result as number type, but got non-number type.");
     }
+
+    @Override
+    Integer coerceDetail(EvaluationDetail<JsonElement> details) throws EvaluationException {
+      if (details instanceof CoercedDetail && ((CoercedDetail)details).intValue != null) {
+        return ((CoercedDetail)details).intValue;
+      }
+      return coerceValue(details.getValue());
+    }
   };
   
   static VariationType<Double> Double = new VariationType<Double>() {
+    JsonElement toJson(Double value) {
+      return value == null ? null : new JsonPrimitive(value);
+    }
+
     Double coerceValue(JsonElement result) throws EvaluationException {
       if (result.isJsonPrimitive() && result.getAsJsonPrimitive().isNumber()) {
         return result.getAsDouble();
       }
       throw new EvaluationException("Feature flag evaluation expected result as number type, but got non-number type.");
     }
+
+    @Override
+    Double coerceDetail(EvaluationDetail<JsonElement> details) throws EvaluationException {
+      if (details instanceof CoercedDetail && ((CoercedDetail)details).doubleValue != null) {
+        return ((CoercedDetail)details).doubleValue;
+      }
+      return coerceValue(details.getValue());
+    }
   };
   
   static VariationType<String> String = new VariationType<String>() {
+    JsonElement toJson(String value) {
+      return value == null ? null : new JsonPrimitive(value);
+    }
+
     String coerceValue(JsonElement result) throws EvaluationException {
       if (result.isJsonPrimitive() && result.getAsJsonPrimitive().isString()) {
         return result.getAsString();
       }
       throw new EvaluationException("Feature flag evaluation expected result as string type, but got non-string type.");
     }
+
+    @Override
+    String coerceDetail(EvaluationDetail<JsonElement> details) throws EvaluationException {
+      if (details instanceof CoercedDetail && ((CoercedDetail)details).stringValue != null) {
+        return ((CoercedDetail)details).stringValue;
+      }
+      return coerceValue(details.getValue());
+    }
   };
   
   static VariationType<JsonElement> Json = new VariationType<JsonElement>() {
+    JsonElement toJson(JsonElement value) {
+      return value;
+    }
+
     JsonElement coerceValue(JsonElement result) throws EvaluationException {
       return result;
     }
@@ -0,0 +1,786 @@
+package com.launchdarkly.client.files;
+
+import com.google.gson.Gson;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonPrimitive;
+import com.launchdarkly.client.FeatureStoreSnapshot;
+import com.launchdarkly.client.LDClient;
+import com.launchdarkly.client.LDConfig;
+import com.launchdarkly.client.UserBatch;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.PrintStream;
+import java.io.Reader;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Evaluates feature flags for every user in a file of users, which can be much too large to load at
+ * once, and writes the results to another file. No analytics events are sent.
+ * <p>
+ * Users are read in chunks. The lines of each chunk are parsed in parallel into a
+ * {@link UserBatch}, each flag is evaluated for the whole batch with
+ * {@link LDClient#evaluateBatch(String, UserBatch, FeatureStoreSnapshot, java.util.concurrent.ForkJoinPool, boolean)},
+ * and the results for the chunk are written out before the next one is read. All chunks are evaluated
+ * against the same {@link FeatureStoreSnapshot}, taken when the evaluator is created. The evaluator also
+ * counts how many users got each variation of each flag.
+ * <p>
+ * Users can be read in one of two formats:
+ * <ul>
+ * <li> {@link Format#NDJSON}: one user per line, as a JSON object in the same format that an
+ * {@link com.launchdarkly.client.LDUser} is serialized in, for instance
+ * {@code {"key":"user-key","country":"US","custom":{"groups":["a","b"]}}}. The results are written as one
+ * JSON object per line, such as {@code {"key":"user-key","flagValues":{"flag-key":"value"}}}, with a
+ * null value if the user gets the default value.
+ * <li> {@link Format#CSV}: comma-separated values, with a first line that names the attribute in each
+ * column, one of which must be {@code key}. A custom attribute can be given a type with a suffix, as
+ * in {@code age:number} or {@code beta:boolean}; otherwise, the values are strings. An empty value means
+ * that the user does not have the attribute, and a whole number is treated as an integer, so that it can
+ * be used to bucket users. Values can be quoted, and a quoted value can contain line breaks. The results
+ * are written with the same separators, with a first line of {@code key} and the flag
+ * keys, and an empty value if the user gets the default value. String values are written as they are,
+ * and others as JSON.
+ * </ul>
+ * Blank lines are ignored, and lines that cannot be parsed are skipped with a warning in the log. A quoted
+ * CSV value that is still not closed after {@link #MAX_CSV_RECORD_LENGTH} characters is an error that
+ * stops the evaluation, since it most likely means that the rest of the file cannot be read correctly.
+ * <p>
+ * This class can also be run from the command line, with flag data from the same kind of files as
+ * {@link FileComponents#fileDataSource()} uses, which include the output of LaunchDarkly's
+ * {@code /sdk/latest-all} endpoint:
+ * <pre>
+ *     java -cp launchdarkly-client.jar com.launchdarkly.client.files.BulkEvaluator \
+ *         --data flags.json [--data more-flags.yml ...] [--flag flag-key ...] [--format ndjson|csv] \
+ *         [--output results.ndjson] [--threads 8] [--chunk-size 100000] [users.ndjson]
+ * </pre>
+ * If no flags are named, all of them are evaluated. Users are read from standard input if no file is
+ * given, and the format is taken from the file name if it is not given: CSV if the name ends with
+ * {@code .csv}, and NDJSON otherwise. The results are written to standard output if no output file is
+ * given, and the number of users who got each variation is written to standard error at the end.
+ *
+ * @since 4.6.0
+ */
+public final class BulkEvaluator {
+  private static final Logger logger = LoggerFactory.getLogger(BulkEvaluator.class);
+  private static final Gson gson = new Gson();
+
+  /**
+   * The number of users that are read and evaluated at a time if no other chunk size is given.
+   */
+  public static final int DEFAULT_CHUNK_SIZE = 100000;
+
+  /**
+   * The longest that a line of CSV, including any lines that a quoted value continues onto, can be.
+   */
+  public static final int MAX_CSV_RECORD_LENGTH = 1 << 20;
+
+  // Ranges of lines smaller than this are parsed or formatted by one task
+  private static final int MIN_LINES_PER_TASK = 1024;
+
+  private static final int NO_VARIATION = -1;
+
+  private static final String USAGE =
+      "Usage: BulkEvaluator --data FILE [--data FILE ...] [--flag KEY ...] [--format ndjson|csv]\n" +
+      "           [--output FILE] [--threads N] [--chunk-size N] [USERS_FILE]";
+
+  /**
+   * The format of a file of users.
+   */
+  public enum Format {
+    /**
+     * One JSON object per line.
+     */
+    NDJSON,
+    /**
+     * Comma-separated values with a header line.
+     */
+    CSV
+  }
+
+  private final LDClient client;
+  private final FeatureStoreSnapshot snapshot;
+  private final ForkJoinPool pool;
+  private final int chunkSize;
+  private final List<String> flagKeys;
+  private final List<List<JsonElement>> variations;
+  private final long[][] histograms;
+  private long skippedLines;
+
+  /**
+   * Creates an evaluator for the given flags, using the client's current flag data.
+   *
+   * @param client the client whose flag data is used
+   * @param flagKeys the keys of the flags to evaluate, or null for all flags
+   * @param pool the pool to parse and evaluate users in, or null to do everything in the calling thread
+   * @param chunkSize the number of users to read and evaluate at a time
+   */
+  public BulkEvaluator(LDClient client, Collection<String> flagKeys, ForkJoinPool pool, int chunkSize) {
+    if (chunkSize <= 0) {
+      throw new IllegalArgumentException("chunk size must be positive");
+    }
+    this.client = client;
+    this.snapshot = client.snapshot();
+    this.pool = pool;
+    this.chunkSize = chunkSize;
+    if (flagKeys == null) {
+      List<String> keys = new ArrayList<>(snapshot.getFlagKeys());
+      Collections.sort(keys);
+      this.flagKeys = Collections.unmodifiableList(keys);
+    } else {
+      this.flagKeys = Collections.unmodifiableList(new ArrayList<>(flagKeys));
+    }
+    this.variations = new ArrayList<>(this.flagKeys.size());
+    this.histograms = new long[this.flagKeys.size()][];
+    for (int f = 0; f < histograms.length; f++) {
+      variations.add(snapshot.getFlagVariations(this.flagKeys.get(f)));
+      histograms[f] = new long[variations.get(f).size() + 1];
+    }
+  }
+
+  /**
+   * The keys of the flags that are evaluated, in the order they are written in.
+   * @return the flag keys
+   */
+  public List<String> getFlagKeys() {
+    return flagKeys;
+  }
+
+  /**
+   * The number of users so far who got each variation of a flag.
+   *
+   * @param flagKey the flag key
+   * @return the number of users for each variation index, followed by the number of users who got the
+   *   default value; or null if the flag is not one of the flags being evaluated
+   */
+  public long[] getHistogram(String flagKey) {
+    int f = flagKeys.indexOf(flagKey);
+    return f < 0 ? null : histograms[f].clone();
+  }
+
+  /**
+   * The number of lines so far that were skipped because they could not be parsed.
+   * @return the number of lines
+   */
+  public long getSkippedLines() {
+    return skippedLines;
+  }
+
+  /**
+   * Evaluates the flags for all of the users that are read, and writes the results. Neither the reader
+   * nor the writer is closed.
+   *
+   * @param users the users
+   * @param format the format of the users, which is also the format of the results
+   * @param results where the results are written
+   * @throws IOException if reading or writing fails, the CSV header is not valid, or a quoted CSV value
+   *   is longer than {@link #MAX_CSV_RECORD_LENGTH}
+   */
+  public void evaluate(Reader users, Format format, Writer results) throws IOException {
+    LineReader reader = new LineReader(users, format == Format.CSV);
+    UserFormat userFormat;
+    if (format == Format.CSV) {
+      String header = reader.readLine();
+      if (header == null) {
+        return;
+      }
+      userFormat = new CsvFormat(header);
+    } else {
+      userFormat = new JsonFormat();
+    }
+    results.write(userFormat.header());
+
+    String[] lines = new String[chunkSize];
+    long[] lineNumbers = new long[chunkSize];
+    while (true) {
+      int n = 0;
+      String line;
+      while (n < chunkSize && (line = reader.readLine()) != null) {
+        lines[n] = line;
+        lineNumbers[n++] = reader.lineNumber;
+      }
+      if (n == 0) {
+        break;
+      }
+      evaluateChunk(userFormat, lines, lineNumbers, n, results);
+    }
+    results.flush();
+  }
+
+  private void evaluateChunk(final UserFormat userFormat, final String[] lines, long[] lineNumbers, int n,
+      Writer results) throws IOException {
+    final Object[] rows = new Object[n];
+    final String[] errors = new String[n];
+    inParallel(n, new RangeAction() {
+      public void run(int start, int end) {
+        for (int i = start; i < end; i++) {
+          if (lines[i].trim().isEmpty()) {
+            continue;
+          }
+          try {
+            rows[i] = userFormat.parse(lines[i]);
+          } catch (Exception e) {
+            errors[i] = e.toString();
+          }
+        }
+      }
+    });
+
+    final List<Object> parsed = new ArrayList<>(n);
+    for (int i = 0; i < n; i++) {
+      if (rows[i] != null) {
+        parsed.add(rows[i]);
+      } else if (errors[i] != null) {
+        skippedLines++;
+        logger.warn("Skipping line {} of users: {}", lineNumbers[i], errors[i]);
+      }
+    }
+    Arrays.fill(lines, 0, n, null);
+    if (parsed.isEmpty()) {
+      return;
+    }
+
+    final UserBatch batch = userFormat.batch(parsed);
+    final int[][] flagResults = new int[flagKeys.size()][];
+    for (int f = 0; f < flagResults.length; f++) {
+      flagResults[f] = client.evaluateBatch(flagKeys.get(f), batch, snapshot, pool, false);
+      long[] histogram = histograms[f];
+      int defaultIndex = histogram.length - 1;
+      for (int v: flagResults[f]) {
+        histogram[v == NO_VARIATION || v >= defaultIndex ? defaultIndex : v]++;
+      }
+    }
+
+    final String[] out = new String[parsed.size()];
+    inParallel(out.length, new RangeAction() {
+      public void run(int start, int end) {
+        StringBuilder sb = new StringBuilder();
+        for (int i = start; i < end; i++) {
+          sb.setLength(0);
+          userFormat.format(sb, userFormat.key(parsed.get(i)), flagResults, i);
+          out[i] = sb.toString();
+        }
+      }
+    });
+    for (String s: out) {
+      results.write(s);
+    }
+  }
+
+  private void inParallel(int n, RangeAction action) {
+    if (pool == null || n <= MIN_LINES_PER_TASK) {
+      action.run(0, n);
+    } else {
+      pool.invoke(new RangeTask(action, 0, n));
+    }
+  }
+
+  /**
+   * Writes the number of users who got each variation of each flag.
+   */
+  void writeHistograms(PrintStream out) {
+    for (int f = 0; f < flagKeys.size(); f++) {
+      out.println(flagKeys.get(f));
+      long[] histogram = histograms[f];
+      for (int v = 0; v < histogram.length - 1; v++) {
+        out.println("  " + v + " " + gson.toJson(variations.get(f).get(v)) + ": " + histogram[v]);
+      }
+      out.println("  default: " + histogram[histogram.length - 1]);
+    }
+    if (skippedLines > 0) {
+      out.println("skipped lines: " + skippedLines);
+    }
+  }
+
+  private static String csvField(String s) {
+    if (s.indexOf(',') < 0 && s.indexOf('"') < 0 && s.indexOf('\n') < 0 && s.indexOf('\r') < 0) {
+      return s;
+    }
+    return "\"" + s.replace("\"", "\"\"") + "\"";
+  }
+
+  /**
+   * Reads lines of users. For CSV, a line that ends inside a quoted value is joined with the lines after
+   * it, with line breaks, until the value is closed.
+   */
+  private static final class LineReader {
+    private final BufferedReader reader;
+    private final boolean csv;
+    private long linesRead;
+    long lineNumber; // the line that the last line returned by readLine() started on
+
+    LineReader(Reader reader, boolean csv) {
+      this.reader = reader instanceof BufferedReader ? (BufferedReader)reader : new BufferedReader(reader);
+      this.csv = csv;
+    }
+
+    String readLine() throws IOException {
+      String line = reader.readLine();
+      if (line == null) {
+        return null;
+      }
+      lineNumber = ++linesRead;
+      if (!csv || !endsQuoted(line, false)) {
+        return line;
+      }
+      StringBuilder sb = new StringBuilder(line);
+      boolean quoted = true;
+      while (quoted && (line = reader.readLine()) != null) {
+        linesRead++;
+        if (sb.length() + 1 + line.length() > MAX_CSV_RECORD_LENGTH) {
+          throw new IOException("Quoted CSV value on line " + lineNumber + " is not closed within " +
+              MAX_CSV_RECORD_LENGTH + " characters");
+        }
+        sb.append('\n').append(line);
+        quoted = endsQuoted(line, true);
+      }
+      return sb.toString(); // if the value was never closed, splitCsv reports it
+    }
+
+    // Whether a line ends inside a quoted value, the same way splitCsv reads quotes: a doubled quote in a
+    // quoted value toggles twice, so it leaves the state as it was.
+    private static boolean endsQuoted(String line, boolean quoted) {
+      for (int i = 0; i < line.length(); i++) {
+        if (line.charAt(i) == '"') {
+          quoted = !quoted;
+        }
+      }
+      return quoted;
+    }
+  }
+
+  private static List<String> splitCsv(String line) {
+    List<String> fields = new ArrayList<>();
+    StringBuilder field = new StringBuilder();
+    boolean quoted = false;
+    for (int i = 0; i < line.length(); i++) {
+      char ch = line.charAt(i);
+      if (quoted) {
+        if (ch != '"') {
+          field.append(ch);
+        } else if (i + 1 < line.length() && line.charAt(i + 1) == '"') {
+          field.append('"');
+          i++;
+        } else {
+          quoted = false;
+        }
+      } else if (ch == '"') {
+        quoted = true;
+      } else if (ch == ',') {
+        fields.add(field.toString());
+        field.setLength(0);
+      } else {
+        field.append(ch);
+      }
+    }
+    if (quoted) {
+      throw new IllegalArgumentException("unterminated quoted value");
+    }
+    fields.add(field.toString());
+    return fields;
+  }
+
+  // Parses lines of users, builds batches from them, and formats the results
+  private abstract class UserFormat {
+    abstract String header();
+
+    // Called from more than one thread at a time
+    abstract Object parse(String line);
+
+    abstract String key(Object row);
+
+    abstract UserBatch batch(List<Object> rows);
+
+    // Called from more than one thread at a time
+    abstract void format(StringBuilder sb, String key, int[][] flagResults, int row);
+  }
+
+  private final class JsonFormat extends UserFormat {
+    private final String[] flagNames = new String[flagKeys.size()];
+    private final String[][] values = new String[flagKeys.size()][];
+
+    JsonFormat() {
+      for (int f = 0; f < flagNames.length; f++) {
+        flagNames[f] = gson.toJson(flagKeys.get(f));
+        values[f] = new String[variations.get(f).size()];
+        for (int v = 0; v < values[f].length; v++) {
+          values[f][v] = gson.toJson(variations.get(f).get(v));
+        }
+      }
+    }
+
+    String header() {
+      return "";
+    }
+
+    Object parse(String line) {
+      JsonObject o = gson.fromJson(line, JsonObject.class);
+      if (o == null) {
+        throw new IllegalArgumentException("expected a JSON object");
+      }
+      for (Map.Entry<String, JsonElement> e: o.entrySet()) {
+        if (!e.getKey().equals("custom") && !e.getKey().equals("privateAttributeNames") &&
+            !e.getValue().isJsonNull() && !e.getValue().isJsonPrimitive()) {
+          throw new IllegalArgumentException("\"" + e.getKey() + "\" must be a string, number or boolean");
+        }
+      }
+      JsonElement custom = o.get("custom");
+      if (custom != null && !custom.isJsonNull() && !custom.isJsonObject()) {
+        throw new IllegalArgumentException("\"custom\" must be an object");
+      }
+      return o;
+    }
+
+    String key(Object row) {
+      JsonElement key = ((JsonObject)row).get("key");
+      return key == null || key.isJsonNull() ? null : key.getAsString();
+    }
+
+    UserBatch batch(List<Object> rows) {
+      String[] keys = new String[rows.size()];
+      Map<String, JsonElement[]> columns = new LinkedHashMap<>();
+      for (int i = 0; i < keys.length; i++) {
+        JsonObject o = (JsonObject)rows.get(i);
+        keys[i] = key(o);
+        for (Map.Entry<String, JsonElement> e: o.entrySet()) {
+          String name = e.getKey();
+          if (name.equals("custom")) {
+            if (e.getValue().isJsonObject()) {
+              for (Map.Entry<String, JsonElement> c: e.getValue().getAsJsonObject().entrySet()) {
+                // built-in attributes take precedence over custom ones with the same name
+                if (!UserBatch.isBuiltInAttribute(c.getKey())) {
+                  column(columns, c.getKey(), keys.length)[i] = c.getValue();
+                }
+              }
+            }
+          } else if (!name.equals("key") && UserBatch.isBuiltInAttribute(name)) {
+            column(columns, name, keys.length)[i] = e.getValue();
+          }
+        }
+      }
+      UserBatch.Builder builder = new UserBatch.Builder(keys);
+      for (Map.Entry<String, JsonElement[]> e: columns.entrySet()) {
+        builder.values(e.getKey(), e.getValue());
+      }
+      return builder.build();
+    }
+
+    private JsonElement[] column(Map<String, JsonElement[]> columns, String name, int size) {
+      JsonElement[] column = columns.get(name);
+      if (column == null) {
+        column = new JsonElement[size];
+        columns.put(name, column);
+      }
+      return column;
+    }
+
+    void format(StringBuilder sb, String key, int[][] flagResults, int row) {
+      sb.append("{\"key\":").append(key == null ? "null" : gson.toJson(key)).append(",\"flagValues\":{");
+      for (int f = 0; f < flagNames.length; f++) {
+        if (f > 0) {
+          sb.append(',');
+        }
+        int v = flagResults[f][row];
+        sb.append(flagNames[f]).append(':').append(v == NO_VARIATION || v >= values[f].length ? "null" : values[f][v]);
+      }
+      sb.append("}}\n");
+    }
+  }
+
+  private final class CsvFormat extends UserFormat {
+    private static final int STRING = 0, NUMBER = 1, BOOLEAN = 2;
+
+    private final String[] attributes;
+    private final int[] types;
+    private final int keyColumn;
+    private final String[][] values = new String[flagKeys.size()][];
+
+    CsvFormat(String header) throws IOException {
+      List<String> names = splitCsv(header);
+      attributes = new String[names.size()];
+      types = new int[names.size()];
+      int key = -1;
+      for (int c = 0; c < attributes.length; c++) {
+        String name = names.get(c).trim();
+        int type = STRING;
+        if (name.endsWith(":number")) {
+          type = NUMBER;
+          name = name.substring(0, name.length() - ":number".length());
+        } else if (name.endsWith(":boolean")) {
+          type = BOOLEAN;
+          name = name.substring(0, name.length() - ":boolean".length());
+        }
+        if (type != STRING && UserBatch.isBuiltInAttribute(name) && !(type == BOOLEAN && name.equals("anonymous"))) {
+          throw new IOException("CSV column \"" + names.get(c) + "\" has the wrong type for a built-in attribute");
+        }
+        if (name.equals("key")) {
+          key = c;
+        }
+        attributes[c] = name;
+        types[c] = type;
+      }
+      if (key < 0) {
+        throw new IOException("CSV header does not have a \"key\" column");
+      }
+      keyColumn = key;
+      for (int f = 0; f < values.length; f++) {
+        values[f] = new String[variations.get(f).size()];
+        for (int v = 0; v < values[f].length; v++) {
+          JsonElement value = variations.get(f).get(v);
+          values[f][v] = csvField(value.isJsonPrimitive() && value.getAsJsonPrimitive().isString() ?
+              value.getAsString() : gson.toJson(value));
+        }
+      }
+    }
+
+    String header() {
+      StringBuilder sb = new StringBuilder("key");
+      for (String flagKey: flagKeys) {
+        sb.append(',').append(csvField(flagKey));
+      }
+      return sb.append('\n').toString();
+    }
+
+    Object parse(String line) {
+      List<String> fields = splitCsv(line);
+      if (fields.size() != attributes.length) {
+        throw new IllegalArgumentException("expected " + attributes.length + " values but found " + fields.size());
+      }
+      Object[] row = new Object[attributes.length];
+      for (int c = 0; c < row.length; c++) {
+        String field = fields.get(c);
+        if (c == keyColumn) {
+          row[c] = field;
+        } else if (field.isEmpty()) {
+          continue;
+        } else if (types[c] == NUMBER) {
+          row[c] = Double.valueOf(field.trim());
+        } else if (types[c] == BOOLEAN) {
+          if (field.trim().equalsIgnoreCase("true")) {
+            row[c] = Boolean.TRUE;
+          } else if (field.trim().equalsIgnoreCase("false")) {
+            row[c] = Boolean.FALSE;
+          } else {
+            throw new IllegalArgumentException("\"" + field + "\" is not a boolean value for \"" + attributes[c] + "\"");
+          }
+        } else {
+          row[c] = field;
+        }
+      }
+      return row;
+    }
+
+    String key(Object row) {
+      return (String)((Object[])row)[keyColumn];
+    }
+
+    UserBatch batch(List<Object> rows) {
+      String[] keys = new String[rows.size()];
+      for (int i = 0; i < keys.length; i++) {
+        keys[i] = key(rows.get(i));
+      }
+      UserBatch.Builder builder = new UserBatch.Builder(keys);
+      for (int c = 0; c < attributes.length; c++) {
+        if (c == keyColumn) {
+          continue;
+        }
+        if (types[c] == NUMBER) {
+          double[] column = new double[keys.length];
+          for (int i = 0; i < keys.length; i++) {
+            Double value = (Double)((Object[])rows.get(i))[c];
+            column[i] = value == null ? Double.NaN : value;
+          }
+          builder.numbers(attributes[c], column);
+        } else if (types[c] == BOOLEAN) {
+          JsonElement[] column = new JsonElement[keys.length];
+          for (int i = 0; i < keys.length; i++) {
+            Boolean value = (Boolean)((Object[])rows.get(i))[c];
+            column[i] = value == null ? null : new JsonPrimitive(value);
+          }
+          builder.values(attributes[c], column);
+        } else {
+          String[] column = new String[keys.length];
+          for (int i = 0; i < keys.length; i++) {
+            column[i] = (String)((Object[])rows.get(i))[c];
+          }
+          builder.strings(attributes[c], column);
+        }
+      }
+      return builder.build();
+    }
+
+    void format(StringBuilder sb, String key, int[][] flagResults, int row) {
+      sb.append(csvField(key));
+      for (int f = 0; f < values.length; f++) {
+        sb.append(',');
+        int v = flagResults[f][row];
+        if (v != NO_VARIATION && v < values[f].length) {
+          sb.append(values[f][v]);
+        }
+      }
+      sb.append('\n');
+    }
+  }
+
+  private interface RangeAction {
+    void run(int start, int end);
+  }
+
+  @SuppressWarnings("serial")
+  private static final class RangeTask extends RecursiveAction {
+    private final RangeAction action;
+    private final int start;
+    private final int end;
+
+    RangeTask(RangeAction action, int start, int end) {
+      this.action = action;
+      this.start = start;
+      this.end = end;
+    }
+
+    @Override
+    protected void compute() {
+      if (end - start <= MIN_LINES_PER_TASK) {
+        action.run(start, end);
+      } else {
+        int middle = (start + end) >>> 1;
+        invokeAll(new RangeTask(action, start, middle), new RangeTask(action, middle, end));
+      }
+    }
+  }
+
+  /**
+   * Runs the evaluator from the command line; see the class description for the arguments.
+   *
+   * @param args the command line arguments
+   */
+  public static void main(String[] args) {
+    int status = run(args, System.in, System.out, System.err);
+    if (status != 0) {
+      System.exit(status);
+    }
+  }
+
+  static int run(String[] args, InputStream stdin, OutputStream stdout, PrintStream stderr) {
+    List<Path> dataFiles = new ArrayList<>();
+    List<String> flagKeys = new ArrayList<>();
+    Format format = null;
+    String output = null;
+    String input = null;
+    int threads = Runtime.getRuntime().availableProcessors();
+    int chunkSize = DEFAULT_CHUNK_SIZE;
+    try {
+      for (int i = 0; i < args.length; i++) {
+        String arg = args[i];
+        if (!arg.startsWith("--") || arg.equals("-")) {
+          if (input != null) {
+            throw new IllegalArgumentException("only one users file can be given");
+          }
+          input = arg;
+          continue;
+        }
+        if (i + 1 >= args.length) {
+          throw new IllegalArgumentException(arg + " needs a value");
+        }
+        String value = args[++i];
+        switch (arg) {
+        case "--data":
+          dataFiles.add(Paths.get(value));
+          break;
+        case "--flag":
+          flagKeys.add(value);
+          break;
+        case "--format":
+          format = Format.valueOf(value.toUpperCase());
+          break;
+        case "--output":
+          output = value;
+          break;
+        case "--threads":
+          threads = Integer.parseInt(value);
+          break;
+        case "--chunk-size":
+          chunkSize = Integer.parseInt(value);
+          break;
+        default:
+          throw new IllegalArgumentException("unknown option " + arg);
+        }
+      }
+      if (dataFiles.isEmpty()) {
+        throw new IllegalArgumentException("no --data files were given");
+      }
+      if (threads <= 0 || chunkSize <= 0) {
+        throw new IllegalArgumentException("--threads and --chunk-size must be positive");
+      }
+    } catch (IllegalArgumentException e) {
+      stderr.println(e.getMessage());
+      stderr.println(USAGE);
+      return 2;
+    }
+    if (format == null) {
+      format = input != null && input.toLowerCase().endsWith(".csv") ? Format.CSV : Format.NDJSON;
+    }
+
+    LDConfig config = new LDConfig.Builder()
+        .updateProcessorFactory(FileComponents.fileDataSource().filePaths(dataFiles.toArray(new Path[dataFiles.size()])))
+        .sendEvents(false)
+        .build();
+    ForkJoinPool pool = threads > 1 ? new ForkJoinPool(threads) : null;
+    try (LDClient client = new LDClient("", config)) {
+      if (!client.initialized()) {
+        stderr.println("Unable to load flag data; see the log for details");
+        return 1;
+      }
+      BulkEvaluator evaluator = new BulkEvaluator(client, flagKeys.isEmpty() ? null : flagKeys, pool, chunkSize);
+      // Standard input and output are not closed
+      boolean fromStdin = input == null || input.equals("-");
+      Reader in = fromStdin ? new InputStreamReader(stdin, StandardCharsets.UTF_8) :
+          Files.newBufferedReader(Paths.get(input), StandardCharsets.UTF_8);
+      try {
+        Writer out = output == null ? new BufferedWriter(new OutputStreamWriter(stdout, StandardCharsets.UTF_8)) :
+            Files.newBufferedWriter(Paths.get(output), StandardCharsets.UTF_8);
+        try {
+          evaluator.evaluate(in, format, out);
+        } finally {
+          if (output != null) {
+            out.close();
+          }
+        }
+      } finally {
+        if (!fromStdin) {
+          in.close();
+        }
+      }
+      evaluator.writeHistograms(stderr);
+      return 0;
+    } catch (IOException e) {
+      stderr.println(e.toString());
+      return 1;
+    } finally {
+      if (pool != null) {
+        pool.shutdown();
+      }
+    }
+  }
+}
@@ -86,6 +86,21 @@ package com.launchdarkly.client.files;
  *   my-integer-flag-key: 3
  * </pre>
  * <p>
+ * A segment with too many users to list in the file can instead name files of included and excluded
+ * user keys, with one key per line, sorted in byte order (for instance with {@code LC_ALL=C sort}).
+ * The file names are looked up in the directory set with
+ * {@link com.launchdarkly.client.LDConfig.Builder#segmentKeyFilesDirectory(java.io.File)}. These files are
+ * memory-mapped rather than loaded; to change one, replace it rather than writing over it.
+ * <pre>
+ *     "segments": {
+ *         "segment-key-1": {
+ *             "key": "segment-key-1",
+ *             "includedKeysFile": "segment-key-1-included.txt",
+ *             "excludedKeysFile": "segment-key-1-excluded.txt"
+ *         }
+ *     }
+ * </pre>
+ * <p>
  * It is also possible to specify both {@code flags} and {@code flagValues}, if you want some flags
  * to have simple values and others to have complex behavior. However, it is an error to use the
  * same flag key or segment key more than once, either in a single file or across multiple files.
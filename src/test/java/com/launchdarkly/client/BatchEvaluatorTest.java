@@ -0,0 +1,280 @@
+package com.launchdarkly.client;
+
+import com.google.common.collect.ImmutableSet;
+import com.google.gson.JsonArray;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonNull;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ForkJoinPool;
+
+import static com.launchdarkly.client.TestUtil.booleanFlagWithClauses;
+import static com.launchdarkly.client.TestUtil.fallthroughVariation;
+import static com.launchdarkly.client.TestUtil.flagWithValue;
+import static com.launchdarkly.client.TestUtil.jbool;
+import static com.launchdarkly.client.TestUtil.jint;
+import static com.launchdarkly.client.TestUtil.js;
+import static com.launchdarkly.client.TestUtil.specificEventProcessor;
+import static com.launchdarkly.client.TestUtil.specificFeatureStore;
+import static com.launchdarkly.client.VersionedDataKind.FEATURES;
+import static com.launchdarkly.client.VersionedDataKind.SEGMENTS;
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class BatchEvaluatorTest {
+  private static final int NUM_USERS = BatchEvaluator.MIN_USERS_PER_TASK * 3 + 17;
+
+  private FeatureStore featureStore = TestUtil.initedFeatureStore();
+  private TestUtil.TestEventProcessor eventSink = new TestUtil.TestEventProcessor();
+  private LDConfig config = new LDConfig.Builder()
+      .featureStoreFactory(specificFeatureStore(featureStore))
+      .eventProcessorFactory(specificEventProcessor(eventSink))
+      .updateProcessorFactory(Components.nullUpdateProcessor())
+      .build();
+  private LDClient client = new LDClient("SDK_KEY", config);
+
+  private final String[] keys = new String[NUM_USERS];
+  private final String[] countries = new String[NUM_USERS];
+  private final String[] emails = new String[NUM_USERS];
+  private final double[] ages = new double[NUM_USERS];
+  private final boolean[] betas = new boolean[NUM_USERS];
+
+  public BatchEvaluatorTest() {
+    for (int i = 0; i < NUM_USERS; i++) {
+      keys[i] = i % 997 == 0 ? null : "user" + i;
+      countries[i] = i % 3 == 0 ? "US" : i % 3 == 1 ? "CA" : null;
+      emails[i] = i % 5 == 0 ? null : "u" + i + (i % 2 == 0 ? "@example.com" : "@other.com");
+      ages[i] = i % 7 == 0 ? Double.NaN : i % 60;
+      betas[i] = i % 11 == 0;
+    }
+  }
+
+  private UserBatch batch() {
+    return new UserBatch.Builder(keys)
+        .strings("country", countries)
+        .strings("email", emails)
+        .numbers("age", ages)
+        .booleans("beta", betas)
+        .build();
+  }
+
+  private LDUser user(int i) {
+    LDUser.Builder builder = new LDUser.Builder(keys[i]).custom("beta", betas[i]);
+    if (countries[i] != null) {
+      builder.country(countries[i]);
+    }
+    if (emails[i] != null) {
+      builder.email(emails[i]);
+    }
+    if (!Double.isNaN(ages[i])) {
+      builder.custom("age", ages[i]);
+    }
+    return builder.build();
+  }
+
+  private void setUpFlags() {
+    featureStore.upsert(SEGMENTS, new Segment.Builder("seg")
+        .rules(Arrays.asList(new SegmentRule(
+            Arrays.asList(new Clause("age", Operator.greaterThan, Arrays.asList(jint(50)), false)), null, null)))
+        .version(1)
+        .build());
+    featureStore.upsert(FEATURES, new FeatureFlagBuilder("prereq")
+        .on(true)
+        .rules(Arrays.asList(new Rule("r0",
+            Arrays.asList(new Clause("country", Operator.in, Arrays.asList(js("CA")), true)), 1, null)))
+        .fallthrough(fallthroughVariation(0))
+        .variations(js("nogo"), js("go"))
+        .version(2)
+        .build());
+    VariationOrRollout.Rollout rollout = new VariationOrRollout.Rollout(Arrays.asList(
+        new VariationOrRollout.WeightedVariation(0, 50000),
+        new VariationOrRollout.WeightedVariation(1, 50000)), null);
+    VariationOrRollout.Rollout byEmail = new VariationOrRollout.Rollout(Arrays.asList(
+        new VariationOrRollout.WeightedVariation(1, 30000),
+        new VariationOrRollout.WeightedVariation(2, 70000)), "email");
+    featureStore.upsert(FEATURES, new FeatureFlagBuilder("flag")
+        .on(true)
+        .prerequisites(Arrays.asList(new Prerequisite("prereq", 1)))
+        .rules(Arrays.asList(
+            new Rule("r0", Arrays.asList(new Clause("", Operator.segmentMatch, Arrays.asList(js("seg")), false)),
+                2, null),
+            new Rule("r1", Arrays.asList(new Clause("email", Operator.endsWith, Arrays.asList(js("@example.com")), false)),
+                null, rollout),
+            new Rule("r2", Arrays.asList(new Clause("beta", Operator.in, Arrays.asList(jbool(true)), false)),
+                3, null)))
+        .fallthrough(new VariationOrRollout(null, byEmail))
+        .variations(js("a"), js("b"), js("c"), js("d"))
+        .version(3)
+        .build());
+  }
+
+  private static Map<EventSummarizer.CounterKey, EventSummarizer.CounterValue> summarize(List<Event> events) {
+    EventSummarizer es = new EventSummarizer();
+    for (Event e: events) {
+      es.summarizeEvent(e);
+    }
+    return es.snapshot().counters;
+  }
+
+  private int[] evaluateEachUser(String flagKey) {
+    int[] results = new int[NUM_USERS];
+    for (int i = 0; i < NUM_USERS; i++) {
+      Integer v = client.jsonVariationDetail(flagKey, user(i), null).getVariationIndex();
+      results[i] = v == null ? BatchEvaluator.NO_VARIATION : v;
+    }
+    return results;
+  }
+
+  @Test
+  public void batchResultsAreTheSameAsForEachUser() throws Exception {
+    setUpFlags();
+    int[] expected = evaluateEachUser("flag");
+
+    assertArrayEquals(expected, client.evaluateBatch("flag", batch(), null, false));
+    assertArrayEquals(expected, client.evaluateBatch("flag", batch(), new ForkJoinPool(4), false));
+  }
+
+  @Test
+  public void summaryCountsAreTheSameAsForEachUser() throws Exception {
+    setUpFlags();
+    evaluateEachUser("flag");
+    Map<EventSummarizer.CounterKey, EventSummarizer.CounterValue> expected = summarize(eventSink.events);
+    eventSink.events.clear();
+
+    client.evaluateBatch("flag", batch(), new ForkJoinPool(4), true);
+    assertEquals(expected, summarize(eventSink.events));
+  }
+
+  @Test
+  public void summaryEventsAreNotFullEventsEvenIfFlagsAreTracked() throws Exception {
+    setUpFlags();
+    long debugUntil = System.currentTimeMillis() + 1000000;
+    for (String key: Arrays.asList("prereq", "flag")) {
+      FeatureFlag flag = featureStore.get(FEATURES, key);
+      featureStore.upsert(FEATURES, new FeatureFlagBuilder(flag)
+          .trackEvents(true).debugEventsUntilDate(debugUntil).version(flag.getVersion() + 1).build());
+    }
+
+    client.evaluateBatch("flag", batch(), null, true);
+    assertTrue(eventSink.events.size() > 0);
+    for (Event e: eventSink.events) {
+      Event.FeatureRequest fe = (Event.FeatureRequest) e;
+      assertFalse(fe.key, fe.trackEvents);
+      assertNull(fe.key, fe.debugEventsUntilDate);
+    }
+  }
+
+  @Test
+  public void summaryEventsHaveNoUser() throws Exception {
+    setUpFlags();
+    client.evaluateBatch("flag", batch(), null, true);
+    client.evaluateBatch("unknown", batch(), null, true);
+    assertTrue(eventSink.events.size() > 0);
+    for (Event e: eventSink.events) {
+      assertNull(((Event.FeatureRequest) e).key, e.user);
+    }
+  }
+
+  @Test
+  public void noEventsAreSentWithoutSummary() throws Exception {
+    setUpFlags();
+    client.evaluateBatch("flag", batch(), null, false);
+    assertEquals(0, eventSink.events.size());
+  }
+
+  @Test
+  public void unknownFlagGivesNoVariationAndIsCountedInSummary() throws Exception {
+    evaluateEachUser("unknown");
+    Map<EventSummarizer.CounterKey, EventSummarizer.CounterValue> expected = summarize(eventSink.events);
+    eventSink.events.clear();
+
+    int[] results = client.evaluateBatch("unknown", batch(), null, true);
+    for (int r: results) {
+      assertEquals(BatchEvaluator.NO_VARIATION, r);
+    }
+    assertEquals(1, eventSink.events.size());
+    assertEquals(expected, summarize(eventSink.events));
+  }
+
+  @Test
+  public void constantFlagGivesSameVariationToUsersWithKeys() throws Exception {
+    featureStore.upsert(FEATURES, flagWithValue("flag", js("a")));
+    int[] results = client.evaluateBatch("flag", batch(), null, false);
+    for (int i = 0; i < NUM_USERS; i++) {
+      assertEquals(keys[i] == null ? BatchEvaluator.NO_VARIATION : 0, results[i]);
+    }
+  }
+
+  @Test
+  public void batchCanBeEvaluatedAgainstASnapshot() throws Exception {
+    featureStore.upsert(FEATURES, new FeatureFlagBuilder(flagWithValue("flag", js("a"))).version(1).build());
+    FeatureStoreSnapshot snapshot = client.snapshot();
+    featureStore.upsert(FEATURES, new FeatureFlagBuilder("flag").on(false).variations(js("a")).version(2).build());
+
+    assertEquals(0, client.evaluateBatch("flag", batch(), snapshot, null, false)[1]);
+    assertEquals(BatchEvaluator.NO_VARIATION, client.evaluateBatch("flag", batch(), null, false)[1]);
+  }
+
+  @Test
+  public void referencedAttributesIncludeSegmentsPrerequisitesAndBucketBy() throws Exception {
+    setUpFlags();
+    FeatureFlag flag = featureStore.get(FEATURES, "flag");
+    assertEquals(ImmutableSet.of("secondary", "key", "age", "country", "email", "beta"),
+        BatchEvaluator.referencedAttributes(flag, featureStore));
+  }
+
+  @Test
+  public void columnMustHaveOneValuePerUser() throws Exception {
+    try {
+      new UserBatch.Builder(new String[] { "a", "b" }).strings("email", new String[] { "x" });
+      fail("expected exception");
+    } catch (IllegalArgumentException e) {
+    }
+  }
+
+  @Test
+  public void builtInAttributeMustHaveItsType() throws Exception {
+    try {
+      new UserBatch.Builder(new String[] { "a" }).numbers("email", new double[] { 1 });
+      fail("expected exception");
+    } catch (IllegalArgumentException e) {
+    }
+    try {
+      new UserBatch.Builder(new String[] { "a" }).strings("anonymous", new String[] { "x" });
+      fail("expected exception");
+    } catch (IllegalArgumentException e) {
+    }
+    try {
+      new UserBatch.Builder(new String[] { "a" }).strings("key", new String[] { "x" });
+      fail("expected exception");
+    } catch (IllegalArgumentException e) {
+    }
+    try {
+      new UserBatch.Builder(new String[] { "a" }).values("email", new JsonElement[] { new JsonArray() });
+      fail("expected exception");
+    } catch (IllegalArgumentException e) {
+    }
+  }
+
+  @Test
+  public void jsonValuesCanBeArraysForCustomAttributes() throws Exception {
+    JsonArray groups = new JsonArray();
+    groups.add(js("x"));
+    groups.add(js("y"));
+    featureStore.upsert(FEATURES, booleanFlagWithClauses("flag",
+        new Clause("groups", Operator.in, Arrays.asList(js("y")), false)));
+    UserBatch users = new UserBatch.Builder(new String[] { "a", "b", "c" })
+        .values("groups", new JsonElement[] { groups, js("y"), null })
+        .values("email", new JsonElement[] { js("a@example.com"), null, JsonNull.INSTANCE })
+        .build();
+    assertArrayEquals(new int[] { 1, 1, 0 }, client.evaluateBatch("flag", users, null, false));
+  }
+}
@@ -0,0 +1,79 @@
+package com.launchdarkly.client;
+
+import com.google.gson.Gson;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class CompactStringSetTest {
+  private static final Gson gson = new Gson();
+  private static final CompactStringSet.Adapter adapter = new CompactStringSet.Adapter();
+
+  @Test
+  public void containsEveryValueAndNothingElse() {
+    List<String> keys = new ArrayList<>();
+    for (int i = 0; i < 10000; i++) {
+      keys.add("user" + i);
+    }
+    CompactStringSet set = CompactStringSet.of(keys);
+    assertEquals(10000, set.size());
+    for (String key: keys) {
+      assertTrue(set.contains(key));
+    }
+    assertFalse(set.contains("user10000"));
+    assertFalse(set.contains("user-1"));
+    assertFalse(set.contains(null));
+    assertFalse(set.contains(1));
+  }
+
+  @Test
+  public void duplicatesAndNullsAreIgnored() {
+    CompactStringSet set = CompactStringSet.of(Arrays.asList("a", "b", null, "a"));
+    assertEquals(2, set.size());
+    assertEquals(new HashSet<>(Arrays.asList("a", "b")), new HashSet<>(set));
+  }
+
+  @Test
+  public void emptyOrNullInputGivesEmptySet() {
+    assertSame(CompactStringSet.EMPTY, CompactStringSet.of(null));
+    assertSame(CompactStringSet.EMPTY, CompactStringSet.of(new ArrayList<String>()));
+    assertFalse(CompactStringSet.EMPTY.contains("a"));
+    assertEquals(0, CompactStringSet.EMPTY.size());
+  }
+
+  @Test
+  public void serializesAsJsonArray() {
+    CompactStringSet set = CompactStringSet.of(Arrays.asList("x"));
+    assertEquals("[\"x\"]", adapter.toJson(set));
+  }
+
+  @Test
+  public void deserializesFromJsonArray() throws Exception {
+    CompactStringSet set = adapter.fromJson("[\"x\",\"y\",null]");
+    assertEquals(new HashSet<>(Arrays.asList("x", "y")), new HashSet<>(set));
+  }
+
+  @Test
+  public void deserializesNullAsNull() throws Exception {
+    assertNull(adapter.fromJson("null"));
+  }
+
+  @Test
+  public void segmentKeysAreReadFromJson() {
+    Segment segment = gson.fromJson("{\"key\":\"s\",\"included\":[\"a\"],\"excluded\":[\"b\"],\"rules\":[]}",
+        Segment.class);
+    assertTrue(segment.matchesUser(new LDUser("a")));
+    assertFalse(segment.matchesUser(new LDUser("b")));
+    assertTrue(gson.toJson(segment).contains("\"included\":[\"a\"]"));
+  }
+}
@@ -0,0 +1,119 @@
+package com.launchdarkly.client;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+
+import static com.launchdarkly.client.TestUtil.booleanFlagWithClauses;
+import static com.launchdarkly.client.TestUtil.fallthroughVariation;
+import static com.launchdarkly.client.TestUtil.jbool;
+import static com.launchdarkly.client.TestUtil.js;
+import static com.launchdarkly.client.VersionedDataKind.FEATURES;
+import static com.launchdarkly.client.VersionedDataKind.SEGMENTS;
+import static org.junit.Assert.assertEquals;
+
+public class EvaluationCacheTest {
+  private static final LDUser user = new LDUser("userkey");
+
+  private final FeatureStore featureStore = new InMemoryFeatureStore();
+  private final EvaluationCache cache = new EvaluationCache(100, 60000);
+
+  private final FeatureFlag f0 = new FeatureFlagBuilder("feature0")
+      .on(true)
+      .prerequisites(Arrays.asList(new Prerequisite("feature1", 1)))
+      .fallthrough(fallthroughVariation(0))
+      .offVariation(1)
+      .variations(js("fall"), js("off"), js("on"))
+      .version(1)
+      .build();
+  private final FeatureFlag f1 = new FeatureFlagBuilder("feature1")
+      .on(true)
+      .fallthrough(fallthroughVariation(1))
+      .variations(js("nogo"), js("go"))
+      .version(2)
+      .build();
+
+  @Test
+  public void cachedResultIsReusedForEqualUser() throws Exception {
+    featureStore.upsert(FEATURES, f0);
+    featureStore.upsert(FEATURES, f1);
+    cache.evaluate(f0, user, featureStore, EventFactory.DEFAULT);
+    // A different flag object with the same key and version can only get the cached result
+    FeatureFlag sameVersion = new FeatureFlagBuilder(f0).fallthrough(fallthroughVariation(2)).build();
+    FeatureFlag.EvalResult result2 = cache.evaluate(sameVersion, new LDUser("userkey"), featureStore,
+        EventFactory.DEFAULT);
+
+    assertEquals(new EvaluationDetail<>(EvaluationReason.fallthrough(), 0, js("fall")), result2.getDetails());
+    assertEquals(1, result2.getPrerequisiteEvents().size());
+    Event.FeatureRequest event = result2.getPrerequisiteEvents().get(0);
+    assertEquals("feature1", event.key);
+    assertEquals(js("go"), event.value);
+    assertEquals("feature0", event.prereqOf);
+  }
+
+  @Test
+  public void prerequisiteEventsForCachedResultUseCurrentEventFactory() throws Exception {
+    featureStore.upsert(FEATURES, f0);
+    featureStore.upsert(FEATURES, f1);
+    cache.evaluate(f0, user, featureStore, EventFactory.DEFAULT);
+    FeatureFlag.EvalResult result = cache.evaluate(f0, user, featureStore, EventFactory.DEFAULT_WITH_REASONS);
+
+    assertEquals(EvaluationReason.fallthrough(), result.getPrerequisiteEvents().get(0).reason);
+  }
+
+  @Test
+  public void cachedResultIsNotUsedForDifferentUser() throws Exception {
+    Clause clause = new Clause("name", Operator.in, Arrays.asList(js("x")), false);
+    FeatureFlag flag = booleanFlagWithClauses("flag", clause);
+    featureStore.upsert(FEATURES, flag);
+    assertEquals(jbool(false), cache.evaluate(flag, user, featureStore, EventFactory.DEFAULT).getDetails().getValue());
+
+    LDUser userWithName = new LDUser.Builder("userkey").name("x").build();
+    assertEquals(jbool(true), cache.evaluate(flag, userWithName, featureStore, EventFactory.DEFAULT).getDetails().getValue());
+  }
+
+  @Test
+  public void cachedResultIsNotUsedAfterPrerequisiteChanges() throws Exception {
+    featureStore.upsert(FEATURES, f0);
+    featureStore.upsert(FEATURES, f1);
+    cache.evaluate(f0, user, featureStore, EventFactory.DEFAULT);
+    featureStore.upsert(FEATURES, new FeatureFlagBuilder(f1).on(false).version(3).build());
+    FeatureFlag.EvalResult result = cache.evaluate(f0, user, featureStore, EventFactory.DEFAULT);
+
+    assertEquals(EvaluationReason.prerequisiteFailed("feature1"), result.getDetails().getReason());
+  }
+
+  @Test
+  public void cachedResultIsNotUsedAfterMissingPrerequisiteIsAdded() throws Exception {
+    featureStore.upsert(FEATURES, f0);
+    cache.evaluate(f0, user, featureStore, EventFactory.DEFAULT);
+    featureStore.upsert(FEATURES, f1);
+    FeatureFlag.EvalResult result = cache.evaluate(f0, user, featureStore, EventFactory.DEFAULT);
+
+    assertEquals(EvaluationReason.fallthrough(), result.getDetails().getReason());
+  }
+
+  @Test
+  public void cachedResultIsNotUsedAfterSegmentChanges() throws Exception {
+    Clause clause = new Clause("", Operator.segmentMatch, Arrays.asList(js("segkey")), false);
+    FeatureFlag flag = booleanFlagWithClauses("flag", clause);
+    featureStore.upsert(FEATURES, flag);
+    featureStore.upsert(SEGMENTS, new Segment.Builder("segkey").version(1).build());
+    assertEquals(jbool(false), cache.evaluate(flag, user, featureStore, EventFactory.DEFAULT).getDetails().getValue());
+
+    featureStore.upsert(SEGMENTS, new Segment.Builder("segkey").included(Arrays.asList("userkey")).version(2).build());
+    assertEquals(jbool(true), cache.evaluate(flag, user, featureStore, EventFactory.DEFAULT).getDetails().getValue());
+  }
+
+  @Test
+  public void cachedResultIsNotUsedForNewFlagVersion() throws Exception {
+    featureStore.upsert(FEATURES, f0);
+    featureStore.upsert(FEATURES, f1);
+    cache.evaluate(f0, user, featureStore, EventFactory.DEFAULT);
+    FeatureFlag f0a = new FeatureFlagBuilder(f0).on(false).version(2).build();
+    featureStore.upsert(FEATURES, f0a);
+    FeatureFlag.EvalResult result = cache.evaluate(f0a, user, featureStore, EventFactory.DEFAULT);
+
+    assertEquals(EvaluationReason.off(), result.getDetails().getReason());
+  }
+}
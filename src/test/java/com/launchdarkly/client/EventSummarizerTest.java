@@ -97,4 +97,20 @@ public class EventSummarizerTest {
         new EventSummarizer.CounterValue(1, js("default3"), js("default3")));
     assertThat(data.counters, equalTo(expected));
   }
+
+  @Test
+  public void summarizeEventAddsCountOfEvent() {
+    EventSummarizer es = new EventSummarizer();
+    FeatureFlag flag = new FeatureFlagBuilder("key").version(11).build();
+    Event.FeatureRequest event = eventFactory.newFeatureRequestEvent(flag, user,
+        simpleEvaluation(1, js("value")), js("default"));
+    es.summarizeEvent(event);
+    es.summarizeEvent(new Event.FeatureRequest(event, 4));
+    EventSummarizer.EventSummary data = es.snapshot();
+
+    Map<EventSummarizer.CounterKey, EventSummarizer.CounterValue> expected = new HashMap<>();
+    expected.put(new EventSummarizer.CounterKey(flag.getKey(), 1, flag.getVersion()),
+        new EventSummarizer.CounterValue(5, js("value"), js("default")));
+    assertThat(data.counters, equalTo(expected));
+  }
 }
@@ -18,6 +18,8 @@ import static com.launchdarkly.client.VersionedDataKind.FEATURES;
 import static com.launchdarkly.client.VersionedDataKind.SEGMENTS;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
 
 public class FeatureFlagTest {
 
@@ -44,6 +46,49 @@ public class FeatureFlagTest {
     assertEquals(0, result.getPrerequisiteEvents().size());
   }
 
+  @Test
+  public void resultIsSharedForFlagThatIsOffOrHasNoTargeting() throws Exception {
+    FeatureFlag off = new FeatureFlagBuilder("feature")
+        .on(false)
+        .offVariation(1)
+        .prerequisites(Arrays.asList(new Prerequisite("feature1", 1)))
+        .fallthrough(fallthroughVariation(0))
+        .variations(js("fall"), js("off"), js("on"))
+        .build();
+    FeatureFlag untargeted = new FeatureFlagBuilder(off).on(true).prerequisites(null).build();
+    LDUser otherUser = new LDUser("otherkey");
+
+    for (FeatureFlag f: Arrays.asList(off, untargeted)) {
+      FeatureFlag.EvalResult result = f.evaluate(BASE_USER, featureStore, EventFactory.DEFAULT);
+      assertNotNull(f.getCompiled().getConstantResult());
+      assertSame(f.getCompiled().getConstantResult(), result.getDetails());
+      assertSame(result, f.evaluate(otherUser, featureStore, EventFactory.DEFAULT));
+      assertEquals(0, result.getPrerequisiteEvents().size());
+    }
+    assertEquals(new EvaluationDetail<>(EvaluationReason.fallthrough(), 0, js("fall")),
+        untargeted.getCompiled().getConstantResult());
+  }
+
+  @Test
+  public void resultIsNotSharedForFlagWithTargetingOrRollout() throws Exception {
+    FeatureFlag f = new FeatureFlagBuilder("feature")
+        .on(true)
+        .targets(Arrays.asList(new Target(Arrays.asList("userkey"), 2)))
+        .fallthrough(fallthroughVariation(0))
+        .variations(js("fall"), js("off"), js("on"))
+        .build();
+    assertNull(f.getCompiled().getConstantResult());
+
+    VariationOrRollout.Rollout rollout = new VariationOrRollout.Rollout(
+        Arrays.asList(new VariationOrRollout.WeightedVariation(0, 100000)), null);
+    FeatureFlag f2 = new FeatureFlagBuilder("feature")
+        .on(true)
+        .fallthrough(new VariationOrRollout(null, rollout))
+        .variations(js("fall"), js("off"), js("on"))
+        .build();
+    assertNull(f2.getCompiled().getConstantResult());
+  }
+
   @Test
   public void flagReturnsNullIfFlagIsOffAndOffVariationIsUnspecified() throws Exception {
     FeatureFlag f = new FeatureFlagBuilder("feature")
@@ -306,6 +351,154 @@ public class FeatureFlagTest {
     assertEquals(f0.getKey(), event1.prereqOf);
   }
   
+  @Test
+  public void flagReturnsOffVariationIfPrerequisiteReturnsMalformedFlagError() throws Exception {
+    FeatureFlag f0 = new FeatureFlagBuilder("feature0")
+        .on(true)
+        .prerequisites(Arrays.asList(new Prerequisite("feature1", 1)))
+        .fallthrough(fallthroughVariation(0))
+        .offVariation(1)
+        .variations(js("fall"), js("off"), js("on"))
+        .version(1)
+        .build();
+    FeatureFlag f1 = new FeatureFlagBuilder("feature1")
+        .on(true)
+        .fallthrough(fallthroughVariation(999))
+        .variations(js("nogo"), js("go"))
+        .version(2)
+        .build();
+    featureStore.upsert(FEATURES, f1);
+    FeatureFlag.EvalResult result = f0.evaluate(BASE_USER, featureStore, EventFactory.DEFAULT);
+    
+    EvaluationReason expectedReason = EvaluationReason.prerequisiteFailed("feature1");
+    assertEquals(new EvaluationDetail<>(expectedReason, 1, js("off")), result.getDetails());
+    assertEquals(1, result.getPrerequisiteEvents().size());
+  }
+
+  @Test
+  public void storedFlagSeesPrerequisiteThatIsStoredOrUpdatedLater() throws Exception {
+    FeatureFlag f0 = new FeatureFlagBuilder("feature0")
+        .on(true)
+        .prerequisites(Arrays.asList(new Prerequisite("feature1", 1)))
+        .fallthrough(fallthroughVariation(0))
+        .offVariation(1)
+        .variations(js("fall"), js("off"), js("on"))
+        .version(1)
+        .build();
+    featureStore.upsert(FEATURES, f0);
+    FeatureFlag.EvalResult result = f0.evaluate(BASE_USER, featureStore, EventFactory.DEFAULT);
+    assertEquals(EvaluationReason.prerequisiteFailed("feature1"), result.getDetails().getReason());
+
+    FeatureFlag f1 = new FeatureFlagBuilder("feature1")
+        .on(true)
+        .fallthrough(fallthroughVariation(1))
+        .variations(js("nogo"), js("go"))
+        .version(2)
+        .build();
+    featureStore.upsert(FEATURES, f1);
+    result = f0.evaluate(BASE_USER, featureStore, EventFactory.DEFAULT);
+    assertEquals(new EvaluationDetail<>(EvaluationReason.fallthrough(), 0, js("fall")), result.getDetails());
+
+    featureStore.upsert(FEATURES, new FeatureFlagBuilder(f1).on(false).version(3).build());
+    result = f0.evaluate(BASE_USER, featureStore, EventFactory.DEFAULT);
+    assertEquals(EvaluationReason.prerequisiteFailed("feature1"), result.getDetails().getReason());
+    assertEquals(3, result.getPrerequisiteEvents().get(0).version.intValue());
+
+    featureStore.delete(FEATURES, "feature1", 4);
+    result = f0.evaluate(BASE_USER, featureStore, EventFactory.DEFAULT);
+    assertEquals(EvaluationReason.prerequisiteFailed("feature1"), result.getDetails().getReason());
+    assertEquals(0, result.getPrerequisiteEvents().size());
+  }
+
+  @Test
+  public void prerequisiteCycleReturnsOffVariationInsteadOfRecursingForever() throws Exception {
+    FeatureFlag f0 = new FeatureFlagBuilder("feature0")
+        .on(true)
+        .prerequisites(Arrays.asList(new Prerequisite("feature1", 1)))
+        .fallthrough(fallthroughVariation(0))
+        .offVariation(1)
+        .variations(js("fall"), js("off"), js("on"))
+        .version(1)
+        .build();
+    FeatureFlag f1 = new FeatureFlagBuilder("feature1")
+        .on(true)
+        .prerequisites(Arrays.asList(new Prerequisite("feature0", 0)))
+        .fallthrough(fallthroughVariation(1))
+        .variations(js("nogo"), js("go"))
+        .version(2)
+        .build();
+    featureStore.upsert(FEATURES, f0);
+    featureStore.upsert(FEATURES, f1);
+    FeatureFlag.EvalResult result = f0.evaluate(BASE_USER, featureStore, EventFactory.DEFAULT);
+
+    EvaluationReason expectedReason = EvaluationReason.prerequisiteFailed("feature1");
+    assertEquals(new EvaluationDetail<>(expectedReason, 1, js("off")), result.getDetails());
+    assertEquals(1, result.getPrerequisiteEvents().size());
+  }
+
+  @Test
+  public void prerequisiteResultIsSharedThroughScope() throws Exception {
+    FeatureFlag f0 = new FeatureFlagBuilder("feature0")
+        .on(true)
+        .prerequisites(Arrays.asList(new Prerequisite("feature1", 1)))
+        .fallthrough(fallthroughVariation(0))
+        .offVariation(1)
+        .variations(js("fall"), js("off"), js("on"))
+        .version(1)
+        .build();
+    FeatureFlag f1 = new FeatureFlagBuilder("feature1")
+        .on(true)
+        .targets(Arrays.asList(new Target(Arrays.asList("otheruser"), 0)))
+        .fallthrough(fallthroughVariation(1))
+        .variations(js("nogo"), js("go"))
+        .version(2)
+        .build();
+    featureStore.upsert(FEATURES, f0);
+    featureStore.upsert(FEATURES, f1);
+    EvaluationScope scope = new EvaluationScope(2);
+    EvaluationDetail<JsonElement> result = f0.getCompiled().evaluate(BASE_USER, featureStore, scope);
+
+    assertEquals(new EvaluationDetail<>(EvaluationReason.fallthrough(), 0, js("fall")), result);
+    assertEquals(new EvaluationDetail<>(EvaluationReason.fallthrough(), 1, js("go")), scope.get(f1));
+    assertSame(result, scope.get(f0));
+
+    // A result already in the scope is used instead of evaluating the prerequisite again
+    EvaluationScope scope2 = new EvaluationScope(2);
+    scope2.put(f1, new EvaluationDetail<>(EvaluationReason.fallthrough(), 0, js("nogo")));
+    EvaluationDetail<JsonElement> result2 = f0.getCompiled().evaluate(BASE_USER, featureStore, scope2);
+    assertEquals(new EvaluationDetail<>(EvaluationReason.prerequisiteFailed("feature1"), 1, js("off")), result2);
+  }
+
+  @Test
+  public void resultsInvolvingPrerequisiteCycleAreNotShared() throws Exception {
+    FeatureFlag f0 = new FeatureFlagBuilder("feature0")
+        .on(true)
+        .prerequisites(Arrays.asList(new Prerequisite("feature1", 1)))
+        .fallthrough(fallthroughVariation(0))
+        .offVariation(1)
+        .variations(js("fall"), js("off"), js("on"))
+        .version(1)
+        .build();
+    FeatureFlag f1 = new FeatureFlagBuilder("feature1")
+        .on(true)
+        .prerequisites(Arrays.asList(new Prerequisite("feature0", 0)))
+        .fallthrough(fallthroughVariation(1))
+        .offVariation(0)
+        .variations(js("nogo"), js("go"))
+        .version(2)
+        .build();
+    featureStore.upsert(FEATURES, f0);
+    featureStore.upsert(FEATURES, f1);
+    EvaluationScope scope = new EvaluationScope(2);
+
+    assertEquals(f0.evaluate(BASE_USER, featureStore, EventFactory.DEFAULT).getDetails(),
+        f0.getCompiled().evaluate(BASE_USER, featureStore, scope));
+    assertEquals(f1.evaluate(BASE_USER, featureStore, EventFactory.DEFAULT).getDetails(),
+        f1.getCompiled().evaluate(BASE_USER, featureStore, scope));
+    assertNull(scope.get(f0));
+    assertNull(scope.get(f1));
+  }
+
   @Test
   public void flagMatchesUserFromTargets() throws Exception {
     FeatureFlag f = new FeatureFlagBuilder("feature")
@@ -336,6 +529,24 @@ public class FeatureFlagTest {
     assertEquals(0, result.getPrerequisiteEvents().size());
   }
   
+  @Test
+  public void repeatedEvaluationsReuseTheSameResultObjects() {
+    Clause clause = new Clause("key", Operator.in, Arrays.asList(js("userkey")), false);
+    Rule rule = new Rule("ruleid", Arrays.asList(clause), 2, null);
+    FeatureFlag f = featureFlagWithRules("feature", rule);
+    featureStore.upsert(FEATURES, f);
+    LDUser user = new LDUser.Builder("userkey").build();
+    LDUser otherUser = new LDUser.Builder("otherkey").build();
+    
+    EvaluationDetail<JsonElement> ruleResult = f.evaluate(user, featureStore, EventFactory.DEFAULT).getDetails();
+    assertEquals(new EvaluationDetail<>(EvaluationReason.ruleMatch(0, "ruleid"), 2, js("on")), ruleResult);
+    assertSame(ruleResult, f.evaluate(user, featureStore, EventFactory.DEFAULT).getDetails());
+    
+    EvaluationDetail<JsonElement> fallthroughResult = f.evaluate(otherUser, featureStore, EventFactory.DEFAULT).getDetails();
+    assertEquals(new EvaluationDetail<>(EvaluationReason.fallthrough(), 0, js("fall")), fallthroughResult);
+    assertSame(fallthroughResult, f.evaluate(otherUser, featureStore, EventFactory.DEFAULT).getDetails());
+  }
+  
   @Test
   public void ruleWithTooHighVariationReturnsMalformedFlagError() {
     Clause clause = new Clause("key", Operator.in, Arrays.asList(js("userkey")), false);
@@ -412,6 +623,35 @@ public class FeatureFlagTest {
     assertEquals(jbool(false), f.evaluate(user, featureStore, EventFactory.DEFAULT).getDetails().getValue());
   }
   
+  @Test
+  public void negatedClauseReturnsFalseForMissingAttribute() throws Exception {
+    Clause clause = new Clause("legs", Operator.in, Arrays.asList(jint(4)), true);
+    FeatureFlag f = booleanFlagWithClauses("flag", clause);
+    LDUser user = new LDUser.Builder("key").name("Bob").build();
+
+    assertEquals(jbool(false), f.evaluate(user, featureStore, EventFactory.DEFAULT).getDetails().getValue());
+  }
+
+  @Test
+  public void ruleWithMissingAttributeIsSkippedWithoutStoppingLaterRules() throws Exception {
+    Clause missing = new Clause("legs", Operator.in, Arrays.asList(jint(4)), true);
+    Clause present = new Clause("name", Operator.in, Arrays.asList(js("Bob")), false);
+    FeatureFlag f = new FeatureFlagBuilder("flag")
+        .on(true)
+        .rules(Arrays.asList(new Rule("rule0", Arrays.asList(present, missing), 2, null),
+            new Rule("rule1", Arrays.asList(present), 1, null)))
+        .fallthrough(fallthroughVariation(0))
+        .variations(js("fall"), js("rule1"), js("rule0"))
+        .build();
+    LDUser user = new LDUser.Builder("key").name("Bob").build();
+    LDUser userWithLegs = new LDUser.Builder("key").name("Bob").custom("legs", 3).build();
+
+    assertEquals(EvaluationReason.ruleMatch(1, "rule1"),
+        f.evaluate(user, featureStore, EventFactory.DEFAULT).getDetails().getReason());
+    assertEquals(EvaluationReason.ruleMatch(0, "rule0"),
+        f.evaluate(userWithLegs, featureStore, EventFactory.DEFAULT).getDetails().getReason());
+  }
+
   @Test
   public void clauseCanBeNegated() throws Exception {
     Clause clause = new Clause("name", Operator.in, Arrays.asList(js("Bob")), true);
@@ -479,6 +719,20 @@ public class FeatureFlagTest {
     assertEquals(jbool(true), result.getDetails().getValue());
   }
 
+  @Test
+  public void testSegmentMatchClauseSeesSegmentStoredAfterFlag() throws Exception {
+    FeatureFlag flag = segmentMatchBooleanFlag("segkey");
+    featureStore.upsert(FEATURES, flag);
+    LDUser user = new LDUser.Builder("foo").build();
+    assertEquals(jbool(false), flag.evaluate(user, featureStore, EventFactory.DEFAULT).getDetails().getValue());
+
+    featureStore.upsert(SEGMENTS, new Segment.Builder("segkey").included(Arrays.asList("foo")).version(1).build());
+    assertEquals(jbool(true), flag.evaluate(user, featureStore, EventFactory.DEFAULT).getDetails().getValue());
+
+    featureStore.delete(SEGMENTS, "segkey", 2);
+    assertEquals(jbool(false), flag.evaluate(user, featureStore, EventFactory.DEFAULT).getDetails().getValue());
+  }
+
   @Test
   public void testSegmentMatchClauseFallsThroughIfSegmentNotFound() throws Exception {
     FeatureFlag flag = segmentMatchBooleanFlag("segkey");
@@ -1,6 +1,16 @@
 package com.launchdarkly.client;
 
 import org.junit.Before;
+import org.junit.Test;
+
+import static com.launchdarkly.client.VersionedDataKind.FEATURES;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
 
 public class InMemoryFeatureStoreTest extends FeatureStoreTestBase<InMemoryFeatureStore> {
 
@@ -8,4 +18,81 @@ public class InMemoryFeatureStoreTest extends FeatureStoreTestBase<InMemoryFeatu
   public void setup() {
     store = new InMemoryFeatureStore();
   }
+
+  @Test
+  public void snapshotIsNotAffectedByLaterChanges() {
+    initStore();
+    FeatureStoreSnapshot snapshot = store.snapshot();
+    store.upsert(FEATURES, new FeatureFlagBuilder(feature1).version(feature1.getVersion() + 1).build());
+    store.delete(FEATURES, feature2.getKey(), feature2.getVersion() + 1);
+
+    assertEquals(feature1.getVersion(), snapshot.get(FEATURES, feature1.getKey()).getVersion());
+    assertEquals(feature2.getVersion(), snapshot.get(FEATURES, feature2.getKey()).getVersion());
+    assertEquals(2, snapshot.all(FEATURES).size());
+
+    FeatureStoreSnapshot later = store.snapshot();
+    assertEquals(feature1.getVersion() + 1, later.get(FEATURES, feature1.getKey()).getVersion());
+    assertNull(later.get(FEATURES, feature2.getKey()));
+    assertEquals(1, later.all(FEATURES).size());
+    assertTrue(later.getVersion() > snapshot.getVersion());
+  }
+
+  @Test
+  public void snapshotIsReusedUntilStoreChanges() {
+    FeatureStoreSnapshot empty = store.snapshot();
+    assertFalse(empty.initialized());
+    initStore();
+    FeatureStoreSnapshot snapshot = store.snapshot();
+    assertTrue(snapshot.initialized());
+    assertSame(snapshot, store.snapshot());
+
+    store.upsert(FEATURES, feature1); // same version, so nothing changes
+    assertSame(snapshot, store.snapshot());
+
+    store.upsert(FEATURES, new FeatureFlagBuilder(feature1).version(feature1.getVersion() + 1).build());
+    assertNotSame(snapshot, store.snapshot());
+  }
+
+  @Test
+  public void emptySlotsAreReleasedWhenNothingRefersToThem() throws Exception {
+    initStore();
+    int initialCount = store.slotCount();
+    for (int i = 0; i < 1000; i++) {
+      store.slotFor(FEATURES, "unknown" + i);
+      store.upsert(FEATURES, new FeatureFlagBuilder("removed" + i).version(1).build());
+    }
+    initStore(); // removes the flags that were added
+    for (int i = 0; i < 50 && store.slotCount() > initialCount; i++) {
+      System.gc();
+      Thread.sleep(10);
+    }
+    assertEquals(initialCount, store.slotCount());
+    assertNotNull(store.get(FEATURES, feature1.getKey()));
+  }
+
+  @Test
+  public void slotThatIsHeldSeesLaterChanges() {
+    ItemSlot slot = store.slotFor(FEATURES, "later");
+    System.gc();
+    store.upsert(FEATURES, new FeatureFlagBuilder("later").version(1).build());
+    assertSame(slot, store.slotFor(FEATURES, "later"));
+    assertEquals("later", slot.get(FEATURES).getKey());
+  }
+
+  @Test
+  public void initReplacesAttributeRegistry() {
+    initStore();
+    AttributePresence.Registry registry = store.attributeRegistry();
+    assertSame(registry, feature1.getCompiled().getAttributeRegistry());
+
+    initStore();
+    assertNotSame(registry, store.attributeRegistry());
+    assertSame(store.attributeRegistry(), feature1.getCompiled().getAttributeRegistry());
+  }
+
+  @Test(expected = UnsupportedOperationException.class)
+  public void snapshotCannotBeModified() {
+    initStore();
+    store.snapshot().asFeatureStore().upsert(FEATURES, feature1);
+  }
 }
@@ -9,6 +9,7 @@ import org.junit.Test;
 
 import java.util.Arrays;
 import java.util.Map;
+import java.util.concurrent.ForkJoinPool;
 
 import static com.launchdarkly.client.TestUtil.booleanFlagWithClauses;
 import static com.launchdarkly.client.TestUtil.failedUpdateProcessor;
@@ -26,6 +27,7 @@ import static com.launchdarkly.client.VersionedDataKind.SEGMENTS;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
 import static org.junit.Assert.assertTrue;
 
 public class LDClientEvaluationTest {
@@ -101,6 +103,14 @@ public class LDClientEvaluationTest {
     assertEquals(new Double(2.0d), client.doubleVariation("key", user, 1.0d));
   }
 
+  @Test
+  public void doubleVariationReturnsValueConvertedWhenFlagWasStored() throws Exception {
+    featureStore.upsert(FEATURES, flagWithValue("key", jdouble(2.5d)));
+
+    Double value = client.doubleVariation("key", user, 1.0d);
+    assertSame(value, client.doubleVariation("key", user, 1.0d));
+  }
+
   @Test
   public void doubleVariationReturnsDefaultValueForUnknownFlag() throws Exception {
     assertEquals(new Double(1.0d), client.doubleVariation("key", user, 1.0d));
@@ -241,6 +251,56 @@ public class LDClientEvaluationTest {
     }
   }
   
+  @Test
+  public void flagHandlesReturnSameResultsAsVariationMethods() throws Exception {
+    featureStore.upsert(FEATURES, flagWithValue("bool", jbool(true)));
+    featureStore.upsert(FEATURES, flagWithValue("int", jint(2)));
+    featureStore.upsert(FEATURES, flagWithValue("double", jdouble(2.5)));
+    featureStore.upsert(FEATURES, flagWithValue("string", js("x")));
+    featureStore.upsert(FEATURES, flagWithValue("json", js("y")));
+    LDClient ldClient = (LDClient)client;
+
+    assertEquals(client.boolVariationDetail("bool", user, false), ldClient.boolFlag("bool").variationDetail(user, false));
+    assertEquals(client.intVariationDetail("int", user, 1), ldClient.intFlag("int").variationDetail(user, 1));
+    assertEquals(client.doubleVariationDetail("double", user, 1.0), ldClient.doubleFlag("double").variationDetail(user, 1.0));
+    assertEquals(client.stringVariationDetail("string", user, "a"), ldClient.stringFlag("string").variationDetail(user, "a"));
+    assertEquals(client.jsonVariationDetail("json", user, js("b")), ldClient.jsonFlag("json").variationDetail(user, js("b")));
+    assertEquals(client.intVariationDetail("bool", user, 1), ldClient.intFlag("bool").variationDetail(user, 1));
+    assertEquals(client.stringVariationDetail("unknown", user, "a"), ldClient.stringFlag("unknown").variationDetail(user, "a"));
+    assertEquals(client.stringVariationDetail("string", null, "a"), ldClient.stringFlag("string").variationDetail(null, "a"));
+    assertEquals(Integer.valueOf(2), ldClient.intFlag("int").variation(user, 1));
+    assertEquals(Integer.valueOf(1), ldClient.intFlag("bool").variation(user, 1));
+  }
+
+  @Test
+  public void flagHandleSeesUpdatedAndDeletedFlag() throws Exception {
+    FlagHandle<String> handle = ((LDClient)client).stringFlag("key");
+    assertEquals("default", handle.variation(user, "default"));
+
+    featureStore.upsert(FEATURES, new FeatureFlagBuilder(flagWithValue("key", js("a"))).version(1).build());
+    assertEquals("a", handle.variation(user, "default"));
+
+    featureStore.upsert(FEATURES, new FeatureFlagBuilder(flagWithValue("key", js("b"))).version(2).build());
+    assertEquals("b", handle.variation(user, "default"));
+
+    featureStore.delete(FEATURES, "key", 3);
+    assertEquals("default", handle.variation(user, "default"));
+  }
+
+  @Test
+  public void flagHandleLooksUpFlagByKeyInOtherFeatureStores() throws Exception {
+    FeatureStore badFeatureStore = featureStoreThatThrowsException(new RuntimeException("sorry"));
+    LDConfig badConfig = new LDConfig.Builder()
+        .featureStoreFactory(specificFeatureStore(badFeatureStore))
+        .eventProcessorFactory(Components.nullEventProcessor())
+        .updateProcessorFactory(Components.nullUpdateProcessor())
+        .build();
+    try (LDClient badClient = new LDClient("SDK_KEY", badConfig)) {
+      EvaluationDetail<Boolean> expectedResult = EvaluationDetail.error(EvaluationReason.ErrorKind.EXCEPTION, false);
+      assertEquals(expectedResult, badClient.boolFlag("key").variationDetail(user, false));
+    }
+  }
+
   @SuppressWarnings("deprecation")
   @Test
   public void allFlagsReturnsFlagValues() throws Exception {
@@ -409,6 +469,41 @@ public class LDClientEvaluationTest {
     assertEquals(expected, gson.toJsonTree(state));    
   }
   
+  @Test
+  public void allFlagsStateIsSameWhenEvaluatedInParallel() throws Exception {
+    int numFlags = FlagsStateEvaluator.MIN_FLAGS_PER_TASK * 5;
+    for (int i = 0; i < numFlags; i++) {
+      FeatureFlagBuilder builder = new FeatureFlagBuilder("key" + i)
+          .version(i)
+          .on(i % 3 != 0)
+          .offVariation(0)
+          .fallthrough(fallthroughVariation(1))
+          .variations(js("off" + i), js("on" + i));
+      if (i > 0) {
+        builder.prerequisites(Arrays.asList(new Prerequisite("key" + (i - 1), 1)));
+      }
+      featureStore.upsert(FEATURES, builder.build());
+    }
+    FeatureFlagsState expected = client.allFlagsState(user, FlagsStateOption.WITH_REASONS);
+
+    ForkJoinPool pool = new ForkJoinPool(4);
+    try {
+      LDConfig parallelConfig = new LDConfig.Builder()
+          .featureStoreFactory(specificFeatureStore(featureStore))
+          .eventProcessorFactory(Components.nullEventProcessor())
+          .updateProcessorFactory(Components.nullUpdateProcessor())
+          .allFlagsStatePool(pool)
+          .build();
+      try (LDClientInterface parallelClient = new LDClient("SDK_KEY", parallelConfig)) {
+        FeatureFlagsState state = parallelClient.allFlagsState(user, FlagsStateOption.WITH_REASONS);
+        assertEquals(numFlags, state.toValuesMap().size());
+        assertEquals(expected, state);
+      }
+    } finally {
+      pool.shutdown();
+    }
+  }
+
   @Test
   public void allFlagsStateReturnsEmptyStateForNullUser() throws Exception {
     featureStore.upsert(FEATURES, flagWithValue("key", js("value")));
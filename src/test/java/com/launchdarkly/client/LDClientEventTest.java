@@ -257,6 +257,21 @@ public class LDClientEventTest {
         EvaluationReason.error(ErrorKind.FLAG_NOT_FOUND));
   }
 
+  @Test
+  public void flagHandleSendsSameEventsAsVariationMethods() throws Exception {
+    FeatureFlag flag = flagWithValue("key", jint(2));
+    featureStore.upsert(FEATURES, flag);
+    FlagHandle<Integer> handle = ((LDClient)client).intFlag("key");
+
+    handle.variation(user, 1);
+    handle.variationDetail(user, 1);
+    ((LDClient)client).intFlag("unknown").variation(user, 1);
+    assertEquals(3, eventSink.events.size());
+    checkFeatureEvent(eventSink.events.get(0), flag, jint(2), jint(1), null, null);
+    checkFeatureEvent(eventSink.events.get(1), flag, jint(2), jint(1), null, EvaluationReason.off());
+    checkUnknownFeatureEvent(eventSink.events.get(2), "unknown", jint(1), null, null);
+  }
+
   @Test
   public void eventIsSentForExistingPrererequisiteFlag() throws Exception {
     FeatureFlag f0 = new FeatureFlagBuilder("feature0")
@@ -309,6 +324,42 @@ public class LDClientEventTest {
     checkFeatureEvent(eventSink.events.get(1), f0, js("fall"), js("default"), null, EvaluationReason.fallthrough());
   }
 
+  @Test
+  public void eventsAreSentForEveryEvaluationWhenResultIsCached() throws Exception {
+    LDConfig cachingConfig = new LDConfig.Builder()
+        .featureStoreFactory(specificFeatureStore(featureStore))
+        .eventProcessorFactory(specificEventProcessor(eventSink))
+        .updateProcessorFactory(Components.nullUpdateProcessor())
+        .evaluationCacheSize(100)
+        .build();
+    LDClientInterface cachingClient = new LDClient("SDK_KEY", cachingConfig);
+    FeatureFlag f0 = new FeatureFlagBuilder("feature0")
+        .on(true)
+        .prerequisites(Arrays.asList(new Prerequisite("feature1", 1)))
+        .fallthrough(fallthroughVariation(0))
+        .offVariation(1)
+        .variations(js("fall"), js("off"), js("on"))
+        .version(1)
+        .build();
+    FeatureFlag f1 = new FeatureFlagBuilder("feature1")
+        .on(true)
+        .fallthrough(fallthroughVariation(1))
+        .variations(js("nogo"), js("go"))
+        .version(2)
+        .build();
+    featureStore.upsert(FEATURES, f0);
+    featureStore.upsert(FEATURES, f1);
+
+    cachingClient.stringVariation("feature0", user, "default");
+    cachingClient.stringVariationDetail("feature0", user, "default");
+
+    assertEquals(4, eventSink.events.size());
+    checkFeatureEvent(eventSink.events.get(0), f1, js("go"), null, "feature0", null);
+    checkFeatureEvent(eventSink.events.get(1), f0, js("fall"), js("default"), null, null);
+    checkFeatureEvent(eventSink.events.get(2), f1, js("go"), null, "feature0", EvaluationReason.fallthrough());
+    checkFeatureEvent(eventSink.events.get(3), f0, js("fall"), js("default"), null, EvaluationReason.fallthrough());
+  }
+
   @Test
   public void eventIsNotSentForUnknownPrererequisiteFlag() throws Exception {
     FeatureFlag f0 = new FeatureFlagBuilder("feature0")
@@ -23,8 +23,11 @@ import static com.launchdarkly.client.TestUtil.jdouble;
 import static com.launchdarkly.client.TestUtil.jint;
 import static com.launchdarkly.client.TestUtil.js;
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertNotNull;
 import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
 
 public class LDUserTest {
   private static final Gson defaultGson = new Gson();
@@ -53,6 +56,93 @@ public class LDUserTest {
     assertEquals("k", user.getKeyAsString());
   }
   
+  @Test
+  public void valueForEvaluationIsBuiltInOrCustomAttributeByName() {
+    LDUser user = new LDUser.Builder("key")
+        .secondary("s")
+        .email("e")
+        .custom("org", "LaunchDarkly")
+        .build();
+    assertEquals(js("key"), user.getValueForEvaluation("key"));
+    assertEquals(js("e"), user.getValueForEvaluation("email"));
+    assertEquals(js("LaunchDarkly"), user.getValueForEvaluation("org"));
+    assertNull(user.getValueForEvaluation("secondary"));
+    assertNull(user.getValueForEvaluation("name"));
+    assertNull(user.getValueForEvaluation("other"));
+    assertNull(user.getValueForEvaluation(null));
+  }
+
+  @Test
+  public void attributeValueIsConvertedOnlyOncePerType() {
+    LDUser user = new LDUser.Builder("key")
+        .custom("version", "2.0.1")
+        .custom("date", "2017-12-06T00:00:00.000-07:00")
+        .build();
+    JsonPrimitive version = user.getValueForEvaluation("version").getAsJsonPrimitive();
+    JsonPrimitive date = user.getValueForEvaluation("date").getAsJsonPrimitive();
+    Object parsedVersion = user.getValueAsType(version, OperandType.semVer);
+    Object parsedDate = user.getValueAsType(date, OperandType.date);
+
+    assertEquals(0, ((SemanticVersion)parsedVersion).compareTo((SemanticVersion)OperandType.semVer.getValueAsType(version)));
+    assertEquals(OperandType.date.getValueAsType(date), parsedDate);
+    assertSame(parsedVersion, user.getValueAsType(version, OperandType.semVer));
+    assertSame(parsedDate, user.getValueAsType(date, OperandType.date));
+    assertNull(user.getValueAsType(version, OperandType.date));
+    assertNull(user.getValueAsType(version, OperandType.date));
+  }
+
+  @Test
+  public void hasAttributesChecksBuiltInAndCustomAttributes() {
+    LDUser user = new LDUser.Builder("key")
+        .email("a@b")
+        .custom("tier", "gold")
+        .build();
+    AttributePresence.Registry registry = new AttributePresence.Registry();
+    long email = registry.bitFor("email");
+    long name = registry.bitFor("name");
+    long tier = registry.bitFor("tier");
+
+    assertTrue(user.hasAttributes(registry, email | tier));
+    assertFalse(user.hasAttributes(registry, email | name));
+    assertFalse(user.hasAttributes(registry, registry.bitFor("secondary")));
+  }
+
+  @Test
+  public void hasAttributesSeesAttributeGivenBitAfterFirstCheck() {
+    LDUser user = new LDUser.Builder("key")
+        .custom("attributeGivenBitLater", "x")
+        .build();
+    AttributePresence.Registry registry = new AttributePresence.Registry();
+    assertTrue(user.hasAttributes(registry, registry.bitFor("key")));
+    assertTrue(user.hasAttributes(registry, registry.bitFor("attributeGivenBitLater")));
+    assertFalse(user.hasAttributes(registry, registry.bitFor("otherAttributeGivenBitLater")));
+  }
+
+  @Test
+  public void hasAttributesUsesBitsOfTheGivenRegistry() {
+    LDUser user = new LDUser.Builder("key")
+        .custom("b", "x")
+        .build();
+    AttributePresence.Registry registry1 = new AttributePresence.Registry();
+    AttributePresence.Registry registry2 = new AttributePresence.Registry();
+    long a1 = registry1.bitFor("a");
+    long b1 = registry1.bitFor("b");
+    long b2 = registry2.bitFor("b");
+    long a2 = registry2.bitFor("a");
+    assertEquals(a1, b2);
+
+    assertFalse(user.hasAttributes(registry1, a1));
+    assertTrue(user.hasAttributes(registry2, b2));
+    assertTrue(user.hasAttributes(registry1, b1));
+    assertFalse(user.hasAttributes(registry2, a2));
+  }
+
+  @Test
+  public void builtInOnlyRegistryGivesNoBitsToCustomAttributes() {
+    assertEquals(0, AttributePresence.Registry.BUILT_IN_ONLY.bitFor("tier"));
+    assertTrue(AttributePresence.Registry.BUILT_IN_ONLY.bitFor("email") != 0);
+  }
+
   @Test
   public void canSetSecondary() {
     LDUser user = new LDUser.Builder("key").secondary("s").build();
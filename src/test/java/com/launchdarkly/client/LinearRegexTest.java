@@ -0,0 +1,177 @@
+package com.launchdarkly.client;
+
+import com.google.gson.JsonPrimitive;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Random;
+import java.util.regex.Pattern;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class LinearRegexTest {
+  private static final String[] ATOMS = { "a", "b", ".", "[ab]", "[^a]", "[a-c\\d]", "\\d", "\\w", "\\s", "\\S",
+      "^", "$", "\\.", "\\n", "(?:ab|c)", "()" };
+  private static final String[] QUANTIFIERS = { "", "", "", "*", "+", "?", "{2}", "{1,}", "{0,2}", "*?", "+?" };
+  private static final String INPUT_CHARS = "aabbc1. \n\r 😀";
+
+  @Test
+  public void findsMatchExactlyWhenPatternDoes() {
+    Random random = new Random(2);
+    for (int round = 0; round < 2000; round++) {
+      String pattern = randomPattern(random, 2);
+      LinearRegex regex = LinearRegex.compile(Collections.singletonList(pattern));
+      assertNotNull(pattern, regex);
+      for (int i = 0; i < 20; i++) {
+        String input = randomInput(random);
+        assertEquals("/" + pattern + "/ on \"" + input + "\"", Pattern.compile(pattern).matcher(input).find(),
+            regex.find(input));
+      }
+    }
+  }
+
+  @Test
+  public void endAnchorMatchesBeforeFinalLineTerminator() {
+    LinearRegex regex = LinearRegex.compile(Collections.singletonList("a$"));
+    assertTrue(regex.find("a\n"));
+    assertTrue(regex.find("a\r\n"));
+    assertFalse(regex.find("a\n\n"));
+  }
+
+  @Test
+  public void combinedPatternsMatchIfAnyMatches() {
+    LinearRegex regex = LinearRegex.compile(Arrays.asList("^abc$", "x+y", "\\d{3}"));
+    assertTrue(regex.find("abc"));
+    assertTrue(regex.find("--xxy"));
+    assertTrue(regex.find("a123"));
+    assertFalse(regex.find("abcd 12"));
+  }
+
+  @Test
+  public void unsupportedSyntaxIsNotCompiled() {
+    for (String pattern: Arrays.asList("(a)\\1", "a(?=b)", "(?i)a", "\\bword", "\\p{L}", "a*+", "[a-z&&[^x]]", "\\Qa\\E")) {
+      assertNull(pattern, LinearRegex.compile(Collections.singletonList(pattern)));
+    }
+  }
+
+  @Test
+  public void stackedQuantifiersAreLeftToPattern() {
+    String[][] cases = {
+        { "a{2}{3}", "aa" }, { "a{2}{3}", "aaa" }, { "a{2}{3}", "aaaa" }, { "a{2}{3}", "xaa" },
+        { "a{2}{2}", "aa" }, { "a+{2}", "a" }, { "a{1}{2}", "a" }, { "(ab){2}{2}", "abab" },
+        { "a{2}{3}b", "aab" }, { "a*?{2}", "a" }
+    };
+    for (String[] c: cases) {
+      String pattern = c[0], input = c[1];
+      assertNull(pattern, LinearRegex.compile(Collections.singletonList(pattern)));
+      RegexMatcher matcher = RegexMatcher.of(Arrays.asList(new JsonPrimitive(pattern)));
+      assertEquals("/" + pattern + "/ on \"" + input + "\"", Pattern.compile(pattern).matcher(input).find(),
+          matcher.matchAny(new JsonPrimitive(input)));
+    }
+  }
+
+  @Test
+  public void pathologicalPatternTakesLinearTime() {
+    StringBuilder input = new StringBuilder();
+    for (int i = 0; i < 5000; i++) {
+      input.append('a');
+    }
+    LinearRegex regex = LinearRegex.compile(Collections.singletonList("^(a|aa)+$|(a+)+b"));
+    assertNotNull(regex);
+    assertTrue(regex.find(input.toString()));
+    assertFalse(regex.find(input.append('c').toString()));
+  }
+
+  @Test
+  public void linearProgramMatchesLongInputWithoutBudget() {
+    StringBuilder input = new StringBuilder();
+    for (int i = 0; i < 200000; i++) {
+      input.append((char) ('a' + i % 26));
+    }
+    input.append("needle");
+    RegexMatcher matcher = RegexMatcher.of(Arrays.asList(new JsonPrimitive("(foo|bar|baz)?[a-z]*needle")));
+    assertTrue(matcher.matchAny(new JsonPrimitive(input.toString())));
+  }
+
+  @Test(expected = RegexMatcher.StepBudgetExceededException.class)
+  public void backtrackingPatternStopsWhenBudgetIsExceeded() {
+    // The lookahead is not supported by LinearRegex, so this uses Pattern
+    RegexMatcher matcher = RegexMatcher.of(Arrays.asList(new JsonPrimitive("(.*a){12}(?=x)")));
+    matcher.matchAny(new JsonPrimitive("aaaaaaaaaaaaaaaaaaaaaaaaac"));
+  }
+
+  @Test
+  public void linearEngineCanBeDisabled() {
+    // Pattern tries every start position and reads to the end of the input from each one
+    RegexMatcher matcher = RegexMatcher.of(Arrays.asList(new JsonPrimitive("[a-z]*x")));
+    StringBuilder sb = new StringBuilder();
+    for (int i = 0; i < 2000; i++) {
+      sb.append('a');
+    }
+    JsonPrimitive input = new JsonPrimitive(sb.toString());
+    assertFalse(matcher.matchAny(input));
+    RegexMatcher.setLinearEngineDisabled(true);
+    try {
+      matcher.matchAny(input);
+      fail("expected backtracking to exceed the budget");
+    } catch (RegexMatcher.StepBudgetExceededException e) {
+    } finally {
+      RegexMatcher.setLinearEngineDisabled(false);
+    }
+  }
+
+  @Test
+  public void patternsThatAreTooLargeTogetherAreLeftToPattern() {
+    RegexMatcher matcher = RegexMatcher.of(Arrays.asList(new JsonPrimitive("a{6000}"), new JsonPrimitive("b{6000}"),
+        new JsonPrimitive("c")));
+    assertTrue(matcher.matchAny(new JsonPrimitive("xc")));
+  }
+
+  @Test
+  public void clauseDoesNotMatchIfBudgetIsExceeded() {
+    LDUser user = new LDUser.Builder("key").name("aaaaaaaaaaaaaaaaaaaaaaaaac").build();
+    for (boolean negate: Arrays.asList(false, true)) {
+      Clause clause = new Clause("name", Operator.matches, Arrays.asList(new JsonPrimitive("(.*a){12}(?=x)")), negate);
+      assertFalse(clause.matchesUserNoSegments(user));
+    }
+  }
+
+  @Test
+  public void invalidPatternIsNotPrepared() {
+    assertNull(Operator.matches.prepareValues(Arrays.asList(new JsonPrimitive("a"), new JsonPrimitive("***"))));
+  }
+
+  private static String randomPattern(Random random, int depth) {
+    StringBuilder sb = new StringBuilder();
+    int n = 1 + random.nextInt(3);
+    for (int i = 0; i < n; i++) {
+      if (depth > 0 && random.nextInt(4) == 0) {
+        sb.append('(').append(randomPattern(random, depth - 1));
+        if (random.nextBoolean()) {
+          sb.append('|').append(randomPattern(random, depth - 1));
+        }
+        sb.append(')');
+      } else {
+        sb.append(ATOMS[random.nextInt(ATOMS.length)]);
+      }
+      sb.append(QUANTIFIERS[random.nextInt(QUANTIFIERS.length)]);
+    }
+    return sb.toString();
+  }
+
+  private static String randomInput(Random random) {
+    StringBuilder sb = new StringBuilder();
+    int n = random.nextInt(8);
+    for (int i = 0; i < n; i++) {
+      sb.append(INPUT_CHARS.charAt(random.nextInt(INPUT_CHARS.length())));
+    }
+    return sb.toString();
+  }
+}
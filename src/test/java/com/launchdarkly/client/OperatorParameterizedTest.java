@@ -72,6 +72,11 @@ public class OperatorParameterizedTest {
       { Operator.lessThanOrEqual, ji(99), js("99"), false },
       { Operator.greaterThanOrEqual, js("99"), ji(99), false },
       { Operator.greaterThanOrEqual, ji(99), js("99"), false },
+      { Operator.in, js("true"), jb(true), true },
+      { Operator.in, jb(false), js("false"), true },
+      { Operator.in, jb(true), jb(true), true },
+      { Operator.in, jd(0.0), jd(-0.0), true },
+      { Operator.in, ji(2), jd(2.0), true },
       
       // regex
       { Operator.matches, js("hello world"), js("hello.*rld"), true },
@@ -122,6 +127,14 @@ public class OperatorParameterizedTest {
   public void parameterizedTestComparison() {
     assertEquals(shouldBe, op.apply(aValue, bValue));
   }
+
+  @Test
+  public void parameterizedTestComparisonWithPreparedValues() {
+    Operator.ValueMatcher matcher = op.prepareValues(Arrays.asList(bValue));
+    if (matcher != null) {
+      assertEquals(shouldBe, matcher.matchAny(aValue));
+    }
+  }
   
   private static JsonPrimitive js(String s) {
     return new JsonPrimitive(s);
@@ -134,4 +147,8 @@ public class OperatorParameterizedTest {
   private static JsonPrimitive jd(double d) {
     return new JsonPrimitive(d);
   }
+
+  private static JsonPrimitive jb(boolean b) {
+    return new JsonPrimitive(b);
+  }
 }
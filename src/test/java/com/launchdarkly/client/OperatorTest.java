@@ -1,7 +1,10 @@
 package com.launchdarkly.client;
 
 import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
 
+import java.util.Arrays;
 import java.util.regex.PatternSyntaxException;
 
 import org.junit.Test;
@@ -15,4 +18,42 @@ public class OperatorTest {
   public void testInvalidRegexThrowsException() {
     assertFalse(Operator.matches.apply(new JsonPrimitive("hello world"), new JsonPrimitive("***not a regex")));    
   }
+
+  @Test(expected = PatternSyntaxException.class)
+  public void testInvalidPreparsedRegexThrowsExceptionWhenApplied() {
+    Object regex = Operator.matches.preparse(new JsonPrimitive("***not a regex"));
+    Operator.matches.applyPreparsed(new JsonPrimitive("hello world"), regex);
+  }
+
+  @Test
+  public void preparsedValueCanBeAppliedRepeatedly() {
+    Object date = Operator.before.preparse(new JsonPrimitive("2017-12-06T00:00:00.000-07:00"));
+    assertTrue(Operator.before.applyPreparsed(new JsonPrimitive(10000000), date));
+    assertFalse(Operator.before.applyPreparsed(new JsonPrimitive("2018-01-01T00:00:00.000Z"), date));
+    assertFalse(Operator.before.applyPreparsed(new JsonPrimitive("not a date"), date));
+  }
+
+  @Test
+  public void preparedInValuesMatchAnyValueOfEitherType() {
+    Operator.ValueMatcher matcher = Operator.in.prepareValues(Arrays.asList(
+        new JsonPrimitive("a"), new JsonPrimitive(2), new JsonPrimitive(true), new JsonPrimitive(3.5)));
+    assertTrue(matcher.matchAny(new JsonPrimitive("a")));
+    assertTrue(matcher.matchAny(new JsonPrimitive(2.0)));
+    assertTrue(matcher.matchAny(new JsonPrimitive("true")));
+    assertTrue(matcher.matchAny(new JsonPrimitive(3.5)));
+    assertFalse(matcher.matchAny(new JsonPrimitive("2")));
+    assertFalse(matcher.matchAny(new JsonPrimitive("b")));
+    assertFalse(matcher.matchAny(new JsonPrimitive(3)));
+  }
+
+  @Test
+  public void inValuesAreNotPreparedIfOneIsNull() {
+    assertNull(Operator.in.prepareValues(Arrays.asList(new JsonPrimitive("a"), null)));
+  }
+
+  @Test
+  public void unparseableClauseValueNeverMatches() {
+    Object version = Operator.semVerEqual.preparse(new JsonPrimitive("xbad%ver"));
+    assertFalse(Operator.semVerEqual.applyPreparsed(new JsonPrimitive("xbad%ver"), version));
+  }
 }
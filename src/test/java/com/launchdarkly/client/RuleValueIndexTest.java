@@ -0,0 +1,160 @@
+package com.launchdarkly.client;
+
+import com.google.gson.JsonArray;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonPrimitive;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static com.launchdarkly.client.TestUtil.fallthroughVariation;
+import static com.launchdarkly.client.TestUtil.jbool;
+import static com.launchdarkly.client.TestUtil.jdouble;
+import static com.launchdarkly.client.TestUtil.jint;
+import static com.launchdarkly.client.TestUtil.js;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+
+public class RuleValueIndexTest {
+  private final FeatureStore featureStore = new InMemoryFeatureStore();
+
+  private static Rule inRule(int i, String attribute, JsonPrimitive... values) {
+    return new Rule("rule" + i, Arrays.asList(new Clause(attribute, Operator.in, Arrays.asList(values), false)),
+        i % 2, null);
+  }
+
+  private static FeatureFlag flagWithRules(List<Rule> rules) {
+    return new FeatureFlagBuilder("flag")
+        .on(true)
+        .rules(rules)
+        .fallthrough(fallthroughVariation(0))
+        .variations(js("a"), js("b"))
+        .build();
+  }
+
+  // The reason that evaluating the rules one at a time would give
+  private EvaluationReason expectedReason(List<Rule> rules, LDUser user) {
+    for (int i = 0; i < rules.size(); i++) {
+      boolean match = true;
+      for (Clause c: rules.get(i).getClauses()) {
+        match = match && c.matchesUser(featureStore, user);
+      }
+      if (match) {
+        return EvaluationReason.ruleMatch(i, rules.get(i).getId());
+      }
+    }
+    return EvaluationReason.fallthrough();
+  }
+
+  private void assertSameResultsAsRuleByRule(List<Rule> rules, LDUser... users) {
+    FeatureFlag flag = flagWithRules(rules);
+    for (LDUser user: users) {
+      assertEquals(expectedReason(rules, user),
+          flag.evaluate(user, featureStore, EventFactory.DEFAULT).getDetails().getReason());
+    }
+  }
+
+  private static LDUser userWith(String attribute, JsonElement value) {
+    return new LDUser.Builder("userkey").custom(attribute, value).build();
+  }
+
+  @Test
+  public void runsOfSingleInClauseRulesAreIndexed() {
+    List<Rule> rules = new ArrayList<>();
+    rules.add(new Rule("other", Arrays.asList(new Clause("name", Operator.in, Arrays.asList(js("x")), false)), 1, null));
+    for (int i = 1; i <= 5; i++) {
+      rules.add(inRule(i, "tenant", js("t" + i)));
+    }
+    rules.add(inRule(6, "region", js("r")));
+    RuleValueIndex[] indexes = RuleValueIndex.buildAll(rules);
+
+    assertNotNull(indexes);
+    assertNull(indexes[0]);
+    assertNotNull(indexes[1]);
+    assertEquals(6, indexes[1].getEnd());
+    assertNull(indexes[6]);
+  }
+
+  @Test
+  public void shortRunsAndNegatedClausesAreNotIndexed() {
+    List<Rule> rules = new ArrayList<>();
+    for (int i = 0; i < RuleValueIndex.MIN_RULES - 1; i++) {
+      rules.add(inRule(i, "tenant", js("t" + i)));
+    }
+    rules.add(new Rule("negated", Arrays.asList(new Clause("tenant", Operator.in, Arrays.asList(js("x")), true)),
+        0, null));
+    assertNull(RuleValueIndex.buildAll(rules));
+  }
+
+  @Test
+  public void firstMatchingRuleAndItsIdAreReported() {
+    List<Rule> rules = new ArrayList<>();
+    for (int i = 0; i < 300; i++) {
+      rules.add(inRule(i, "tenant", js("t" + i), js("shared")));
+    }
+    rules.add(inRule(300, "name", js("bob")));
+    List<LDUser> users = new ArrayList<>();
+    for (String tenant: Arrays.asList("t0", "t1", "t150", "t299", "t300", "shared")) {
+      users.add(new LDUser.Builder("userkey").custom("tenant", tenant).build());
+    }
+    users.add(new LDUser.Builder("userkey").name("bob").build());
+    users.add(new LDUser.Builder("userkey").custom("tenant", "t300").name("bob").build());
+    assertSameResultsAsRuleByRule(rules, users.toArray(new LDUser[users.size()]));
+
+    FeatureFlag flag = flagWithRules(rules);
+    assertEquals(EvaluationReason.ruleMatch(150, "rule150"), flag.evaluate(users.get(2), featureStore,
+        EventFactory.DEFAULT).getDetails().getReason());
+  }
+
+  @Test
+  public void valuesAreComparedLikeInOperator() {
+    List<Rule> rules = Arrays.asList(
+        inRule(0, "attr", jint(1)),
+        inRule(1, "attr", js("true")),
+        inRule(2, "attr", jdouble(2.5)),
+        inRule(3, "attr", js("1")),
+        inRule(4, "attr", jdouble(0)),
+        inRule(5, "attr", jbool(false)));
+    assertSameResultsAsRuleByRule(rules,
+        userWith("attr", jdouble(1.0)),
+        userWith("attr", js("1")),
+        userWith("attr", jbool(true)),
+        userWith("attr", jdouble(-0.0)),
+        userWith("attr", js("false")),
+        userWith("attr", jdouble(2.5)),
+        userWith("attr", js("2.5")),
+        new LDUser("userkey"));
+  }
+
+  @Test
+  public void arrayValuesMatchTheFirstRuleForAnyElement() {
+    List<Rule> rules = new ArrayList<>();
+    for (int i = 0; i < 10; i++) {
+      rules.add(inRule(i, "groups", js("g" + i)));
+    }
+    JsonArray groups = new JsonArray();
+    groups.add(js("g7"));
+    groups.add(js("g3"));
+    groups.add(js("none"));
+    JsonArray noMatch = new JsonArray();
+    noMatch.add(js("none"));
+    JsonArray withObject = new JsonArray();
+    withObject.add(new JsonObject());
+    withObject.add(js("g1"));
+    JsonArray objectAfterMatch = new JsonArray();
+    objectAfterMatch.add(js("g1"));
+    objectAfterMatch.add(new JsonObject());
+    assertSameResultsAsRuleByRule(rules,
+        userWith("groups", groups),
+        userWith("groups", noMatch),
+        userWith("groups", new JsonArray()),
+        userWith("groups", withObject),
+        userWith("groups", objectAfterMatch),
+        userWith("groups", new JsonObject()));
+  }
+}
@@ -0,0 +1,77 @@
+package com.launchdarkly.client;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+
+import static com.launchdarkly.client.TestUtil.booleanFlagWithClauses;
+import static com.launchdarkly.client.TestUtil.jbool;
+import static com.launchdarkly.client.TestUtil.js;
+import static com.launchdarkly.client.VersionedDataKind.FEATURES;
+import static com.launchdarkly.client.VersionedDataKind.SEGMENTS;
+import static org.junit.Assert.assertEquals;
+
+public class SegmentIndexTest {
+  private final InMemoryFeatureStore store = new InMemoryFeatureStore();
+
+  @Test
+  public void matchesGiveMembershipOfEachSegment() {
+    Segment s1 = new Segment.Builder("s1").included(Arrays.asList("u1", "u2")).excluded(Arrays.asList("u2", "u3"))
+        .version(1).build();
+    Segment s2 = new Segment.Builder("s2").excluded(Arrays.asList("u1")).version(1).build();
+    store.upsert(SEGMENTS, s1);
+    store.upsert(SEGMENTS, s2);
+
+    assertEquals(SegmentIndex.INCLUDED, store.segmentMatches("u1").get(s1));
+    assertEquals(SegmentIndex.EXCLUDED, store.segmentMatches("u1").get(s2));
+    assertEquals(SegmentIndex.INCLUDED, store.segmentMatches("u2").get(s1));
+    assertEquals(SegmentIndex.EXCLUDED, store.segmentMatches("u3").get(s1));
+    assertEquals(UserKeyIndex.NONE, store.segmentMatches("u3").get(s2));
+  }
+
+  @Test
+  public void matchesAreUpdatedWhenSegmentIsReplacedOrDeleted() {
+    Segment s1 = new Segment.Builder("s").included(Arrays.asList("u1")).version(1).build();
+    Segment s2 = new Segment.Builder("s").included(Arrays.asList("u2")).version(2).build();
+    store.upsert(SEGMENTS, s1);
+    store.upsert(SEGMENTS, s2);
+
+    assertEquals(UserKeyIndex.NONE, store.segmentMatches("u1").get(s2));
+    assertEquals(UserKeyIndex.UNKNOWN, store.segmentMatches("u1").get(s1));
+    assertEquals(SegmentIndex.INCLUDED, store.segmentMatches("u2").get(s2));
+
+    store.delete(SEGMENTS, "s", 3);
+    assertEquals(UserKeyIndex.UNKNOWN, store.segmentMatches("u1").get(s2));
+  }
+
+  @Test
+  public void absenceIsUnknownForSegmentInAnotherStore() {
+    Segment s = new Segment.Builder("s").included(Arrays.asList("u1")).version(1).build();
+    InMemoryFeatureStore otherStore = new InMemoryFeatureStore();
+    otherStore.upsert(SEGMENTS, s);
+
+    assertEquals(UserKeyIndex.UNKNOWN, store.segmentMatches("u2").get(s));
+  }
+
+  @Test
+  public void segmentMatchUsesIndexAndStillChecksRules() {
+    Clause ruleClause = new Clause("email", Operator.in, Arrays.asList(js("x@y")), false);
+    Segment s1 = new Segment.Builder("s1").excluded(Arrays.asList("u1")).version(1).build();
+    Segment s2 = new Segment.Builder("s2").excluded(Arrays.asList("u2"))
+        .rules(Arrays.asList(new SegmentRule(Arrays.asList(ruleClause), null, null))).version(1).build();
+    Segment s3 = new Segment.Builder("s3").included(Arrays.asList("u3")).version(1).build();
+    Clause clause = new Clause("", Operator.segmentMatch, Arrays.asList(js("s1"), js("s2"), js("s3")), false);
+    FeatureFlag flag = booleanFlagWithClauses("flag", clause);
+    store.upsert(SEGMENTS, s1);
+    store.upsert(SEGMENTS, s2);
+    store.upsert(SEGMENTS, s3);
+    store.upsert(FEATURES, flag);
+
+    assertEquals(jbool(false), flag.evaluate(new LDUser("u1"), store, EventFactory.DEFAULT).getDetails().getValue());
+    assertEquals(jbool(true), flag.evaluate(new LDUser.Builder("u1").email("x@y").build(), store,
+        EventFactory.DEFAULT).getDetails().getValue());
+    assertEquals(jbool(false), flag.evaluate(new LDUser.Builder("u2").email("x@y").build(), store,
+        EventFactory.DEFAULT).getDetails().getValue());
+    assertEquals(jbool(true), flag.evaluate(new LDUser("u3"), store, EventFactory.DEFAULT).getDetails().getValue());
+  }
+}
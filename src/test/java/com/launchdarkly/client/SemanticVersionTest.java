@@ -5,6 +5,10 @@ import static org.junit.Assert.assertNull;
 
 import org.junit.Test;
 
+import java.util.Random;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
 public class SemanticVersionTest {
 
   @Test
@@ -209,4 +213,45 @@ public class SemanticVersionTest {
     assertEquals(0, sv1.comparePrecedence(sv2));
     assertEquals(0, sv2.comparePrecedence(sv1));
   }
+
+  @Test
+  public void parsesSameVersionsAsRegex() throws Exception {
+    // The regular expression that the parser replaced
+    Pattern regex = Pattern.compile(
+        "^(?<major>0|[1-9]\\d*)(\\.(?<minor>0|[1-9]\\d*))?(\\.(?<patch>0|[1-9]\\d*))?" +
+        "(\\-(?<prerel>[0-9A-Za-z\\-\\.]+))?(\\+(?<build>[0-9A-Za-z\\-\\.]+))?$");
+    String chars = "0123.-+a9";
+    Random random = new Random(3);
+    for (int round = 0; round < 20000; round++) {
+      StringBuilder sb = new StringBuilder();
+      int n = random.nextInt(10);
+      for (int i = 0; i < n; i++) {
+        sb.append(chars.charAt(random.nextInt(chars.length())));
+      }
+      String input = sb.toString();
+      Matcher m = regex.matcher(input);
+      boolean valid = m.matches();
+      for (boolean allowMissing: new boolean[] { false, true }) {
+        SemanticVersion sv = null;
+        try {
+          sv = SemanticVersion.parse(input, allowMissing);
+        } catch (SemanticVersion.InvalidVersionException e) {
+        }
+        boolean expectValid = valid && (allowMissing || (m.group("minor") != null && m.group("patch") != null));
+        assertEquals(input, expectValid, sv != null);
+        if (sv != null) {
+          assertEquals(input, Integer.parseInt(m.group("major")), sv.getMajor());
+          assertEquals(input, m.group("minor") == null ? 0 : Integer.parseInt(m.group("minor")), sv.getMinor());
+          assertEquals(input, m.group("patch") == null ? 0 : Integer.parseInt(m.group("patch")), sv.getPatch());
+          assertEquals(input, m.group("prerel"), sv.getPrerelease());
+          assertEquals(input, m.group("build"), sv.getBuild());
+        }
+      }
+    }
+  }
+
+  @Test(expected = SemanticVersion.InvalidVersionException.class)
+  public void versionNumberThatIsTooLargeIsInvalid() throws Exception {
+    SemanticVersion.parse("2.3.99999999999");
+  }
 }
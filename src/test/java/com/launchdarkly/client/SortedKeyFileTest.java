@@ -0,0 +1,244 @@
+package com.launchdarkly.client;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static com.launchdarkly.client.TestUtil.js;
+import static com.launchdarkly.client.VersionedDataKind.SEGMENTS;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class SortedKeyFileTest {
+  private File dir;
+
+  @Before
+  public void setUp() throws IOException {
+    dir = Files.createTempDirectory("keys").toFile();
+    SortedKeyFile.setDirectory(dir);
+  }
+
+  @After
+  public void tearDown() {
+    SortedKeyFile.setDirectory(null);
+    for (File file: dir.listFiles()) {
+      file.delete();
+    }
+    dir.delete();
+  }
+
+  private String writeKeyFile(String content) throws IOException {
+    File file = File.createTempFile("keys", ".txt", dir);
+    Files.write(file.toPath(), content.getBytes(Charset.forName("UTF-8")));
+    return file.getName();
+  }
+
+  private void replaceKeyFile(String name, String content) throws IOException {
+    File file = File.createTempFile("keys", ".tmp", dir);
+    Files.write(file.toPath(), content.getBytes(Charset.forName("UTF-8")));
+    Files.move(file.toPath(), new File(dir, name).toPath(), StandardCopyOption.REPLACE_EXISTING);
+  }
+
+  @Test
+  public void containsEveryKeyAndNothingElse() throws Exception {
+    List<String> keys = new ArrayList<>();
+    for (int i = 0; i < 10000; i++) {
+      keys.add("user" + i);
+    }
+    Collections.sort(keys); // same as byte order for ASCII
+    StringBuilder sb = new StringBuilder();
+    for (String key: keys) {
+      sb.append(key).append('\n');
+    }
+    SortedKeyFile file = SortedKeyFile.open(writeKeyFile(sb.toString()));
+
+    assertEquals(10000, file.size());
+    for (String key: keys) {
+      assertTrue(key, file.contains(key));
+    }
+    assertFalse(file.contains("user10000"));
+    assertFalse(file.contains("user"));
+    assertFalse(file.contains("user00"));
+    assertFalse(file.contains(""));
+    assertFalse(file.contains(null));
+  }
+
+  @Test
+  public void keysAreComparedAsUtf8Bytes() throws Exception {
+    // "z" < "é" (0xc3 0xa9) < "中" (0xe4 0xb8 0xad) in byte order; no final newline
+    SortedKeyFile file = SortedKeyFile.open(writeKeyFile("a\nz\né\n中"));
+
+    assertEquals(4, file.size());
+    for (String key: Arrays.asList("a", "z", "é", "中")) {
+      assertTrue(key, file.contains(key));
+    }
+    assertFalse(file.contains("e"));
+  }
+
+  @Test
+  public void emptyFileHasNoKeys() throws Exception {
+    SortedKeyFile file = SortedKeyFile.open(writeKeyFile(""));
+    assertEquals(0, file.size());
+    assertFalse(file.contains(""));
+  }
+
+  @Test
+  public void unsortedFileIsRejected() throws Exception {
+    try {
+      SortedKeyFile.open(writeKeyFile("b\na\n"));
+      fail("expected exception");
+    } catch (IOException e) {
+      assertTrue(e.getMessage().contains("line 2"));
+    }
+  }
+
+  @Test
+  public void fileIsSharedUntilItChanges() throws Exception {
+    String name = writeKeyFile("a\n");
+    SortedKeyFile file1 = SortedKeyFile.open(name);
+    assertSame(file1, SortedKeyFile.open(name));
+
+    replaceKeyFile(name, "a\nb\n");
+    SortedKeyFile file2 = SortedKeyFile.open(name);
+    assertTrue(file2.contains("b"));
+  }
+
+  @Test
+  public void fileIsReleasedWhenNothingRefersToIt() throws Exception {
+    SortedKeyFile.open(writeKeyFile("a\n"));
+    assertTrue(SortedKeyFile.openFileCount() > 0);
+    for (int i = 0; i < 50 && SortedKeyFile.openFileCount() > 0; i++) {
+      System.gc();
+      Thread.sleep(10);
+    }
+    assertEquals(0, SortedKeyFile.openFileCount());
+  }
+
+  @Test
+  public void namesOutsideOfDirectoryAreRejected() throws Exception {
+    String name = writeKeyFile("a\n");
+    File subdir = new File(dir, "sub");
+    subdir.mkdir();
+    try {
+      for (String bad: Arrays.asList(new File(dir, name).getAbsolutePath(), "../" + dir.getName() + "/" + name,
+          "sub/../" + name)) {
+        try {
+          SortedKeyFile.open(bad);
+          fail("expected exception for " + bad);
+        } catch (IOException e) {
+        }
+      }
+    } finally {
+      subdir.delete();
+    }
+  }
+
+  @Test(expected = IOException.class)
+  public void noFilesCanBeOpenedWithoutDirectory() throws Exception {
+    String name = writeKeyFile("a\n");
+    SortedKeyFile.setDirectory(null);
+    SortedKeyFile.open(name);
+  }
+
+  @Test
+  public void segmentUsesKeyFiles() throws Exception {
+    Segment s = new Segment.Builder("test")
+        .includedKeysFile(writeKeyFile("a\nb\n"))
+        .excludedKeysFile(writeKeyFile("b\nc\nd\n"))
+        .excluded(Arrays.asList("a"))
+        .rules(Arrays.asList(new SegmentRule(Arrays.asList(new Clause("key", Operator.in,
+            Arrays.asList(js("c"), js("e")), false)), null, null)))
+        .version(1)
+        .build();
+
+    assertTrue(s.matchesUser(new LDUser("a"))); // included file takes precedence over excluded list
+    assertTrue(s.matchesUser(new LDUser("b")));
+    assertFalse(s.matchesUser(new LDUser("c"))); // excluded file takes precedence over rules
+    assertFalse(s.matchesUser(new LDUser("d")));
+    assertTrue(s.matchesUser(new LDUser("e")));
+    assertFalse(s.matchesUser(new LDUser("f")));
+  }
+
+  @Test
+  public void segmentIndexMembershipIsCombinedWithKeyFiles() throws Exception {
+    Segment s = new Segment.Builder("test")
+        .includedKeysFile(writeKeyFile("a\n"))
+        .excludedKeysFile(writeKeyFile("b\n"))
+        .excluded(Arrays.asList("a"))
+        .version(1)
+        .build();
+    InMemoryFeatureStore store = new InMemoryFeatureStore();
+    store.upsert(SEGMENTS, s);
+
+    for (String key: Arrays.asList("a", "b", "c")) {
+      LDUser user = new LDUser(key);
+      assertEquals(key, s.matchesUser(user), s.matchesUser(user, store.segmentMatches(key).get(s)));
+    }
+  }
+
+  @Test
+  public void missingIncludedKeyFileIsTreatedAsEmpty() {
+    Segment s = new Segment.Builder("test")
+        .included(Arrays.asList("a"))
+        .includedKeysFile("no-such-file")
+        .version(1)
+        .build();
+    assertTrue(s.matchesUser(new LDUser("a")));
+    assertFalse(s.matchesUser(new LDUser("b")));
+  }
+
+  @Test
+  public void missingExcludedKeyFileExcludesEveryoneNotIncluded() throws Exception {
+    Segment s = new Segment.Builder("test")
+        .included(Arrays.asList("a"))
+        .includedKeysFile(writeKeyFile("b\n"))
+        .excludedKeysFile("no-such-file")
+        .rules(Arrays.asList(new SegmentRule(Arrays.asList(new Clause("key", Operator.in,
+            Arrays.asList(js("c")), false)), null, null)))
+        .version(1)
+        .build();
+    assertTrue(s.matchesUser(new LDUser("a")));
+    assertTrue(s.matchesUser(new LDUser("b")));
+    assertFalse(s.matchesUser(new LDUser("c")));
+  }
+
+  @Test
+  public void excludedKeyFileOutsideOfDirectoryExcludesEveryone() throws Exception {
+    Segment s = new Segment.Builder("test")
+        .excludedKeysFile(new File(dir, writeKeyFile("b\n")).getAbsolutePath())
+        .rules(Arrays.asList(new SegmentRule(Arrays.asList(new Clause("key", Operator.in,
+            Arrays.asList(js("c")), false)), null, null)))
+        .version(1)
+        .build();
+    assertFalse(s.matchesUser(new LDUser("c")));
+  }
+
+  @Test
+  public void segmentSeesReplacedKeyFile() throws Exception {
+    String name = writeKeyFile("a\n");
+    Segment s = new Segment.Builder("test")
+        .includedKeysFile(name)
+        .version(1)
+        .build();
+    assertTrue(s.matchesUser(new LDUser("a")));
+    assertFalse(s.matchesUser(new LDUser("b")));
+
+    replaceKeyFile(name, "b\nc\n");
+    Thread.sleep(Segment.KEY_FILE_CHECK_INTERVAL_MILLIS + 100);
+    assertFalse(s.matchesUser(new LDUser("a")));
+    assertTrue(s.matchesUser(new LDUser("b")));
+  }
+}
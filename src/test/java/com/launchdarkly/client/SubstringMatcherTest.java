@@ -0,0 +1,81 @@
+package com.launchdarkly.client;
+
+import com.google.gson.JsonPrimitive;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class SubstringMatcherTest {
+  @Test
+  public void matchesSameAsOperatorsForRandomStrings() {
+    Random random = new Random(1);
+    for (Operator op: Arrays.asList(Operator.startsWith, Operator.endsWith, Operator.contains)) {
+      for (int round = 0; round < 200; round++) {
+        List<JsonPrimitive> values = new ArrayList<>();
+        int numValues = SubstringMatcher.MIN_VALUES + random.nextInt(10);
+        for (int i = 0; i < numValues; i++) {
+          values.add(new JsonPrimitive(randomString(random, 1 + random.nextInt(4))));
+        }
+        Operator.ValueMatcher matcher = op.prepareValues(values);
+        for (int i = 0; i < 50; i++) {
+          JsonPrimitive userValue = new JsonPrimitive(randomString(random, random.nextInt(12)));
+          boolean expected = false;
+          for (JsonPrimitive value: values) {
+            expected = expected || op.apply(userValue, value);
+          }
+          assertEquals(op + " " + values + " " + userValue, expected, matcher.matchAny(userValue));
+        }
+      }
+    }
+  }
+
+  @Test
+  public void emptyStringMatchesEveryString() {
+    for (Operator op: Arrays.asList(Operator.startsWith, Operator.endsWith, Operator.contains)) {
+      Operator.ValueMatcher matcher = op.prepareValues(Arrays.asList(new JsonPrimitive("xyz"), new JsonPrimitive("")));
+      assertTrue(matcher.matchAny(new JsonPrimitive("")));
+      assertTrue(matcher.matchAny(new JsonPrimitive("abc")));
+    }
+  }
+
+  @Test
+  public void nonStringValuesNeverMatch() {
+    for (Operator op: Arrays.asList(Operator.startsWith, Operator.endsWith, Operator.contains)) {
+      Operator.ValueMatcher matcher = op.prepareValues(Arrays.asList(new JsonPrimitive(99), new JsonPrimitive("9")));
+      assertFalse(matcher.matchAny(new JsonPrimitive(99)));
+      assertFalse(matcher.matchAny(new JsonPrimitive("88")));
+      assertTrue(matcher.matchAny(new JsonPrimitive("999")));
+    }
+  }
+
+  @Test
+  public void containsFindsValueThatOverlapsPartialMatch() {
+    Operator.ValueMatcher matcher = Operator.contains.prepareValues(
+        Arrays.asList(new JsonPrimitive("abcd"), new JsonPrimitive("bce")));
+    assertTrue(matcher.matchAny(new JsonPrimitive("xabcex")));
+    assertFalse(matcher.matchAny(new JsonPrimitive("xabcxbc")));
+  }
+
+  @Test
+  public void valuesAreNotPreparedIfTooFewOrOneIsNull() {
+    assertNull(Operator.startsWith.prepareValues(Arrays.asList(new JsonPrimitive("a"))));
+    assertNull(Operator.contains.prepareValues(Arrays.asList(new JsonPrimitive("a"), null)));
+  }
+
+  private static String randomString(Random random, int length) {
+    char[] chars = new char[length];
+    for (int i = 0; i < length; i++) {
+      chars[i] = (char)('a' + random.nextInt(3));
+    }
+    return new String(chars);
+  }
+}
@@ -0,0 +1,111 @@
+package com.launchdarkly.client;
+
+import com.google.gson.JsonElement;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
+import static com.launchdarkly.client.TestUtil.fallthroughVariation;
+import static com.launchdarkly.client.TestUtil.js;
+import static com.launchdarkly.client.VersionedDataKind.FEATURES;
+import static org.junit.Assert.assertEquals;
+
+public class TargetIndexTest {
+  private final InMemoryFeatureStore store = new InMemoryFeatureStore();
+
+  private static FeatureFlag flagWithTargets(String key, int version, Target... targets) {
+    return new FeatureFlagBuilder(key)
+        .on(true)
+        .targets(Arrays.asList(targets))
+        .fallthrough(fallthroughVariation(0))
+        .variations(js("fall"), js("a"), js("b"))
+        .version(version)
+        .build();
+  }
+
+  @Test
+  public void matchesGiveFirstTargetContainingUserKey() {
+    FeatureFlag flag = flagWithTargets("flag", 1,
+        new Target(Arrays.asList("u1"), 1), new Target(Arrays.asList("u1", "u2"), 2));
+    store.upsert(FEATURES, flag);
+
+    assertEquals(0, store.targetMatches("u1").get(flag.getCompiled()));
+    assertEquals(1, store.targetMatches("u2").get(flag.getCompiled()));
+    assertEquals(TargetIndex.NOT_TARGETED, store.targetMatches("u3").get(flag.getCompiled()));
+  }
+
+  @Test
+  public void matchesAreUpdatedWhenFlagIsReplacedOrDeleted() {
+    FeatureFlag flag1 = flagWithTargets("flag", 1, new Target(Arrays.asList("u1"), 1));
+    FeatureFlag flag2 = flagWithTargets("flag", 2, new Target(Arrays.asList("u2"), 1));
+    store.upsert(FEATURES, flag1);
+    store.upsert(FEATURES, flag2);
+
+    assertEquals(TargetIndex.NOT_TARGETED, store.targetMatches("u1").get(flag2.getCompiled()));
+    assertEquals(0, store.targetMatches("u2").get(flag2.getCompiled()));
+
+    store.delete(FEATURES, "flag", 3);
+    assertEquals(TargetIndex.UNKNOWN, store.targetMatches("u2").get(flag2.getCompiled()));
+  }
+
+  @Test
+  public void absenceIsUnknownForFlagThatWasNotInIndexAtLookup() {
+    FeatureFlag flag1 = flagWithTargets("flag", 1, new Target(Arrays.asList("u1"), 1));
+    FeatureFlag flag2 = flagWithTargets("flag", 2, new Target(Arrays.asList("u2"), 1));
+    store.upsert(FEATURES, flag1);
+    UserKeyIndex.Matches<CompiledFlag> before = store.targetMatches("u2");
+    store.upsert(FEATURES, flag2);
+    UserKeyIndex.Matches<CompiledFlag> after = store.targetMatches("u1");
+
+    assertEquals(TargetIndex.UNKNOWN, before.get(flag2.getCompiled()));
+    assertEquals(TargetIndex.UNKNOWN, after.get(flag1.getCompiled()));
+    assertEquals(TargetIndex.NOT_TARGETED, before.get(flag1.getCompiled()));
+  }
+
+  @Test
+  public void initReplacesAllMatches() {
+    FeatureFlag flag1 = flagWithTargets("flag1", 1, new Target(Arrays.asList("u1"), 1));
+    FeatureFlag flag2 = flagWithTargets("flag2", 1, new Target(Arrays.asList("u1"), 2));
+    store.upsert(FEATURES, flag1);
+    Map<String, FeatureFlag> flags = new HashMap<>();
+    flags.put("flag2", flag2);
+    Map<VersionedDataKind<?>, Map<String, ? extends VersionedData>> allData = new HashMap<>();
+    allData.put(FEATURES, flags);
+    store.init(allData);
+
+    UserKeyIndex.Matches<CompiledFlag> matches = store.targetMatches("u1");
+    assertEquals(TargetIndex.UNKNOWN, matches.get(flag1.getCompiled()));
+    assertEquals(0, matches.get(flag2.getCompiled()));
+  }
+
+  @Test
+  public void bulkEvaluationUsesIndexAndGivesSameResults() {
+    FeatureFlag flag1 = flagWithTargets("flag1", 1, new Target(Arrays.asList("u1"), 1));
+    FeatureFlag flag2 = flagWithTargets("flag2", 1, new Target(Arrays.asList("u2"), 1),
+        new Target(Arrays.asList("u1"), 2));
+    store.upsert(FEATURES, flag1);
+    store.upsert(FEATURES, flag2);
+
+    for (String key: Arrays.asList("u1", "u2", "u3")) {
+      LDUser user = new LDUser(key);
+      EvaluationDetail<JsonElement>[] results = new FlagsStateEvaluator(user, store)
+          .evaluateAll(Arrays.asList(flag1, flag2), null);
+      assertEquals(flag1.evaluate(user, store, EventFactory.DEFAULT).getDetails(), results[0]);
+      assertEquals(flag2.evaluate(user, store, EventFactory.DEFAULT).getDetails(), results[1]);
+    }
+  }
+
+  @Test
+  public void bulkEvaluationOfFlagNotInStoreChecksTargets() {
+    FeatureFlag flag = flagWithTargets("flag", 1, new Target(Arrays.asList("u1"), 1));
+    flag.compile(store); // linked to the store, but never stored in it
+    EvaluationDetail<JsonElement>[] results = new FlagsStateEvaluator(new LDUser("u1"), store)
+        .evaluateAll(Collections.singletonList(flag), null);
+
+    assertEquals(new EvaluationDetail<>(EvaluationReason.targetMatch(), 1, js("a")), results[0]);
+  }
+}
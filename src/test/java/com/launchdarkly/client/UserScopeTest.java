@@ -0,0 +1,243 @@
+package com.launchdarkly.client;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+
+import static com.launchdarkly.client.TestUtil.fallthroughVariation;
+import static com.launchdarkly.client.TestUtil.flagWithValue;
+import static com.launchdarkly.client.TestUtil.js;
+import static com.launchdarkly.client.TestUtil.specificEventProcessor;
+import static com.launchdarkly.client.TestUtil.specificFeatureStore;
+import static com.launchdarkly.client.VersionedDataKind.FEATURES;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+public class UserScopeTest {
+  private static final LDUser user = new LDUser("userkey");
+
+  private FeatureStore featureStore = TestUtil.initedFeatureStore();
+  private TestUtil.TestEventProcessor eventSink = new TestUtil.TestEventProcessor();
+  private LDConfig config = new LDConfig.Builder()
+      .featureStoreFactory(specificFeatureStore(featureStore))
+      .eventProcessorFactory(specificEventProcessor(eventSink))
+      .updateProcessorFactory(Components.nullUpdateProcessor())
+      .build();
+  private LDClient client = new LDClient("SDK_KEY", config);
+
+  private static Map<EventSummarizer.CounterKey, EventSummarizer.CounterValue> summarize(List<Event> events) {
+    EventSummarizer es = new EventSummarizer();
+    for (Event e: events) {
+      es.summarizeEvent(e);
+    }
+    return es.snapshot().counters;
+  }
+
+  private static FeatureFlag flagWithPrerequisite(String key, String prereqKey) {
+    return new FeatureFlagBuilder(key)
+        .on(true)
+        .prerequisites(Arrays.asList(new Prerequisite(prereqKey, 1)))
+        .fallthrough(fallthroughVariation(0))
+        .offVariation(1)
+        .variations(js("fall"), js("off"))
+        .version(1)
+        .build();
+  }
+
+  @Test
+  public void flagIsEvaluatedOnceFromTheSameVersion() throws Exception {
+    featureStore.upsert(FEATURES, new FeatureFlagBuilder(flagWithValue("key", js("a"))).version(1).build());
+
+    try (UserScope scope = client.openScope(user)) {
+      assertEquals("a", scope.stringVariation("key", "default"));
+      featureStore.upsert(FEATURES, new FeatureFlagBuilder(flagWithValue("key", js("b"))).version(2).build());
+      assertEquals("a", scope.stringVariation("key", "default"));
+      assertEquals(EvaluationReason.off(), scope.stringVariationDetail("key", "default").getReason());
+      assertEquals("b", client.stringVariation("key", user, "default"));
+    }
+  }
+
+  @Test
+  public void cachedResultIsNotUsedForScopeWithOlderSnapshot() throws Exception {
+    LDConfig cachingConfig = new LDConfig.Builder()
+        .featureStoreFactory(specificFeatureStore(featureStore))
+        .eventProcessorFactory(specificEventProcessor(eventSink))
+        .updateProcessorFactory(Components.nullUpdateProcessor())
+        .evaluationCacheSize(100)
+        .build();
+    LDClient cachingClient = new LDClient("SDK_KEY", cachingConfig);
+    featureStore.upsert(FEATURES, flagWithPrerequisite("key", "prereq"));
+    featureStore.upsert(FEATURES, new FeatureFlagBuilder("prereq").on(true).fallthrough(fallthroughVariation(1))
+        .variations(js("nogo"), js("go")).version(1).build());
+    FeatureStoreSnapshot older = cachingClient.snapshot();
+    assertEquals("fall", cachingClient.stringVariation("key", user, "default"));
+
+    featureStore.upsert(FEATURES, new FeatureFlagBuilder("prereq").on(true).fallthrough(fallthroughVariation(0))
+        .variations(js("nogo"), js("go")).version(2).build());
+    assertEquals("off", cachingClient.stringVariation("key", user, "default"));
+
+    try (UserScope scope = cachingClient.openScope(user, older)) {
+      assertEquals("fall", scope.stringVariation("key", "default"));
+    }
+    assertEquals("off", cachingClient.stringVariation("key", user, "default"));
+  }
+
+  @Test
+  public void defaultValueIsTakenFromEachCall() throws Exception {
+    featureStore.upsert(FEATURES, new FeatureFlagBuilder("key").on(false).variations(js("a")).build());
+
+    try (UserScope scope = client.openScope(user)) {
+      assertEquals("x", scope.stringVariation("key", "x"));
+      assertEquals("y", scope.stringVariation("key", "y"));
+      assertEquals(Integer.valueOf(3), scope.intVariation("key", 3));
+    }
+  }
+
+  @Test
+  public void repeatedEvaluationsOfUntrackedFlagAreSentAsOneEventOnClose() throws Exception {
+    featureStore.upsert(FEATURES, flagWithValue("key", js("a")));
+
+    UserScope scope = client.openScope(user);
+    for (int i = 0; i < 5; i++) {
+      scope.stringVariation("key", "default");
+    }
+    assertEquals(1, eventSink.events.size());
+    scope.close();
+    assertEquals(2, eventSink.events.size());
+    assertEquals(4, ((Event.FeatureRequest)eventSink.events.get(1)).count);
+    scope.close();
+    assertEquals(2, eventSink.events.size());
+  }
+
+  @Test
+  public void trackedFlagSendsEventForEachCall() throws Exception {
+    featureStore.upsert(FEATURES, new FeatureFlagBuilder(flagWithValue("key", js("a"))).trackEvents(true).build());
+
+    try (UserScope scope = client.openScope(user)) {
+      for (int i = 0; i < 3; i++) {
+        scope.stringVariation("key", "default");
+      }
+      assertEquals(3, eventSink.events.size());
+    }
+    assertEquals(3, eventSink.events.size());
+  }
+
+  @Test
+  public void summaryCountsAreTheSameAsWithoutScope() throws Exception {
+    featureStore.upsert(FEATURES, flagWithPrerequisite("flag", "prereq"));
+    featureStore.upsert(FEATURES, new FeatureFlagBuilder("prereq")
+        .on(true)
+        .fallthrough(fallthroughVariation(1))
+        .variations(js("nogo"), js("go"))
+        .version(2)
+        .build());
+    featureStore.upsert(FEATURES, flagWithValue("other", js("x")));
+
+    for (int i = 0; i < 3; i++) {
+      client.stringVariation("flag", user, "default");
+      client.stringVariationDetail("other", user, "default");
+      client.stringVariation("unknown", user, "default");
+    }
+    Map<EventSummarizer.CounterKey, EventSummarizer.CounterValue> expected = summarize(eventSink.events);
+    eventSink.events.clear();
+
+    try (UserScope scope = client.openScope(user)) {
+      for (int i = 0; i < 3; i++) {
+        scope.stringVariation("flag", "default");
+        scope.stringVariationDetail("other", "default");
+        scope.stringVariation("unknown", "default");
+      }
+    }
+    assertEquals(expected, summarize(eventSink.events));
+    assertEquals(8, eventSink.events.size()); // the first of each kind, and one summary-only event for the rest
+  }
+
+  @Test
+  public void evaluationsAfterCloseSendEventsAsUsual() throws Exception {
+    featureStore.upsert(FEATURES, flagWithValue("key", js("a")));
+
+    UserScope scope = client.openScope(user);
+    scope.close();
+    scope.stringVariation("key", "default");
+    scope.stringVariation("key", "default");
+    assertEquals(2, eventSink.events.size());
+  }
+
+  @Test
+  public void prerequisitesAreEvaluatedFromTheSameSnapshot() throws Exception {
+    featureStore.upsert(FEATURES, flagWithPrerequisite("flag1", "prereq"));
+    featureStore.upsert(FEATURES, flagWithPrerequisite("flag2", "prereq"));
+    featureStore.upsert(FEATURES, new FeatureFlagBuilder("prereq")
+        .on(true).fallthrough(fallthroughVariation(1)).variations(js("nogo"), js("go")).version(1).build());
+
+    try (UserScope scope = client.openScope(user)) {
+      assertEquals("fall", scope.stringVariation("flag1", "default"));
+      featureStore.upsert(FEATURES, new FeatureFlagBuilder("prereq")
+          .on(true).fallthrough(fallthroughVariation(0)).variations(js("nogo"), js("go")).version(2).build());
+      assertEquals("fall", scope.stringVariation("flag2", "default"));
+      assertEquals("off", client.stringVariation("flag2", user, "default"));
+    }
+  }
+
+  @Test
+  public void scopesCanShareASnapshot() throws Exception {
+    featureStore.upsert(FEATURES, new FeatureFlagBuilder(flagWithValue("key", js("a"))).version(1).build());
+    FeatureStoreSnapshot snapshot = client.snapshot();
+    featureStore.upsert(FEATURES, new FeatureFlagBuilder(flagWithValue("key", js("b"))).version(2).build());
+
+    try (UserScope scope = client.openScope(new LDUser("other"), snapshot)) {
+      assertSame(snapshot, scope.getSnapshot());
+      assertEquals("a", scope.stringVariation("key", "default"));
+    }
+    try (UserScope scope = client.openScope(user)) {
+      assertEquals("b", scope.stringVariation("key", "default"));
+    }
+  }
+
+  @Test
+  public void snapshotOfOtherStoreIsACopy() throws Exception {
+    final FeatureStore inner = TestUtil.initedFeatureStore();
+    FeatureStore otherStore = new FeatureStore() {
+      public <T extends VersionedData> T get(VersionedDataKind<T> kind, String key) {
+        return inner.get(kind, key);
+      }
+      public <T extends VersionedData> Map<String, T> all(VersionedDataKind<T> kind) {
+        return inner.all(kind);
+      }
+      public void init(Map<VersionedDataKind<?>, Map<String, ? extends VersionedData>> allData) {
+        inner.init(allData);
+      }
+      public <T extends VersionedData> void delete(VersionedDataKind<T> kind, String key, int version) {
+        inner.delete(kind, key, version);
+      }
+      public <T extends VersionedData> void upsert(VersionedDataKind<T> kind, T item) {
+        inner.upsert(kind, item);
+      }
+      public boolean initialized() {
+        return inner.initialized();
+      }
+      public void close() {
+      }
+    };
+    otherStore.upsert(FEATURES, new FeatureFlagBuilder(flagWithValue("key", js("a"))).version(1).build());
+    LDConfig otherConfig = new LDConfig.Builder()
+        .featureStoreFactory(specificFeatureStore(otherStore))
+        .eventProcessorFactory(specificEventProcessor(eventSink))
+        .updateProcessorFactory(Components.nullUpdateProcessor())
+        .build();
+    try (LDClient otherClient = new LDClient("SDK_KEY", otherConfig)) {
+      FeatureStoreSnapshot snapshot = otherClient.snapshot();
+      otherStore.upsert(FEATURES, new FeatureFlagBuilder(flagWithValue("key", js("b"))).version(2).build());
+      try (UserScope scope = otherClient.openScope(user, snapshot)) {
+        assertEquals("a", scope.stringVariation("key", "default"));
+      }
+      try (UserScope scope = otherClient.openScope(user)) {
+        assertNull(scope.getSnapshot());
+        assertEquals("b", scope.stringVariation("key", "default"));
+      }
+    }
+  }
+}
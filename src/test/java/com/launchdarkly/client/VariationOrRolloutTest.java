@@ -2,6 +2,7 @@ package com.launchdarkly.client;
 
 import static org.junit.Assert.assertEquals;
 
+import org.apache.commons.codec.digest.DigestUtils;
 import org.junit.Test;
 
 public class VariationOrRolloutTest {
@@ -33,4 +34,38 @@ public class VariationOrRolloutTest {
     float result = VariationOrRollout.bucketUser(user, "key", "boolattr", "salt");
     assertEquals(0f, result, Float.MIN_VALUE);
   }
+
+  @Test
+  public void bucketValuesMatchHexDigestOfConcatenatedString() {
+    String[] values = { "userkey", "", "a.b", "caf\u00e9", "\u65e5\u672c", "\ud83d\ude00", "bad\ud83d",
+        "a very long key that is longer than the initial size of the buffer used to hash it, which means "
+        + "that the buffer has to grow at least once while the value is being added, repeated: "
+        + "a very long key that is longer than the initial size of the buffer used to hash it, which means "
+        + "that the buffer has to grow at least once while the value is being added" };
+    for (String value: values) {
+      LDUser user = new LDUser.Builder(value).build();
+      assertEquals(value, expectedBucket("flagkey." + "salt." + value),
+          VariationOrRollout.bucketUser(user, "flagkey", "key", "salt"), 0f);
+
+      LDUser userWithSecondary = new LDUser.Builder("userkey").secondary(value).build();
+      assertEquals(value, expectedBucket("flagkey." + "salt." + "userkey." + value),
+          VariationOrRollout.bucketUser(userWithSecondary, "flagkey", "key", "salt"), 0f);
+    }
+  }
+
+  @Test
+  public void bucketValueForIntAttributeMatchesDecimalString() {
+    int[] values = { 0, 7, -7, 33333, Integer.MAX_VALUE, Integer.MIN_VALUE };
+    for (int value: values) {
+      LDUser user = new LDUser.Builder("key").custom("intattr", value).build();
+      assertEquals(expectedBucket("flagkey.salt." + value),
+          VariationOrRollout.bucketUser(user, "flagkey", "intattr", "salt"), 0f);
+    }
+  }
+
+  // The original definition of the bucket value
+  private static float expectedBucket(String hashInput) {
+    String hash = DigestUtils.sha1Hex(hashInput).substring(0, 15);
+    return (float) Long.parseLong(hash, 16) / (float) 0xFFFFFFFFFFFFFFFL;
+  }
 }
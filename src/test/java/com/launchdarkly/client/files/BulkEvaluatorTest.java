@@ -0,0 +1,277 @@
+package com.launchdarkly.client.files;
+
+import com.google.gson.Gson;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonNull;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonPrimitive;
+import com.launchdarkly.client.LDClient;
+import com.launchdarkly.client.LDConfig;
+import com.launchdarkly.client.LDUser;
+
+import org.junit.After;
+import org.junit.Test;
+
+import java.io.BufferedReader;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+
+import static com.launchdarkly.client.files.TestData.resourceFilePath;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+public class BulkEvaluatorTest {
+  private static final Gson gson = new Gson();
+  private static final int NUM_USERS = 5000;
+  private static final List<String> FLAG_KEYS = Arrays.asList("cohort", "constant", "off-flag");
+
+  private final LDClient client = makeClient();
+  private final ForkJoinPool pool = new ForkJoinPool(4);
+
+  private static LDClient makeClient() {
+    try {
+      LDConfig config = new LDConfig.Builder()
+          .updateProcessorFactory(FileComponents.fileDataSource().filePaths(resourceFilePath("bulk-evaluation.json")))
+          .sendEvents(false)
+          .build();
+      return new LDClient("sdkKey", config);
+    } catch (Exception e) {
+      throw new RuntimeException(e);
+    }
+  }
+
+  @After
+  public void tearDown() throws Exception {
+    client.close();
+    pool.shutdown();
+  }
+
+  private static String country(int i) {
+    return i % 4 == 0 ? "CA" : i % 4 == 1 ? "US" : null;
+  }
+
+  private static Integer age(int i) {
+    return i % 3 == 0 ? null : i % 80;
+  }
+
+  private static boolean beta(int i) {
+    return i % 5 == 0;
+  }
+
+  private static String ndjsonUsers() {
+    StringBuilder sb = new StringBuilder();
+    for (int i = 0; i < NUM_USERS; i++) {
+      JsonObject user = new JsonObject();
+      user.addProperty("key", "user" + i);
+      if (country(i) != null) {
+        user.addProperty("country", country(i));
+      }
+      JsonObject custom = new JsonObject();
+      if (age(i) != null) {
+        custom.addProperty("age", age(i));
+      }
+      custom.addProperty("beta", beta(i));
+      user.add("custom", custom);
+      sb.append(gson.toJson(user)).append('\n');
+    }
+    return sb.toString();
+  }
+
+  private static String csvUsers() {
+    StringBuilder sb = new StringBuilder("key,country,age:number,beta:boolean\n");
+    for (int i = 0; i < NUM_USERS; i++) {
+      sb.append("user").append(i).append(',')
+          .append(country(i) == null ? "" : country(i)).append(',')
+          .append(age(i) == null ? "" : age(i).toString()).append(',')
+          .append(beta(i)).append('\n');
+    }
+    return sb.toString();
+  }
+
+  private JsonElement expectedValue(String flagKey, LDUser user) {
+    JsonElement value = client.jsonVariation(flagKey, user, null);
+    return value == null ? JsonNull.INSTANCE : value;
+  }
+
+  private static List<String> lines(String s) throws Exception {
+    List<String> lines = new ArrayList<>();
+    BufferedReader reader = new BufferedReader(new StringReader(s));
+    String line;
+    while ((line = reader.readLine()) != null) {
+      lines.add(line);
+    }
+    return lines;
+  }
+
+  @Test
+  public void ndjsonResultsAreTheSameAsForEachUser() throws Exception {
+    String users = ndjsonUsers();
+    BulkEvaluator evaluator = new BulkEvaluator(client, null, pool, 2000);
+    assertEquals(FLAG_KEYS, evaluator.getFlagKeys());
+    StringWriter out = new StringWriter();
+    evaluator.evaluate(new StringReader(users), BulkEvaluator.Format.NDJSON, out);
+
+    List<String> inputLines = lines(users);
+    List<String> outputLines = lines(out.toString());
+    assertEquals(NUM_USERS, outputLines.size());
+    for (int i = 0; i < NUM_USERS; i++) {
+      LDUser user = gson.fromJson(inputLines.get(i), LDUser.class);
+      JsonObject result = gson.fromJson(outputLines.get(i), JsonObject.class);
+      assertEquals("user" + i, result.get("key").getAsString());
+      for (String flagKey: FLAG_KEYS) {
+        assertEquals(expectedValue(flagKey, user), result.getAsJsonObject("flagValues").get(flagKey));
+      }
+    }
+  }
+
+  @Test
+  public void csvResultsAreTheSameAsForEachUser() throws Exception {
+    BulkEvaluator evaluator = new BulkEvaluator(client, Arrays.asList("cohort", "off-flag"), pool, 2000);
+    StringWriter out = new StringWriter();
+    evaluator.evaluate(new StringReader(csvUsers()), BulkEvaluator.Format.CSV, out);
+
+    List<String> outputLines = lines(out.toString());
+    assertEquals("key,cohort,off-flag", outputLines.get(0));
+    assertEquals(NUM_USERS + 1, outputLines.size());
+    for (int i = 0; i < NUM_USERS; i++) {
+      LDUser.Builder builder = new LDUser.Builder("user" + i).custom("beta", beta(i));
+      if (country(i) != null) {
+        builder.country(country(i));
+      }
+      if (age(i) != null) {
+        builder.custom("age", age(i));
+      }
+      LDUser user = builder.build();
+      JsonElement cohort = expectedValue("cohort", user);
+      String expectedCohort = cohort.isJsonPrimitive() ? cohort.getAsString() :
+          "\"" + gson.toJson(cohort).replace("\"", "\"\"") + "\"";
+      assertEquals("user" + i + "," + expectedCohort + ",", outputLines.get(i + 1)); // off-flag has no off variation
+    }
+  }
+
+  @Test
+  public void histogramsCountUsersForEachVariation() throws Exception {
+    String users = ndjsonUsers();
+    BulkEvaluator evaluator = new BulkEvaluator(client, Arrays.asList("cohort", "constant", "unknown"), null, 1000);
+    evaluator.evaluate(new StringReader(users), BulkEvaluator.Format.NDJSON, new StringWriter());
+
+    List<JsonElement> variations = Arrays.<JsonElement>asList(new JsonPrimitive("control"),
+        new JsonPrimitive("canada"), gson.fromJson("{\"group\":\"treatment\"}", JsonElement.class));
+    long[] expected = new long[4];
+    for (String line: lines(users)) {
+      expected[variations.indexOf(expectedValue("cohort", gson.fromJson(line, LDUser.class)))]++;
+    }
+    assertEquals(Arrays.toString(expected), Arrays.toString(evaluator.getHistogram("cohort")));
+    assertEquals(NUM_USERS / 4, expected[1]);
+    assertEquals("[" + NUM_USERS + ", 0]", Arrays.toString(evaluator.getHistogram("constant")));
+    assertEquals("[" + NUM_USERS + "]", Arrays.toString(evaluator.getHistogram("unknown")));
+    assertNull(evaluator.getHistogram("off-flag"));
+  }
+
+  @Test
+  public void unparseableLinesAreSkipped() throws Exception {
+    String users = "{\"key\":\"a\"}\n" +
+        "not json\n" +
+        "\n" +
+        "{\"key\":\"b\",\"email\":[\"x\"]}\n" +
+        "{\"key\":\"c\",\"custom\":{\"groups\":[\"x\",\"y\"]}}\n";
+    BulkEvaluator evaluator = new BulkEvaluator(client, Arrays.asList("constant"), null, 2);
+    StringWriter out = new StringWriter();
+    evaluator.evaluate(new StringReader(users), BulkEvaluator.Format.NDJSON, out);
+
+    assertEquals(Arrays.asList("{\"key\":\"a\",\"flagValues\":{\"constant\":3}}",
+        "{\"key\":\"c\",\"flagValues\":{\"constant\":3}}"), lines(out.toString()));
+    assertEquals(2, evaluator.getSkippedLines());
+  }
+
+  @Test
+  public void quotedCsvValuesCanContainLineBreaks() throws Exception {
+    String users = "key,country,\"no\nte\"\n" +
+        "\"user\n1\",CA,x\n" +
+        "user2,,\"a \"\"quoted\"\"\n\nvalue\"\n" +
+        "\"user3\n" +
+        "user4,CA,\n";
+    BulkEvaluator evaluator = new BulkEvaluator(client, Arrays.asList("cohort"), null, 2);
+    StringWriter out = new StringWriter();
+    evaluator.evaluate(new StringReader(users), BulkEvaluator.Format.CSV, out);
+
+    assertEquals("key,cohort\n\"user\n1\",canada\nuser2,control\n", out.toString());
+    assertEquals(1, evaluator.getSkippedLines()); // user3's key is never closed, so it takes in user4
+  }
+
+  @Test(expected = IOException.class)
+  public void csvValueThatIsNeverClosedFailsIfTooLong() throws Exception {
+    StringBuilder users = new StringBuilder("key\n\"user1\n");
+    for (int i = 0; i < BulkEvaluator.MAX_CSV_RECORD_LENGTH / 4; i++) {
+      users.append("user").append(i).append('\n');
+    }
+    BulkEvaluator evaluator = new BulkEvaluator(client, Arrays.asList("cohort"), null, 2);
+    evaluator.evaluate(new StringReader(users.toString()), BulkEvaluator.Format.CSV, new StringWriter());
+  }
+
+  @Test
+  public void commandLineWritesResultsAndHistograms() throws Exception {
+    Path usersFile = Files.createTempFile("users", ".csv");
+    Path outputFile = Files.createTempFile("results", ".csv");
+    try {
+      Files.write(usersFile, "key,country\nuser1,CA\nuser2,\n".getBytes(StandardCharsets.UTF_8));
+      ByteArrayOutputStream stderr = new ByteArrayOutputStream();
+      int status = BulkEvaluator.run(new String[] {
+            "--data", resourceFilePath("bulk-evaluation.json").toString(),
+            "--flag", "cohort",
+            "--output", outputFile.toString(),
+            usersFile.toString()
+          },
+          new ByteArrayInputStream(new byte[0]), new ByteArrayOutputStream(), new PrintStream(stderr, true));
+
+      assertEquals(0, status);
+      assertEquals("key,cohort\nuser1,canada\nuser2,control\n",
+          new String(Files.readAllBytes(outputFile), StandardCharsets.UTF_8));
+      assertEquals(Arrays.asList("cohort", "  0 \"control\": 1", "  1 \"canada\": 1",
+          "  2 {\"group\":\"treatment\"}: 0", "  default: 0"), lines(stderr.toString("UTF-8")));
+    } finally {
+      Files.delete(usersFile);
+      Files.delete(outputFile);
+    }
+  }
+
+  @Test
+  public void commandLineReadsStandardInput() throws Exception {
+    ByteArrayOutputStream stdout = new ByteArrayOutputStream();
+    int status = BulkEvaluator.run(new String[] {
+          "--data", resourceFilePath("bulk-evaluation.json").toString(), "--flag", "constant", "--threads", "1"
+        },
+        new ByteArrayInputStream("{\"key\":\"a\"}\n".getBytes(StandardCharsets.UTF_8)), stdout,
+        new PrintStream(new ByteArrayOutputStream(), true));
+
+    assertEquals(0, status);
+    assertEquals("{\"key\":\"a\",\"flagValues\":{\"constant\":3}}\n", stdout.toString("UTF-8"));
+  }
+
+  @Test
+  public void commandLineRequiresDataFiles() throws Exception {
+    ByteArrayOutputStream stderr = new ByteArrayOutputStream();
+    int status = BulkEvaluator.run(new String[] { "users.ndjson" }, new ByteArrayInputStream(new byte[0]),
+        new ByteArrayOutputStream(), new PrintStream(stderr, true));
+    assertEquals(2, status);
+  }
+
+  @Test
+  public void commandLineFailsIfDataCannotBeLoaded() throws Exception {
+    int status = BulkEvaluator.run(new String[] { "--data", resourceFilePath("malformed.json").toString() },
+        new ByteArrayInputStream(new byte[0]), new ByteArrayOutputStream(),
+        new PrintStream(new ByteArrayOutputStream(), true));
+    assertEquals(1, status);
+  }
+}
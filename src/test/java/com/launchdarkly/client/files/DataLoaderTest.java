@@ -97,6 +97,16 @@ public class DataLoaderTest {
     }
   }
 
+  @Test
+  public void segmentKeyFileNamesAreKeptAsTheyAre() throws Exception {
+    DataLoader ds = new DataLoader(ImmutableList.of(resourceFilePath("segment-with-key-files.json")));
+    ds.load(builder);
+    VersionedData segment = builder.build().get(SEGMENTS).get("seg1");
+    JsonObject json = gson.toJsonTree(segment).getAsJsonObject();
+    assertThat(json.get("includedKeysFile").getAsString(), equalTo("segment-with-key-files-included.txt"));
+    assertThat(json.get("excludedKeysFile").getAsString(), equalTo("segment-with-key-files-excluded.txt"));
+  }
+
   private void assertDataHasItemsOfKind(VersionedDataKind<?> kind) {
     Map<String, ? extends VersionedData> items = builder.build().get(kind);
     if (items == null || items.size() == 0) {